@@ -78,7 +78,8 @@ public enum CreatureState implements State<CreatureControl> {
                 return true; // Found work
             }
 
-            return false;
+            // Workers wait for the task phase, it sends them wandering if there is no task for them
+            return entity.isTaskRequested();
         }
 
         @Override
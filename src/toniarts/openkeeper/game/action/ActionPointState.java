@@ -20,7 +20,6 @@ import com.jme3.app.Application;
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import java.util.HashMap;
-import toniarts.openkeeper.Main;
 import toniarts.openkeeper.game.state.GameState;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.world.WorldState;
@@ -32,7 +31,7 @@ import toniarts.openkeeper.world.WorldState;
 public class ActionPointState extends AbstractAppState {
 
     private AppStateManager stateManager;
-    private Main app;
+    private Application app;
     private HashMap<Integer, ActionPoint> actionPoints = null;
     private HashMap<Integer, ActionPointTriggerControl> triggers = null;
 
@@ -48,7 +47,7 @@ public class ActionPointState extends AbstractAppState {
         super.initialize(stateManager, app);
 
         this.stateManager = stateManager;
-        this.app = (Main) app;
+        this.app = app;
 
         actionPoints = new HashMap<>();
         triggers = new HashMap<>();
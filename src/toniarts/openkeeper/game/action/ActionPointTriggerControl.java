@@ -23,7 +23,7 @@ import toniarts.openkeeper.game.trigger.TriggerControl;
 import toniarts.openkeeper.game.trigger.TriggerGenericData;
 import toniarts.openkeeper.tools.convert.map.TriggerGeneric;
 import toniarts.openkeeper.world.MapData;
-import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.TileStore;
 import toniarts.openkeeper.world.WorldState;
 import toniarts.openkeeper.world.creature.CreatureControl;
 
@@ -103,10 +103,10 @@ public class ActionPointTriggerControl extends TriggerControl {
                 playerId = trigger.getUserData("playerId", short.class);
                 value = trigger.getUserData("value", int.class);
 
-                MapData map = stateManager.getState(WorldState.class).getMapData();
+                TileStore tiles = stateManager.getState(WorldState.class).getMapData().getTileStore();
                 for (int x = (int) ap.getStart().x; x <= (int) ap.getEnd().x; x++) {
                     for (int y = (int) ap.getStart().y; y <= (int) ap.getEnd().y; y++) {
-                        if (playerId == map.getTile(x, y).getPlayerId()) {
+                        if (playerId == tiles.getPlayerId(tiles.getIndex(x, y))) {
                             target++;
                         }
                     }
@@ -116,10 +116,10 @@ public class ActionPointTriggerControl extends TriggerControl {
             case AP_CLAIM_ALL_OF:
                 playerId = trigger.getUserData("playerId", short.class);
                 // value = trigger.getUserData("value", int.class); // Unusefull ?
-                map = stateManager.getState(WorldState.class).getMapData();
+                tiles = stateManager.getState(WorldState.class).getMapData().getTileStore();
                 for (int x = (int) ap.getStart().x; x <= (int) ap.getEnd().x; x++) {
                     for (int y = (int) ap.getStart().y; y <= (int) ap.getEnd().y; y++) {
-                        if (playerId != map.getTile(x, y).getPlayerId()) {
+                        if (playerId != tiles.getPlayerId(tiles.getIndex(x, y))) {
                             return false;
                         }
                     }
@@ -131,12 +131,12 @@ public class ActionPointTriggerControl extends TriggerControl {
                 targetId = trigger.getUserData("terrainId", short.class);
                 value = trigger.getUserData("value", int.class);
 
-                map = stateManager.getState(WorldState.class).getMapData();
+                tiles = stateManager.getState(WorldState.class).getMapData().getTileStore();
                 for (int x = (int) ap.getStart().x; x <= (int) ap.getEnd().x; x++) {
                     for (int y = (int) ap.getStart().y; y <= (int) ap.getEnd().y; y++) {
-                        TileData tile = map.getTile(x, y);
+                        int index = tiles.getIndex(x, y);
 
-                        if (playerId != 0 && playerId != tile.getPlayerId() || targetId != tile.getTerrainId()) {
+                        if (playerId != 0 && playerId != tiles.getPlayerId(index) || targetId != tiles.getTerrainId(index)) {
                             continue;
                         }
 
@@ -149,11 +149,11 @@ public class ActionPointTriggerControl extends TriggerControl {
                 // playerId = trigger.getUserData("playerId", short.class);
                 value = trigger.getUserData("value", int.class);
 
-                map = stateManager.getState(WorldState.class).getMapData();
+                tiles = stateManager.getState(WorldState.class).getMapData().getTileStore();
                 for (int x = (int) ap.getStart().x; x <= (int) ap.getEnd().x; x++) {
                     for (int y = (int) ap.getStart().y; y <= (int) ap.getEnd().y; y++) {
                         // TODO check who tagged tile
-                        if (map.getTile(x, y).isSelected()) {
+                        if (tiles.isSelected(tiles.getIndex(x, y))) {
                             target++;
                         }
                     }
@@ -163,11 +163,11 @@ public class ActionPointTriggerControl extends TriggerControl {
             case AP_TAG_ALL_OF:
                 // playerId = trigger.getUserData("playerId", short.class);
                 // value = trigger.getUserData("value", int.class); // Unusefull ?
-                map = stateManager.getState(WorldState.class).getMapData();
+                tiles = stateManager.getState(WorldState.class).getMapData().getTileStore();
                 for (int x = (int) ap.getStart().x; x <= (int) ap.getEnd().x; x++) {
                     for (int y = (int) ap.getStart().y; y <= (int) ap.getEnd().y; y++) {
                         // TODO check who tagged tile
-                        if (!map.getTile(x, y).isSelected()) {
+                        if (!tiles.isSelected(tiles.getIndex(x, y))) {
                             return false;
                         }
                     }
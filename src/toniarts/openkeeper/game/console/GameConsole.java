@@ -24,9 +24,12 @@ import de.lessvoid.nifty.controls.ConsoleCommands.ConsoleCommand;
 import de.lessvoid.nifty.tools.Color;
 import java.util.Collection;
 import toniarts.openkeeper.game.data.Keeper;
+import toniarts.openkeeper.game.logic.GameLogicThread;
+import toniarts.openkeeper.game.logic.TickProfiler;
 import toniarts.openkeeper.game.state.CheatState;
 import toniarts.openkeeper.game.state.GameState;
 import toniarts.openkeeper.game.state.PlayerState;
+import toniarts.openkeeper.game.state.TickProfilerState;
 import toniarts.openkeeper.tools.convert.map.Creature;
 import toniarts.openkeeper.utils.WorldUtils;
 import toniarts.openkeeper.world.WorldState;
@@ -51,6 +54,8 @@ public class GameConsole {
     private enum ParameterCommands {
         ADD_GOLD,
         ADD_MANA,
+        GAME_SPEED,
+        OVERRUN_POLICY,
         SPAWN_CREATURE,
         SPAWN_IMPS;
     };
@@ -64,6 +69,9 @@ public class GameConsole {
         HELP,
         LOOSE_LEVEL,
         LEVEL_MAX,
+        PROFILE,
+        PROFILE_OVERLAY,
+        PROFILE_RESET,
         SPAWN_IMP,
         UNLOCK_ROOMS,
         UNLOCK_SPELLS,
@@ -91,6 +99,10 @@ public class GameConsole {
                 creatures.forEach(creature -> {
                     consoleCommands.registerCommand(parameterCmd.toString().toLowerCase() + " " + creature.getName().toLowerCase().replace(" ", "_"), parameterCommand);
                 });
+            } else if (parameterCmd.equals(ParameterCommands.OVERRUN_POLICY)) {
+                for (GameLogicThread.OverrunPolicy policy : GameLogicThread.OverrunPolicy.values()) {
+                    consoleCommands.registerCommand(parameterCmd.toString().toLowerCase() + " " + policy.toString().toLowerCase(), parameterCommand);
+                }
             } else {
                 consoleCommands.registerCommand(parameterCmd.toString().toLowerCase(), parameterCommand);
             }
@@ -142,6 +154,15 @@ public class GameConsole {
                 case EXIT:
                     stateManager.getState(ConsoleState.class).setEnabled(false);
                     break;
+                case PROFILE:
+                    console.output(getProfiler().getReport(), messageOutputColor);
+                    break;
+                case PROFILE_OVERLAY:
+                    toggleProfilerOverlay();
+                    break;
+                case PROFILE_RESET:
+                    getProfiler().reset();
+                    break;
                 case LEVEL_MAX:
                 case UNLOCK_ROOMS:
                 case UNLOCK_SPELLS:
@@ -183,6 +204,26 @@ public class GameConsole {
                         console.outputError("First parameter must be a number!");
                     }
                     break;
+                case GAME_SPEED:
+                    try {
+                        float speed = Float.parseFloat(args[1]);
+                        if (speed <= 0) {
+                            console.outputError("Game speed must be positive!");
+                            break;
+                        }
+                        stateManager.getState(GameState.class).setGameSpeed(speed);
+                    } catch (NumberFormatException e) {
+                        console.outputError("First parameter must be the game speed, 1 being the normal speed!");
+                    }
+                    break;
+                case OVERRUN_POLICY:
+                    try {
+                        GameLogicThread.OverrunPolicy policy = GameLogicThread.OverrunPolicy.valueOf(args[1].toUpperCase());
+                        stateManager.getState(GameState.class).getGameLogicThread().setOverrunPolicy(policy);
+                    } catch (IllegalArgumentException e) {
+                        console.outputError("Unknown overrun policy " + args[1] + "!");
+                    }
+                    break;
                 case SPAWN_IMPS:
                     try {
                         int amount = Integer.parseInt(args[1]);
@@ -235,6 +276,19 @@ public class GameConsole {
         stateManager.getState(WorldState.class).getThingLoader().spawnCreature(creatureId, keeper.getId(), level, dhEntrance, false, null);
     }
 
+    private TickProfiler getProfiler() {
+        return stateManager.getState(GameState.class).getGameLogicThread().getProfiler();
+    }
+
+    private void toggleProfilerOverlay() {
+        TickProfilerState overlay = stateManager.getState(TickProfilerState.class);
+        if (overlay != null) {
+            stateManager.detach(overlay);
+        } else {
+            stateManager.attach(new TickProfilerState(getProfiler()));
+        }
+    }
+
     private boolean showHelpMessage() {
         StringBuilder outputText = new StringBuilder();
         outputText.append("##########################################\n");
@@ -18,11 +18,15 @@ package toniarts.openkeeper.game.logic;
 
 import com.jme3.app.Application;
 import com.jme3.app.state.AbstractAppState;
+import java.util.List;
 import toniarts.openkeeper.world.ThingLoader;
 import toniarts.openkeeper.world.creature.CreatureControl;
 
 /**
- * Handles creature logic updates
+ * Handles creature logic updates. The tick is run in two phases. First all
+ * the creatures sense and decide in parallel, only reading the world. Then
+ * the state machines are run one creature at a time, always in the same
+ * order, to apply the changes to the world.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -30,13 +34,30 @@ public class CreatureLogicState extends AbstractAppState implements IGameLogicUp
 
     private final ThingLoader thingLoader;
 
+    /**
+     * Below this the parallelism is not worth it
+     */
+    private static final int PARALLEL_THRESHOLD = 16;
+
     public CreatureLogicState(ThingLoader thingLoader) {
         this.thingLoader = thingLoader;
     }
 
     @Override
     public void processTick(float tpf, Application app) {
-        for (CreatureControl creatureControl : thingLoader.getCreatures()) {
+        List<CreatureControl> creatures = thingLoader.getCreatures();
+
+        // Decide
+        if (creatures.size() >= PARALLEL_THRESHOLD) {
+            creatures.parallelStream().forEach(creatureControl -> creatureControl.prepareTick(tpf));
+        } else {
+            for (CreatureControl creatureControl : creatures) {
+                creatureControl.prepareTick(tpf);
+            }
+        }
+
+        // Apply
+        for (CreatureControl creatureControl : creatures) {
             creatureControl.processTick(tpf, app);
         }
     }
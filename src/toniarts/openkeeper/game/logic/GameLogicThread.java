@@ -25,36 +25,135 @@ import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.shape.Box;
 import com.jme3.scene.shape.Line;
-import java.awt.Point;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
-import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
+import toniarts.openkeeper.utils.jfr.LogicTickEvent;
+import toniarts.openkeeper.world.CreatureTileIndex;
 import toniarts.openkeeper.world.WorldState;
 import toniarts.openkeeper.world.creature.CreatureControl;
 
 /**
  * Runs the game logic. Implements runnable, so supports running from a thread.
+ * The simulation advances in fixed movement steps. Every step runs the
+ * movement, and when a game logic tick is due, the other phases are run
+ * around it in the order of {@link Phase}. So the phases never race each
+ * other.<br>
+ * The game speed only scales the real time between the steps, the simulation
+ * itself always sees the same time steps.<br>
+ * The phases and the updatables in them are timed with a {@link TickProfiler}.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class GameLogicThread implements Runnable {
 
+    /**
+     * The phases of the simulation, run in this order
+     */
+    public enum Phase {
+
+        /**
+         * Update the positions of the things to the map
+         */
+        OCCUPANCY,
+        /**
+         * Sense the surroundings
+         */
+        PERCEPTION,
+        /**
+         * The creature decisions
+         */
+        AI,
+        /**
+         * Tasks, paths and such
+         */
+        TASKS,
+        /**
+         * Creature movement, run on every step
+         */
+        MOVEMENT,
+        /**
+         * Triggers and timers
+         */
+        TRIGGERS;
+    }
+
+    /**
+     * What to do when the simulation can't keep up with the schedule
+     */
+    public enum OverrunPolicy {
+
+        /**
+         * Drop the missed steps, the game time falls behind the real time
+         */
+        SKIP,
+        /**
+         * Run the missed steps back to back, up to a limit
+         */
+        CATCH_UP,
+        /**
+         * Run every step, but start the schedule again after the late step.
+         * The game slows down with the machine
+         */
+        SLOW_MOTION;
+    }
+
+    private static final int MAX_CATCH_UP_STEPS = 10;
+
     private final float tpf;
-    private final IGameLogicUpdateable[] updatables;
-    private long ticks = 0;
+    private final float movementTpf;
+    private final Map<Phase, List<IGameLogicUpdateable>> updatables = new EnumMap<>(Phase.class);
+    private final TickProfiler profiler = new TickProfiler();
+    private final Map<Phase, TickProfiler.Entry> phaseEntries = new EnumMap<>(Phase.class);
+    private final Map<Phase, List<TickProfiler.Entry>> updatableEntries = new EnumMap<>(Phase.class);
+    private final TickProfiler.Entry occupancyEntry;
+    private volatile long ticks = 0;
     private final Application app;
     private final WorldState worldState;
+    private final CreatureTileIndex creatureTileIndex;
     private final Map<CreatureControl, ColorRGBA> creatureDebugColors;
+    private float timeToTick;
+    private volatile float speed = 1f;
+    private volatile OverrunPolicy overrunPolicy = OverrunPolicy.CATCH_UP;
+    private volatile long tickBudget;
+    private volatile boolean running = true;
+    private boolean paused = true;
+    private boolean scheduleReset = true;
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition scheduleChanged = pauseLock.newCondition();
     private static final Logger logger = Logger.getLogger(GameLogicThread.class.getName());
 
-    public GameLogicThread(Application app, WorldState worldState, float tpf, IGameLogicUpdateable... updatables) {
+    /**
+     * Creates the game logic, starts paused
+     *
+     * @param app the application
+     * @param worldState the world
+     * @param tpf the time of one game logic tick
+     * @param movementTpf the time of one movement step
+     */
+    public GameLogicThread(Application app, WorldState worldState, float tpf, float movementTpf) {
         this.app = app;
         this.tpf = tpf;
+        this.movementTpf = movementTpf;
         this.worldState = worldState;
-        this.updatables = updatables;
+        this.creatureTileIndex = new CreatureTileIndex(worldState.getMapData());
+        this.tickBudget = (long) (tpf * 1000);
+        this.timeToTick = 0;
+        for (Phase phase : Phase.values()) {
+            updatables.put(phase, new ArrayList<>());
+            phaseEntries.put(phase, profiler.getEntry(phase.toString()));
+            updatableEntries.put(phase, new ArrayList<>());
+        }
+        occupancyEntry = profiler.getEntry(phaseEntries.get(Phase.OCCUPANCY), CreatureTileIndex.class.getSimpleName());
+        profiler.register();
         if (Main.isDebug()) {
             creatureDebugColors = new HashMap<>();
         } else {
@@ -62,52 +161,254 @@ public class GameLogicThread implements Runnable {
         }
     }
 
+    /**
+     * Adds an updatable to a phase. The updatables in a phase are run in the
+     * order they are added
+     *
+     * @param phase the phase
+     * @param updatable the updatable
+     */
+    public void addUpdatable(Phase phase, IGameLogicUpdateable updatable) {
+        updatables.get(phase).add(updatable);
+        String name = updatable.getClass().getSimpleName();
+        if (name.isEmpty()) {
+            name = updatable.getClass().getName();
+        }
+        updatableEntries.get(phase).add(profiler.getEntry(phaseEntries.get(phase), name));
+    }
+
     @Override
     public void run() {
-        // Please, use tryc in Threads. Because Exceptions here kill thread
-        try {
-            long start = System.currentTimeMillis();
+        long nextStep = 0;
+        while (running) {
+            try {
 
-            // Before anything is run, update last known positions to our map
-            for (int y = 0; y < worldState.getMapData().getHeight(); y++) {
-                for (int x = 0; x < worldState.getMapData().getWidth(); x++) {
-                    worldState.getMapData().getTile(x, y).clearCreatures();
+                // Wait for our turn
+                pauseLock.lock();
+                try {
+                    while (running && paused) {
+                        scheduleChanged.await();
+                    }
+                    if (scheduleReset) {
+                        scheduleReset = false;
+                        nextStep = System.nanoTime();
+                    }
+                    long wait = nextStep - System.nanoTime();
+                    if (wait > 0) {
+                        scheduleChanged.awaitNanos(wait);
+                        continue;
+                    }
+                } finally {
+                    pauseLock.unlock();
                 }
-            }
-            for (CreatureControl creature : worldState.getThingLoader().getCreatures()) {
-                Point p = creature.getCreatureCoordinates();
-                if (p != null) {
-                    TileData tile = worldState.getMapData().getTile(p);
-                    if (tile != null) {
-                        tile.addCreature(creature);
+                if (!running) {
+                    break;
+                }
+
+                step();
+
+                // Schedule the next step
+                long now = System.nanoTime();
+                long interval = (long) (movementTpf * 1000000000L / speed);
+                nextStep += interval;
+                if (now > nextStep) {
+                    switch (overrunPolicy) {
+                        case SKIP: {
+                            nextStep += ((now - nextStep) / interval + 1) * interval;
+                            break;
+                        }
+                        case CATCH_UP: {
+                            nextStep = Math.max(nextStep, now - interval * MAX_CATCH_UP_STEPS);
+                            break;
+                        }
+                        case SLOW_MOTION: {
+                            nextStep = now;
+                            break;
+                        }
                     }
                 }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error in game logic!", e);
+            }
+        }
+    }
+
+    /**
+     * Advances the simulation by the given amount of game logic ticks, as fast
+     * as possible and in the calling thread. Meant for running without the
+     * screen, the game logic must not be running in its own thread meanwhile
+     *
+     * @param ticks the number of game logic ticks to run
+     */
+    public void advance(int ticks) {
+        long target = this.ticks + ticks;
+        while (this.ticks < target) {
+            step();
+        }
+    }
+
+    /**
+     * Runs one movement step, and a game logic tick if one is due
+     */
+    private void step() {
+        long start = System.nanoTime();
+        long startAllocated = profiler.getAllocatedBytes();
+        timeToTick -= movementTpf;
+        boolean tick = timeToTick <= 0;
+        LogicTickEvent event = null;
+        if (tick) {
+            timeToTick += tpf;
+            if (JfrEvents.AVAILABLE) {
+                event = new LogicTickEvent();
+                event.begin();
             }
+
+            // Before anything is run, update last known positions to our map
+            TickProfiler.Entry phaseEntry = phaseEntries.get(Phase.OCCUPANCY);
+            long phaseStart = System.nanoTime();
+            long phaseStartAllocated = profiler.getAllocatedBytes();
+            creatureTileIndex.update(worldState.getThingLoader().getCreatures());
+            profiler.record(occupancyEntry, phaseStart, phaseStartAllocated);
             if (Main.isDebug()) {
                 drawCreatureVisibilities();
             }
-            //
 
-            // Update updatables
-            for (IGameLogicUpdateable updatable : updatables) {
-                try {
-                    updatable.processTick(tpf, app);
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Error in game logic tick on " + updatable.getClass() + "!", e);
-                }
-            }
+            processPhase(Phase.OCCUPANCY, tpf);
+            profiler.record(phaseEntry, phaseStart, phaseStartAllocated);
+            processPhase(Phase.PERCEPTION, tpf);
+            processPhase(Phase.AI, tpf);
+            processPhase(Phase.TASKS, tpf);
+        }
+        processPhase(Phase.MOVEMENT, movementTpf);
+        if (tick) {
+            processPhase(Phase.TRIGGERS, tpf);
 
             // Increase ticks
             ticks++;
 
-            // Logging
-            long tickTime = System.currentTimeMillis() - start;
-            logger.log(tickTime < tpf * 1000 ? Level.FINEST : Level.SEVERE, "Tick took {0} ms!", tickTime);
-        } catch (Exception e) {
-            logger.severe(e.getLocalizedMessage());
+            // Profiling & logging
+            profiler.record(profiler.getTickEntry(), start, startAllocated);
+            long tickTime = (System.nanoTime() - start) / 1000000;
+            if (event != null && event.shouldCommit()) {
+                event.tick = ticks;
+                event.creatures = worldState.getThingLoader().getCreatures().size();
+                event.overrun = tickTime > tickBudget;
+                event.commit();
+            }
+            if (tickTime > tickBudget) {
+                long overruns = profiler.recordOverrun();
+                logger.log(Level.WARNING, "Tick took {0} ms, over the budget of {1} ms! {2} overruns so far.", new Object[]{tickTime, tickBudget, overruns});
+            } else {
+                logger.log(Level.FINEST, "Tick took {0} ms!", tickTime);
+            }
+        }
+    }
+
+    private void processPhase(Phase phase, float tpf) {
+        List<IGameLogicUpdateable> phaseUpdatables = updatables.get(phase);
+        List<TickProfiler.Entry> entries = updatableEntries.get(phase);
+        boolean occupancy = (phase == Phase.OCCUPANCY); // Timed with the tile index
+        long phaseStart = System.nanoTime();
+        long phaseStartAllocated = profiler.getAllocatedBytes();
+        for (int i = 0; i < phaseUpdatables.size(); i++) {
+            IGameLogicUpdateable updatable = phaseUpdatables.get(i);
+            long start = System.nanoTime();
+            long startAllocated = profiler.getAllocatedBytes();
+            try {
+                updatable.processTick(tpf, app);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error in game logic tick on " + updatable.getClass() + "!", e);
+            }
+            profiler.record(entries.get(i), start, startAllocated);
+        }
+        if (!occupancy) {
+            profiler.record(phaseEntries.get(phase), phaseStart, phaseStartAllocated);
+        }
+    }
+
+    /**
+     * Pause the game logic, the current step is finished first
+     */
+    public void pause() {
+        pauseLock.lock();
+        try {
+            paused = true;
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * Resume the game logic. The time spent paused is not caught up on
+     */
+    public void resume() {
+        pauseLock.lock();
+        try {
+            paused = false;
+            scheduleReset = true;
+            scheduleChanged.signalAll();
+        } finally {
+            pauseLock.unlock();
         }
     }
 
+    /**
+     * Stops the game logic for good, the thread exits
+     */
+    public void stop() {
+        pauseLock.lock();
+        try {
+            running = false;
+            scheduleChanged.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+        profiler.unregister();
+    }
+
+    /**
+     * Set the game speed, the multiplier to the real time passing. Does not
+     * change the simulation time steps
+     *
+     * @param speed the game speed, 1 being the normal speed
+     */
+    public void setSpeed(float speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Game speed must be positive!");
+        }
+        this.speed = speed;
+        pauseLock.lock();
+        try {
+            scheduleReset = true;
+            scheduleChanged.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public void setOverrunPolicy(OverrunPolicy overrunPolicy) {
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    public OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    /**
+     * Set the time budget for a game logic tick. Going over it is logged
+     *
+     * @param tickBudget the budget in milliseconds
+     */
+    public void setTickBudget(long tickBudget) {
+        this.tickBudget = tickBudget;
+    }
+
     /**
      * Get the elapsed game time, in seconds
      *
@@ -117,6 +418,24 @@ public class GameLogicThread implements Runnable {
         return ticks * tpf;
     }
 
+    /**
+     * Get the profiler collecting the timings of the phases and the updatables
+     *
+     * @return the profiler
+     */
+    public TickProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Get the number of game logic ticks run
+     *
+     * @return the game logic ticks
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
     private void drawCreatureVisibilities() {
         Node node = new Node("Visibilities");
         float elevation = 0.1f;
@@ -16,19 +16,25 @@
  */
 package toniarts.openkeeper.game.logic;
 
+import com.badlogic.gdx.math.Vector2;
 import com.jme3.app.Application;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import toniarts.openkeeper.ai.creature.CreatureState;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
+import toniarts.openkeeper.utils.jfr.MovementTickEvent;
+import toniarts.openkeeper.world.SpatialIndex;
 import toniarts.openkeeper.world.ThingLoader;
-import toniarts.openkeeper.world.creature.steering.AbstractCreatureSteeringControl;
+import toniarts.openkeeper.world.creature.CreatureControl;
 
 /**
  * Runs the creature movement. Implements runnable, so supports running from a
- * thread.
+ * thread, or as the movement phase of the {@link GameLogicThread}. Also keeps
+ * the creature spatial index up to date.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
-public class MovementThread implements Runnable {
+public class MovementThread implements Runnable, IGameLogicUpdateable {
 
     private final float tpf;
     private final Application app;
@@ -43,12 +49,37 @@ public class MovementThread implements Runnable {
 
     @Override
     public void run() {
+        processTick(tpf, app);
+    }
+
+    @Override
+    public void processTick(float tpf, Application app) {
         try {
             long start = System.currentTimeMillis();
+            MovementTickEvent event = null;
+            if (JfrEvents.AVAILABLE) {
+                event = new MovementTickEvent();
+                event.begin();
+            }
 
             // Update movement
-            for (AbstractCreatureSteeringControl steerable : thingLoader.getCreatures()) {
-                steerable.processSteeringTick(tpf, app);
+            SpatialIndex<CreatureControl> creatureIndex = thingLoader.getCreatureIndex();
+            creatureIndex.beginUpdate();
+            for (CreatureControl creature : thingLoader.getCreatures()) {
+                creature.processSteeringTick(tpf, app);
+
+                // Creatures in hand are not on the map
+                if (!creature.getStateMachine().isInState(CreatureState.PICKED_UP)) {
+                    Vector2 position = creature.getPosition();
+                    creatureIndex.update(creature, position.x, position.y);
+                }
+            }
+            creatureIndex.endUpdate();
+
+            if (event != null && event.shouldCommit()) {
+                event.creatures = thingLoader.getCreatureCount();
+                event.objects = thingLoader.getObjectCount();
+                event.commit();
             }
 
             // Logging
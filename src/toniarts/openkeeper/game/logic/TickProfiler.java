@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects timings of the game logic. Each entry, a phase or an updatable in
+ * it, gets a run count, the total and longest time and a histogram of the run
+ * times. Also the bytes allocated by the game logic thread during the runs are
+ * counted, if the JVM supports it.<br>
+ * The profiler can be registered to the platform MBean server, so the numbers
+ * are visible in JConsole and the like.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TickProfiler implements TickProfilerMBean {
+
+    public static final String OBJECT_NAME = "toniarts.openkeeper:type=TickProfiler";
+
+    /**
+     * Upper limit of the first histogram bucket, the following buckets double
+     * the limit
+     */
+    private static final long BUCKET_BASE_NANOS = 16000;
+    private static final int BUCKETS = 16;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Entry tick;
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private long overruns = 0;
+    private ObjectName objectName;
+    private static final Logger logger = Logger.getLogger(TickProfiler.class.getName());
+
+    public TickProfiler() {
+        tick = getEntry("Tick");
+
+        // Allocation counting is a HotSpot extension
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            if (!threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        } else {
+            threadMXBean = null;
+        }
+    }
+
+    /**
+     * Get the entry of a whole game logic tick
+     *
+     * @return the tick entry
+     */
+    public Entry getTickEntry() {
+        return tick;
+    }
+
+    /**
+     * Get or create a top level entry
+     *
+     * @param name the name of the entry
+     * @return the entry
+     */
+    public synchronized Entry getEntry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(name);
+            entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Get or create an entry under another entry
+     *
+     * @param parent the parent entry
+     * @param name the name of the entry
+     * @return the entry
+     */
+    public synchronized Entry getEntry(Entry parent, String name) {
+        for (Entry child : parent.children) {
+            if (child.name.equals(name)) {
+                return child;
+            }
+        }
+        Entry entry = new Entry(name);
+        parent.children.add(entry);
+        return entry;
+    }
+
+    /**
+     * Get the bytes allocated by the current thread so far. Take this and the
+     * {@link System#nanoTime()} before the measured run
+     *
+     * @return allocated bytes, or 0 if not supported
+     */
+    public long getAllocatedBytes() {
+        if (threadMXBean == null) {
+            return 0;
+        }
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Record a run to an entry, the run ends now
+     *
+     * @param entry the entry
+     * @param startNanos {@link System#nanoTime()} at the start of the run
+     * @param startAllocatedBytes {@link #getAllocatedBytes()} at the start of
+     * the run
+     */
+    public void record(Entry entry, long startNanos, long startAllocatedBytes) {
+        long nanos = System.nanoTime() - startNanos;
+        long allocated = getAllocatedBytes() - startAllocatedBytes;
+        synchronized (this) {
+            entry.count++;
+            entry.totalNanos += nanos;
+            entry.maxNanos = Math.max(entry.maxNanos, nanos);
+            entry.allocatedBytes += allocated;
+            entry.histogram[getBucket(nanos)]++;
+        }
+    }
+
+    /**
+     * Record a tick that went over the budget
+     *
+     * @return the overruns so far
+     */
+    public synchronized long recordOverrun() {
+        return ++overruns;
+    }
+
+    private static int getBucket(long nanos) {
+        int bucket = 0;
+        long limit = BUCKET_BASE_NANOS;
+        while (nanos >= limit && bucket < BUCKETS - 1) {
+            limit <<= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static long getBucketLimit(int bucket) {
+        return BUCKET_BASE_NANOS << bucket;
+    }
+
+    @Override
+    public synchronized long getTicks() {
+        return tick.count;
+    }
+
+    @Override
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    @Override
+    public synchronized double getMeanTickTime() {
+        return tick.getMean() / 1000000d;
+    }
+
+    @Override
+    public synchronized double getMaxTickTime() {
+        return tick.maxNanos / 1000000d;
+    }
+
+    @Override
+    public boolean isAllocationCounting() {
+        return threadMXBean != null;
+    }
+
+    @Override
+    public synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Ticks: %d, overruns: %d", tick.count, overruns));
+        sb.append(String.format("%n%-40s %8s %8s %8s %8s %8s", "", "runs", "mean ms", "p95 ms", "max ms", "alloc KB"));
+        for (Entry entry : entries.values()) {
+            appendEntry(sb, entry, "");
+        }
+        return sb.toString();
+    }
+
+    private void appendEntry(StringBuilder sb, Entry entry, String indent) {
+        sb.append(String.format("%n%-40s %8d %8.3f %8.3f %8.3f %8s",
+                indent + entry.name,
+                entry.count,
+                entry.getMean() / 1000000d,
+                entry.getPercentile(0.95f) / 1000000d,
+                entry.maxNanos / 1000000d,
+                (threadMXBean != null ? String.format("%.1f", entry.count > 0 ? entry.allocatedBytes / 1024d / entry.count : 0d) : "n/a")));
+        for (Entry child : entry.children) {
+            appendEntry(sb, child, indent + "  ");
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (Entry entry : entries.values()) {
+            entry.reset();
+        }
+        overruns = 0;
+    }
+
+    /**
+     * Register the profiler to the platform MBean server. Replaces any previous
+     * profiler
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Failed to register the tick profiler!", e);
+        }
+    }
+
+    /**
+     * Remove the profiler from the platform MBean server, if registered
+     */
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Failed to unregister the tick profiler!", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Statistics of one profiled thing. Guarded by the profiler
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final List<Entry> children = new ArrayList<>();
+        private final long[] histogram = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long allocatedBytes;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private double getMean() {
+            return count > 0 ? (double) totalNanos / count : 0;
+        }
+
+        /**
+         * Estimate a percentile from the histogram, the upper limit of the
+         * bucket it falls to
+         */
+        private double getPercentile(float percentile) {
+            long limit = (long) Math.ceil(count * percentile);
+            long runs = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                runs += histogram[i];
+                if (runs >= limit) {
+                    return Math.min(getBucketLimit(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        private void reset() {
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            allocatedBytes = 0;
+            Arrays.fill(histogram, 0);
+            for (Entry child : children) {
+                child.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+/**
+ * Management interface of the {@link TickProfiler}, for viewing the game logic
+ * timings with JMX tools such as JConsole
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public interface TickProfilerMBean {
+
+    /**
+     * Get the number of game logic ticks profiled
+     *
+     * @return the tick count
+     */
+    public long getTicks();
+
+    /**
+     * Get the number of ticks that went over the tick budget
+     *
+     * @return the overrun count
+     */
+    public long getOverruns();
+
+    /**
+     * Get the average game logic tick time
+     *
+     * @return average tick time in milliseconds
+     */
+    public double getMeanTickTime();
+
+    /**
+     * Get the longest game logic tick time
+     *
+     * @return the longest tick time in milliseconds
+     */
+    public double getMaxTickTime();
+
+    /**
+     * Is the allocation counting supported by the running JVM
+     *
+     * @return true if allocations are counted
+     */
+    public boolean isAllocationCounting();
+
+    /**
+     * Get the full report of all the phases and updatables
+     *
+     * @return the report, one line per entry
+     */
+    public String getReport();
+
+    /**
+     * Clear all the collected statistics
+     */
+    public void reset();
+}
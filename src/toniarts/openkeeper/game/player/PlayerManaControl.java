@@ -23,8 +23,7 @@ import java.util.Map;
 import toniarts.openkeeper.game.control.Control;
 import toniarts.openkeeper.game.state.GameState;
 import toniarts.openkeeper.tools.convert.map.Variable.MiscVariable.MiscType;
-import toniarts.openkeeper.world.MapData;
-import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.EconomyLedger;
 import toniarts.openkeeper.world.WorldState;
 
 /**
@@ -47,6 +46,7 @@ public class PlayerManaControl extends Control {
     private int manaGain;  // mana get per second
     private final int manaGainBase;
     private int manaGainFromTiles = 0;
+    private EconomyLedger.PlayerEconomy economy;
     private int manaLose;  // mana lose per second
     private final static int MANA_LOSE_PER_IMP = 7;  // I don`t find in Creature.java
     private int manaLoseFromCreatures = 0;
@@ -67,7 +67,6 @@ public class PlayerManaControl extends Control {
     protected void updateControl(float tpf) {
         tick += tpf;
         if (tick >= 1) {
-            // TODO change update mana only from external event
             updateManaFromTiles();
             updateManaFromCreatures();
             update();
@@ -76,20 +75,12 @@ public class PlayerManaControl extends Control {
     }
 
     private void updateManaFromTiles() {
-        int result = 0;
 
-        MapData mapData = stateManager.getState(WorldState.class).getMapData();
-
-        for (int x = 0; x < mapData.getWidth(); x++) {
-            for (int y = 0; y < mapData.getHeight(); y++) {
-                TileData tile = mapData.getTile(x, y);
-                if (tile.getPlayerId() == this.playerId) {
-                    result += tile.getTerrain().getManaGain();
-                }
-            }
+        // The ledger is kept up to date by the tiles themselves
+        if (economy == null) {
+            economy = stateManager.getState(WorldState.class).getMapData().getEconomyLedger().getPlayerEconomy(playerId);
         }
-
-        manaGainFromTiles = result;
+        manaGainFromTiles = economy.getManaGain();
     }
 
     private void updateManaFromCreatures() {
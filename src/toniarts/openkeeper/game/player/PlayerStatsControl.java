@@ -19,6 +19,7 @@ package toniarts.openkeeper.game.player;
 import java.util.HashMap;
 import java.util.Map;
 import toniarts.openkeeper.tools.convert.map.Creature;
+import toniarts.openkeeper.world.EconomyLedger;
 
 /**
  * A class to hold player's miscellaneous statistics
@@ -30,6 +31,7 @@ public class PlayerStatsControl {
     private final Map<Creature, Integer> slapsMap = new HashMap<>();
     private final Map<Creature, Integer> pickUpsMap = new HashMap<>();
     private final Map<Creature, Integer> dropsMap = new HashMap<>();
+    private EconomyLedger.PlayerEconomy economy;
 
     public boolean hasSlapped() {
         return !slapsMap.isEmpty();
@@ -76,4 +78,17 @@ public class PlayerStatsControl {
         increaseMapCount(creature, dropsMap);
     }
 
+    /**
+     * Get the player's tile economy, owned tiles and the mana they generate
+     *
+     * @return the player economy, {@code null} if the level is not loaded
+     */
+    public EconomyLedger.PlayerEconomy getEconomy() {
+        return economy;
+    }
+
+    public void setEconomy(EconomyLedger.PlayerEconomy economy) {
+        this.economy = economy;
+    }
+
 }
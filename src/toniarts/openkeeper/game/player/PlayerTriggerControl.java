@@ -233,7 +233,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 return false;
 
             case GUI_TRANSITION_ENDS:
-                return playerState.isTransitionEnd();
+                return playerState == null || playerState.isTransitionEnd(); // Headless there are no transitions to wait
 
             case GUI_BUTTON_PRESSED:
                 return false;
@@ -255,13 +255,13 @@ public class PlayerTriggerControl extends TriggerControl {
         TriggerAction.ActionType type = trigger.getType();
         switch (type) {
             case WIN_GAME: // Game part. only for keeper x
-                if (playerId == playerState.getPlayerId()) {
+                if (playerId == getCurrentPlayerId()) {
                     stateManager.getState(GameState.class).setEnd(true);
                 }
                 break;
 
             case LOSE_GAME: // Game part. only for keeper x
-                if (playerId == playerState.getPlayerId()) {
+                if (playerId == getCurrentPlayerId()) {
                     stateManager.getState(GameState.class).setEnd(false);
                 }
                 break;
@@ -289,7 +289,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case FLASH_BUTTON: // gui part. Only for keeper x
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     TriggerAction.MakeType buttonType = ConversionUtils.parseEnum(trigger.getUserData("type", short.class),
                             TriggerAction.MakeType.class);
                     short targetId = trigger.getUserData("targetId", short.class);
@@ -300,7 +300,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case FOLLOW_CAMERA_PATH: // gui part. Only for keeper x
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     // TODO disable control
                     //GameState.setEnabled(false);
                     PlayerCameraState pcs = stateManager.getState(PlayerCameraState.class);
@@ -319,7 +319,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case FLASH_ACTION_POINT: // AP part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     ActionPoint ap = getActionPoint(trigger.getUserData("actionPointId", short.class));
                     int time = trigger.getUserData("value", int.class);
                     available = trigger.getUserData("available", short.class) != 0;
@@ -333,7 +333,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case REVEAL_ACTION_POINT: // AP part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     // TODO this
                     // remove fog of war from tiles in action point
                     // or
@@ -342,14 +342,14 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case ZOOM_TO_ACTION_POINT: // AP part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     short apId = trigger.getUserData("targetId", short.class);
                     zoomToAP(apId);
                 }
                 break;
 
             case ROTATE_AROUND_ACTION_POINT: // AP part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     ActionPoint ap = getActionPoint(trigger.getUserData("targetId", short.class));
                     boolean isRelative = trigger.getUserData("available", short.class) == 0;
                     int angle = trigger.getUserData("angle", int.class);
@@ -361,7 +361,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case DISPLAY_OBJECTIVE: // Info part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     // TODO this
                     int objectiveId = trigger.getUserData("objectiveId", int.class); // limit 32767
                     short apId = trigger.getUserData("actionPointId", short.class);
@@ -371,7 +371,7 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case PLAY_SPEECH: // Info part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     int speechId = trigger.getUserData("speechId", int.class);
                     stateManager.getState(SoundState.class).attachLevelSpeech(speechId);
                     stateManager.getState(SystemMessageState.class).addMessage(SystemMessageState.MessageType.INFO, String.format("${level.%d}", speechId - 1));
@@ -385,28 +385,28 @@ public class PlayerTriggerControl extends TriggerControl {
                 break;
 
             case DISPLAY_TEXT_STRING: // Info part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     int textId = trigger.getUserData("textId", int.class);
                     // TODO display text message
                 }
                 break;
 
             case SET_WIDESCREEN_MODE: // Info part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     available = trigger.getUserData("available", short.class) != 0;
                     playerState.setWideScreen(available);
                 }
                 break;
 
             case DISPLAY_SLAB_OWNER: // Info part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     // TODO this
                     available = trigger.getUserData("available", short.class) != 0;
                 }
                 break;
 
             case DISPLAY_NEXT_ROOM_TYPE: // Info part
-                if (playerId == playerState.getPlayerId()) {
+                if (isLocalPlayer()) {
                     // TODO this
                     targetId = trigger.getUserData("targetId", short.class); // 0 = Off or roomId
                 }
@@ -422,6 +422,16 @@ public class PlayerTriggerControl extends TriggerControl {
         return super.getPlayer(playerId);
     }
 
+    /**
+     * Is this the player at the screen, the user interface actions are only
+     * for them. Headless there is no one at the screen
+     *
+     * @return is the local player
+     */
+    private boolean isLocalPlayer() {
+        return playerState != null && playerId == playerState.getPlayerId();
+    }
+
     private int getCreaturesCount(int playerId, short creatureId) {
         int result;
 
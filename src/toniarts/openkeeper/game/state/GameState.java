@@ -27,8 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
@@ -61,7 +60,6 @@ import toniarts.openkeeper.tools.convert.map.Variable;
 import toniarts.openkeeper.tools.modelviewer.SoundsLoader;
 import toniarts.openkeeper.utils.AssetUtils;
 import toniarts.openkeeper.utils.PathUtils;
-import toniarts.openkeeper.utils.PauseableScheduledThreadPoolExecutor;
 import toniarts.openkeeper.world.WorldState;
 
 /**
@@ -75,13 +73,14 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
     private static final int LEVEL_FLAG_MAX_COUNT = 128;
     private static final float MOVEMENT_UPDATE_TPF = 0.02f;
 
-    private Main app;
+    private Application app;
 
     private AppStateManager stateManager;
 
     private final String level;
     private KwdFile kwdFile;
     private final toniarts.openkeeper.game.data.Level levelObject;
+    private final boolean headless;
 
     private GameLogicThread gameLogicThread;
     private TriggerControl triggerControl = null;
@@ -100,7 +99,6 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
     private Float timeLimit = null;
     private TaskManager taskManager;
     private final Map<Short, Keeper> players = new TreeMap<>();
-    private PauseableScheduledThreadPoolExecutor exec;
 
     private static final Logger logger = Logger.getLogger(GameState.class.getName());
 
@@ -112,6 +110,7 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
     public GameState(String level) {
         this.level = level;
         this.levelObject = null;
+        this.headless = false;
     }
 
     /**
@@ -121,9 +120,24 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
      * @param players player participating in this game, can be {@code null}
      */
     public GameState(KwdFile level, List<Keeper> players) {
+        this(level, players, false);
+    }
+
+    /**
+     * Single use game states
+     *
+     * @param level the level to load
+     * @param players player participating in this game, can be {@code null}
+     * @param headless run without the screen and sounds. The level scripts
+     * are run, but their user interface actions are skipped. The game logic
+     * is not started, it is up to the caller to advance it
+     * @see #getGameLogicThread()
+     */
+    public GameState(KwdFile level, List<Keeper> players, boolean headless) {
         this.level = null;
         this.kwdFile = level;
         this.levelObject = null;
+        this.headless = headless;
         if (players != null) {
             for (Keeper keeper : players) {
                 this.players.put(keeper.getId(), keeper);
@@ -144,13 +158,26 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
         } else {
             this.levelObject = null;
         }
+        this.headless = false;
     }
 
     @Override
     public void initialize(final AppStateManager stateManager, final Application app) {
-        this.app = (Main) app;
+        this.app = app;
         this.stateManager = stateManager;
 
+        // Without a screen, just load and be done with it
+        if (headless) {
+            try {
+                loadLevel((progress) -> {
+                });
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Failed to load the game!", e);
+            }
+            initialized = true;
+            return;
+        }
+
         // Set up the loading screen
         SingleBarLoadingState loader = new SingleBarLoadingState() {
 
@@ -158,87 +185,7 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
             public Void onLoad() {
 
                 try {
-
-                    // Load the level data
-                    if (level != null) {
-                        kwdFile = new KwdFile(Main.getDkIIFolder(),
-                                new File(ConversionUtils.getRealFileName(Main.getDkIIFolder(), PathUtils.DKII_MAPS_FOLDER + level + ".kwd")));
-                    } else {
-                        kwdFile.load();
-                    }
-                    AssetUtils.prewarmAssets(kwdFile, assetManager, app);
-                    setProgress(0.1f);
-
-                    // load sounds
-                    loadSounds();
-
-                    // The players
-                    setupPlayers();
-
-                    // Triggers
-                    partyTriggerState = new PartyTriggerState(true);
-                    partyTriggerState.initialize(stateManager, app);
-                    creatureTriggerState = new CreatureTriggerState(true);
-                    creatureTriggerState.initialize(stateManager, app);
-                    objectTriggerState = new ObjectTriggerState(true);
-                    objectTriggerState.initialize(stateManager, app);
-                    doorTriggerState = new DoorTriggerState(true);
-                    doorTriggerState.initialize(stateManager, app);
-                    actionPointState = new ActionPointState(true);
-                    actionPointState.initialize(stateManager, app);
-                    setProgress(0.20f);
-
-                    // Create the actual level
-                    WorldState worldState = new WorldState(kwdFile, assetManager, GameState.this) {
-                        @Override
-                        protected void updateProgress(float progress) {
-                            setProgress(0.2f + progress * 0.6f);
-                        }
-                    };
-
-                    // Initialize tasks
-                    taskManager = new TaskManager(worldState, getPlayers());
-
-                    GameState.this.stateManager.attach(worldState);
-
-                    GameState.this.stateManager.attach(new SoundState(false));
-                    setProgress(0.60f);
-
-                    // Trigger data
-                    for (short i = 0; i < LEVEL_FLAG_MAX_COUNT; i++) {
-                        flags.add(i, 0);
-                    }
-
-                    for (byte i = 0; i < LEVEL_TIMER_MAX_COUNT; i++) {
-                        timers.add(i, new GameTimer());
-                    }
-
-                    int triggerId = kwdFile.getGameLevel().getTriggerId();
-                    if (triggerId != 0) {
-                        triggerControl = new TriggerControl(stateManager, triggerId);
-                        setProgress(0.90f);
-                    }
-
-                    // Game logic thread & movement
-                    exec = new PauseableScheduledThreadPoolExecutor(2, true);
-                    exec.setThreadFactory(new ThreadFactory() {
-
-                        @Override
-                        public Thread newThread(Runnable r) {
-                            return new Thread(r, "GameLogicAndMovementThread");
-                        }
-                    });
-                    gameLogicThread = new GameLogicThread(GameState.this.app,
-                            worldState, 1.0f / kwdFile.getGameLevel().getTicksPerSec(),
-                            GameState.this, new CreatureLogicState(worldState.getThingLoader()),
-                            new CreatureSpawnLogicState(worldState.getThingLoader(), getPlayers(), GameState.this),
-                            new RoomGoldFixer(worldState));
-                    exec.scheduleAtFixedRate(gameLogicThread,
-                            0, 1000 / kwdFile.getGameLevel().getTicksPerSec(), TimeUnit.MILLISECONDS);
-                    exec.scheduleAtFixedRate(new MovementThread(GameState.this.app, MOVEMENT_UPDATE_TPF, worldState.getThingLoader()),
-                            0, (long) (MOVEMENT_UPDATE_TPF * 1000), TimeUnit.MILLISECONDS);
-
-                    setProgress(1.0f);
+                    loadLevel(this::setProgress);
                 } catch (Exception e) {
                     logger.log(Level.SEVERE, "Failed to load the game!", e);
                 }
@@ -246,75 +193,6 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
                 return null;
             }
 
-            private void setupPlayers() {
-
-                // Setup players
-                boolean addMissingPlayers = players.isEmpty(); // Add all if none is given (campaign..)
-                for (Entry<Short, Player> entry : kwdFile.getPlayers().entrySet()) {
-                    Keeper keeper = null;
-                    if (players.containsKey(entry.getKey())) {
-                        keeper = players.get(entry.getKey());
-                        keeper.setPlayer(entry.getValue());
-                    } else if (addMissingPlayers || entry.getKey() < Player.KEEPER1_ID) {
-                        keeper = new Keeper(entry.getValue(), app);
-                        players.put(entry.getKey(), keeper);
-                    }
-
-                    // Init
-                    if (keeper != null) {
-                        keeper.initialize(stateManager, app);
-
-                        // Spells are all available for research unless otherwise stated
-                        for (KeeperSpell spell : kwdFile.getKeeperSpells()) {
-                            if (spell.getBonusRTime() != 0) {
-                                keeper.getSpellControl().setTypeAvailable(spell, true);
-                            }
-                        }
-                    }
-                }
-
-                // Set player availabilities
-                // TODO: the player customized game settings
-                for (Variable.Availability availability : kwdFile.getAvailabilities()) {
-                    if (availability.getPlayerId() == 0 && availability.getType() != Variable.Availability.AvailabilityType.SPELL) {
-
-                        // All players
-                        for (Keeper player : getPlayers()) {
-                            setAvailability(player, availability);
-                        }
-                    } else {
-                        Keeper player = getPlayer((short) availability.getPlayerId());
-
-                        // Not all the players are participating...
-                        if (player != null) {
-                            setAvailability(player, availability);
-                        }
-                    }
-                }
-            }
-
-            private void setAvailability(Keeper player, Variable.Availability availability) {
-                switch (availability.getType()) {
-                    case CREATURE: {
-                        player.getCreatureControl().setTypeAvailable(kwdFile.getCreature((short) availability.getTypeId()), availability.getValue() == Variable.Availability.AvailabilityValue.ENABLE);
-                        break;
-                    }
-                    case ROOM: {
-                        player.getRoomControl().setTypeAvailable(kwdFile.getRoomById((short) availability.getTypeId()), availability.getValue() == Variable.Availability.AvailabilityValue.ENABLE);
-                        break;
-                    }
-                    case SPELL: {
-                        if (availability.getValue() == Variable.Availability.AvailabilityValue.ENABLE) {
-
-                            // Enable the spell, no need to research it
-                            player.getSpellControl().setSpellDiscovered(kwdFile.getKeeperSpellById(availability.getTypeId()), true);
-                        } else {
-                            player.getSpellControl().setTypeAvailable(kwdFile.getKeeperSpellById(availability.getTypeId()), false);
-                        }
-                    }
-                }
-            }
-
             @Override
             public void onLoadComplete() {
 
@@ -329,14 +207,14 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
                 GameState.this.initialized = true;
 
                 // Set the processors
-                GameState.this.app.setViewProcessors();
+                ((Main) GameState.this.app).setViewProcessors();
 
                 // FIXME: this is not correct
                 // Enqueue the thread starting to next frame so that the states are initialized
                 app.enqueue(() -> {
 
                     // Enable game logic thread
-                    exec.resume();
+                    gameLogicThread.resume();
 
                     return null;
                 });
@@ -345,15 +223,185 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
         stateManager.attach(loader);
     }
 
+    /**
+     * Loads the level and sets up the game logic
+     *
+     * @param loadingProgress receives the loading progress, from 0 to 1
+     * @throws IOException may fail to find the level file
+     */
+    private void loadLevel(Consumer<Float> loadingProgress) throws IOException {
+
+        // Load the level data
+        if (level != null) {
+            kwdFile = new KwdFile(Main.getDkIIFolder(),
+                    new File(ConversionUtils.getRealFileName(Main.getDkIIFolder(), PathUtils.DKII_MAPS_FOLDER + level + ".kwd")));
+        } else {
+            kwdFile.load();
+        }
+        if (!headless) {
+            AssetUtils.prewarmAssets(kwdFile, app.getAssetManager(), (Main) app);
+        }
+        loadingProgress.accept(0.1f);
+
+        // load sounds
+        if (!headless) {
+            loadSounds();
+        }
+
+        // The players
+        setupPlayers();
+
+        // Triggers
+        partyTriggerState = new PartyTriggerState(true);
+        partyTriggerState.initialize(stateManager, app);
+        creatureTriggerState = new CreatureTriggerState(true);
+        creatureTriggerState.initialize(stateManager, app);
+        objectTriggerState = new ObjectTriggerState(true);
+        objectTriggerState.initialize(stateManager, app);
+        doorTriggerState = new DoorTriggerState(true);
+        doorTriggerState.initialize(stateManager, app);
+        actionPointState = new ActionPointState(true);
+        actionPointState.initialize(stateManager, app);
+        loadingProgress.accept(0.20f);
+
+        // Create the actual level
+        WorldState worldState = new WorldState(kwdFile, app.getAssetManager(), GameState.this) {
+            @Override
+            protected void updateProgress(float progress) {
+                loadingProgress.accept(0.2f + progress * 0.6f);
+            }
+        };
+
+        // Hook up the player economies
+        for (Keeper keeper : getPlayers()) {
+            keeper.getStatsControl().setEconomy(worldState.getMapData().getEconomyLedger().getPlayerEconomy(keeper.getId()));
+        }
+
+        // Initialize tasks
+        taskManager = new TaskManager(worldState, getPlayers());
+
+        stateManager.attach(worldState);
+
+        if (!headless) {
+            stateManager.attach(new SoundState(false));
+        }
+        loadingProgress.accept(0.60f);
+
+        // Trigger data
+        for (short i = 0; i < LEVEL_FLAG_MAX_COUNT; i++) {
+            flags.add(i, 0);
+        }
+
+        for (byte i = 0; i < LEVEL_TIMER_MAX_COUNT; i++) {
+            timers.add(i, new GameTimer());
+        }
+
+        int triggerId = kwdFile.getGameLevel().getTriggerId();
+        if (triggerId != 0) {
+            triggerControl = new TriggerControl(stateManager, triggerId);
+            loadingProgress.accept(0.90f);
+        }
+
+        // Game logic thread & movement
+        gameLogicThread = new GameLogicThread(app,
+                worldState, 1.0f / kwdFile.getGameLevel().getTicksPerSec(), MOVEMENT_UPDATE_TPF);
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.PERCEPTION, worldState.getThreatMap());
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.AI, new CreatureLogicState(worldState.getThingLoader()));
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.AI, new CreatureSpawnLogicState(worldState.getThingLoader(), getPlayers(), GameState.this));
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.TASKS, taskManager);
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.TASKS, new RoomGoldFixer(worldState));
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.TASKS, worldState.getPathFindingService()); // After the tasks, they queue paths
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.MOVEMENT, new MovementThread(app, MOVEMENT_UPDATE_TPF, worldState.getThingLoader()));
+        gameLogicThread.addUpdatable(GameLogicThread.Phase.TRIGGERS, GameState.this);
+        if (!headless) {
+            Thread thread = new Thread(gameLogicThread, "GameLogicAndMovementThread");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        loadingProgress.accept(1.0f);
+    }
+
+    private void setupPlayers() {
+
+        // Setup players
+        boolean addMissingPlayers = players.isEmpty(); // Add all if none is given (campaign..)
+        for (Entry<Short, Player> entry : kwdFile.getPlayers().entrySet()) {
+            Keeper keeper = null;
+            if (players.containsKey(entry.getKey())) {
+                keeper = players.get(entry.getKey());
+                keeper.setPlayer(entry.getValue());
+            } else if (addMissingPlayers || entry.getKey() < Player.KEEPER1_ID) {
+                keeper = new Keeper(entry.getValue(), app);
+                players.put(entry.getKey(), keeper);
+            }
+
+            // Init
+            if (keeper != null) {
+                keeper.initialize(stateManager, app);
+
+                // Spells are all available for research unless otherwise stated
+                for (KeeperSpell spell : kwdFile.getKeeperSpells()) {
+                    if (spell.getBonusRTime() != 0) {
+                        keeper.getSpellControl().setTypeAvailable(spell, true);
+                    }
+                }
+            }
+        }
+
+        // Set player availabilities
+        // TODO: the player customized game settings
+        for (Variable.Availability availability : kwdFile.getAvailabilities()) {
+            if (availability.getPlayerId() == 0 && availability.getType() != Variable.Availability.AvailabilityType.SPELL) {
+
+                // All players
+                for (Keeper player : getPlayers()) {
+                    setAvailability(player, availability);
+                }
+            } else {
+                Keeper player = getPlayer((short) availability.getPlayerId());
+
+                // Not all the players are participating...
+                if (player != null) {
+                    setAvailability(player, availability);
+                }
+            }
+        }
+    }
+
+    private void setAvailability(Keeper player, Variable.Availability availability) {
+        switch (availability.getType()) {
+            case CREATURE: {
+                player.getCreatureControl().setTypeAvailable(kwdFile.getCreature((short) availability.getTypeId()), availability.getValue() == Variable.Availability.AvailabilityValue.ENABLE);
+                break;
+            }
+            case ROOM: {
+                player.getRoomControl().setTypeAvailable(kwdFile.getRoomById((short) availability.getTypeId()), availability.getValue() == Variable.Availability.AvailabilityValue.ENABLE);
+                break;
+            }
+            case SPELL: {
+                if (availability.getValue() == Variable.Availability.AvailabilityValue.ENABLE) {
+
+                    // Enable the spell, no need to research it
+                    player.getSpellControl().setSpellDiscovered(kwdFile.getKeeperSpellById(availability.getTypeId()), true);
+                } else {
+                    player.getSpellControl().setTypeAvailable(kwdFile.getKeeperSpellById(availability.getTypeId()), false);
+                }
+            }
+        }
+    }
+
     @Override
     public void setEnabled(boolean enabled) {
         super.setEnabled(enabled);
 
         // Game logic thread
-        if (enabled) {
-            exec.resume();
-        } else {
-            exec.pause();
+        if (gameLogicThread != null) {
+            if (enabled) {
+                gameLogicThread.resume();
+            } else {
+                gameLogicThread.pause();
+            }
         }
         stateManager.getState(WorldState.class).setEnabled(enabled);
     }
@@ -369,8 +417,8 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
      * might crash.
      */
     public void detach() {
-        if (exec != null) {
-            exec.shutdownNow();
+        if (gameLogicThread != null) {
+            gameLogicThread.stop();
         }
         stateManager.detach(this);
         detachRelatedAppStates();
@@ -456,6 +504,31 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
         return timers.get(id);
     }
 
+    /**
+     * Set the game speed
+     *
+     * @param speed the game speed, 1 being the normal speed
+     * @see GameLogicThread#setSpeed(float)
+     */
+    public void setGameSpeed(float speed) {
+        if (gameLogicThread != null) {
+            gameLogicThread.setSpeed(speed);
+        }
+    }
+
+    /**
+     * Get the game logic runner
+     *
+     * @return the game logic, {@code null} if the level is not loaded
+     */
+    public GameLogicThread getGameLogicThread() {
+        return gameLogicThread;
+    }
+
+    public boolean isHeadless() {
+        return headless;
+    }
+
     /**
      * @see GameLogicThread#getGameTime()
      * @return the game time
@@ -482,7 +555,9 @@ public class GameState extends AbstractPauseAwareState implements IGameLogicUpda
         gameResult.setData(GameResult.ResultType.TIME_TAKEN, timeTaken);
 
         // Enable the end game state
-        stateManager.getState(PlayerState.class).endGame(win);
+        if (!headless) {
+            stateManager.getState(PlayerState.class).endGame(win);
+        }
 
         // Mark the achievement if campaign level
         if (levelObject != null) {
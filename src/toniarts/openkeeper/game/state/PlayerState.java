@@ -201,6 +201,10 @@ public class PlayerState extends AbstractAppState {
                 stateManager.detach(state);
             }
             stateManager.detach(stateManager.getState(ConsoleState.class));
+            TickProfilerState profilerState = stateManager.getState(TickProfilerState.class);
+            if (profilerState != null) {
+                stateManager.detach(profilerState);
+            }
 
             appStates.clear();
             screen.goToScreen(PlayerScreenController.SCREEN_EMPTY_ID);
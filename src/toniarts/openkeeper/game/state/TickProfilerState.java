@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.state;
+
+import com.jme3.app.Application;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.app.state.AppStateManager;
+import com.jme3.font.BitmapFont;
+import com.jme3.font.BitmapText;
+import com.jme3.math.ColorRGBA;
+import toniarts.openkeeper.game.logic.TickProfiler;
+
+/**
+ * Shows the game logic profiler report on top of the screen. The report is
+ * refreshed periodically, not every frame
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TickProfilerState extends AbstractAppState {
+
+    private static final float REFRESH_INTERVAL = 1f;
+
+    private final TickProfiler profiler;
+    private SimpleApplication app;
+    private BitmapText text;
+    private float timeToRefresh = 0;
+
+    public TickProfilerState(TickProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    public void initialize(AppStateManager stateManager, Application app) {
+        super.initialize(stateManager, app);
+        this.app = (SimpleApplication) app;
+
+        BitmapFont font = app.getAssetManager().loadFont("Interface/Fonts/Console.fnt");
+        text = new BitmapText(font, false);
+        text.setColor(ColorRGBA.Yellow);
+        this.app.getGuiNode().attachChild(text);
+        refresh();
+    }
+
+    @Override
+    public void update(float tpf) {
+        timeToRefresh -= tpf;
+        if (timeToRefresh <= 0) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        timeToRefresh = REFRESH_INTERVAL;
+        text.setText(profiler.getReport());
+        text.setLocalTranslation(0, app.getCamera().getHeight() - text.getLineHeight() * 2, 0);
+    }
+
+    @Override
+    public void cleanup() {
+        text.removeFromParent();
+
+        super.cleanup();
+    }
+}
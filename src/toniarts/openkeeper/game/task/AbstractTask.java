@@ -21,6 +21,7 @@ import java.awt.Point;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import toniarts.openkeeper.utils.Utils;
 import toniarts.openkeeper.utils.WorldUtils;
@@ -108,14 +109,7 @@ public abstract class AbstractTask implements Task {
      */
     protected boolean isReachable(CreatureControl creature, Vector2f target) {
         Point targetTile = WorldUtils.vectorToPoint(target);
-        boolean hasAccessibleNeighbour = false;
-        for (Point p : worldState.getMapLoader().getSurroundingTiles(targetTile, false)) {
-            if (worldState.isAccessible(worldState.getMapData().getTile(p), creature)) {
-                hasAccessibleNeighbour = true;
-                break; // At least one accessible point
-            }
-        }
-        if (!hasAccessibleNeighbour) {
+        if (!hasAccessibleNeighbour(creature, targetTile)) {
             return false;
         }
 
@@ -123,6 +117,49 @@ public abstract class AbstractTask implements Task {
         return (worldState.findPath(WorldUtils.vectorToPoint(creature.getPosition()), targetTile, creature) != null);
     }
 
+    /**
+     * Is the task reachable by the given creature, asynchronously. The path
+     * is searched on the game tick together with the other queued paths, and
+     * the future is completed in the game logic thread
+     *
+     * @param creature the creature trying to reach this
+     * @return future for whether the task is reachable
+     * @see WorldState#findPathAsync(java.awt.Point, java.awt.Point,
+     * toniarts.openkeeper.world.pathfinding.PathFindable)
+     */
+    public CompletableFuture<Boolean> isReachableAsync(CreatureControl creature) {
+        Vector2f target = getTarget(creature);
+        if (target != null) {
+            return isReachableAsync(creature, target);
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Is the target reachable by the given creature, asynchronously
+     *
+     * @param creature the creature trying to reach this
+     * @param target the target location
+     * @return future for whether the target is reachable
+     * @see #isReachableAsync(toniarts.openkeeper.world.creature.CreatureControl)
+     */
+    protected CompletableFuture<Boolean> isReachableAsync(CreatureControl creature, Vector2f target) {
+        Point targetTile = WorldUtils.vectorToPoint(target);
+        if (!hasAccessibleNeighbour(creature, targetTile)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return worldState.findPathAsync(WorldUtils.vectorToPoint(creature.getPosition()), targetTile, creature).thenApply(path -> path != null);
+    }
+
+    private boolean hasAccessibleNeighbour(CreatureControl creature, Point targetTile) {
+        for (Point p : worldState.getMapLoader().getSurroundingTiles(targetTile, false)) {
+            if (worldState.isAccessible(worldState.getMapData().getTile(p), creature)) {
+                return true; // At least one accessible point
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean isFaceTarget() {
         return false;
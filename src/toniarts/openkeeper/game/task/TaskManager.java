@@ -17,23 +17,24 @@
 package toniarts.openkeeper.game.task;
 
 import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.jme3.app.Application;
 import java.awt.Point;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.ai.creature.CreatureState;
 import toniarts.openkeeper.game.data.Keeper;
+import toniarts.openkeeper.game.logic.IGameLogicUpdateable;
 import toniarts.openkeeper.game.task.creature.ClaimLair;
 import toniarts.openkeeper.game.task.creature.GoToSleep;
 import toniarts.openkeeper.game.task.creature.ResearchSpells;
@@ -54,6 +55,8 @@ import toniarts.openkeeper.tools.convert.map.Creature;
 import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.utils.Utils;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
+import toniarts.openkeeper.utils.jfr.TaskAssignmentEvent;
 import toniarts.openkeeper.world.MapData;
 import toniarts.openkeeper.world.TileData;
 import toniarts.openkeeper.world.WorldState;
@@ -62,28 +65,40 @@ import toniarts.openkeeper.world.listener.CreatureListener;
 import toniarts.openkeeper.world.listener.ObjectListener;
 import toniarts.openkeeper.world.listener.TileChangeListener;
 import toniarts.openkeeper.world.object.ObjectControl;
+import toniarts.openkeeper.world.pathfinding.MapFlowField;
 import toniarts.openkeeper.world.room.GenericRoom;
+import toniarts.openkeeper.world.room.control.RoomObjectControl;
 
 /**
  * Task manager for several players. Can assign creatures to different tasks.
+ * The idle workers are matched with the tasks in batches, once per tick.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
-public class TaskManager {
+public class TaskManager implements IGameLogicUpdateable {
+
+    /**
+     * How many of the nearest tasks each worker proposes in the batched
+     * assignment
+     */
+    private static final int PROPOSALS_PER_WORKER = 4;
 
     private final WorldState worldState;
-    private final Map<Short, Set<AbstractTask>> taskQueues;
-    private final Map<GenericRoom, Map<Point, AbstractCapacityCriticalRoomTask>> roomTasks = new HashMap<>();
+    private final Map<Short, TaskQueue> taskQueues;
+    private final Map<Short, Set<CreatureControl>> idleWorkers;
     private static final Logger logger = Logger.getLogger(TaskManager.class.getName());
 
     public TaskManager(WorldState worldState, Collection<Keeper> players) {
         this.worldState = worldState;
 
         // Create a queue for each managed player (everybody except Good & Neutral)
+        MapData mapData = worldState.getMapData();
         taskQueues = new HashMap<>(players.size());
+        idleWorkers = new HashMap<>(players.size());
         for (Keeper keeper : players) {
             if (keeper.getId() != Player.GOOD_PLAYER_ID && keeper.getId() != Player.NEUTRAL_PLAYER_ID) {
-                taskQueues.put(keeper.getId(), new HashSet<>());
+                taskQueues.put(keeper.getId(), new TaskQueue(mapData.getWidth(), mapData.getHeight()));
+                idleWorkers.put(keeper.getId(), new LinkedHashSet<>());
             }
         }
 
@@ -110,15 +125,15 @@ public class TaskManager {
 
             @Override
             public void onAdded(ObjectControl objectControl) {
-                for (Entry<Short, Set<AbstractTask>> entry : taskQueues.entrySet()) {
-                    entry.getValue().add(getObjectTask(objectControl, entry.getKey()));
+                for (Entry<Short, TaskQueue> entry : taskQueues.entrySet()) {
+                    entry.getValue().add(getObjectTask(objectControl, entry.getKey()), objectControl);
                 }
             }
 
             @Override
             public void onRemoved(ObjectControl objectControl) {
-                for (Entry<Short, Set<AbstractTask>> entry : taskQueues.entrySet()) {
-                    entry.getValue().remove(getObjectTask(objectControl, entry.getKey()));
+                for (TaskQueue taskQueue : taskQueues.values()) {
+                    taskQueue.remove(objectControl);
                 }
             }
         });
@@ -136,22 +151,25 @@ public class TaskManager {
                     if (newState == CreatureState.UNCONSCIOUS) {
 
                         // Add rescue mission for the own troops and capture for the enemy
-                        for (Entry<Short, Set<AbstractTask>> entry : taskQueues.entrySet()) {
+                        for (Entry<Short, TaskQueue> entry : taskQueues.entrySet()) {
                             if (entry.getKey() == creature.getOwnerId()) {
 
                                 // Rescue
-                                entry.getValue().add(new RescueCreatureTask(worldState, creature, entry.getKey()));
+                                entry.getValue().add(new RescueCreatureTask(worldState, creature, entry.getKey()), creature);
                             } else {
 
                                 // Capture
-                                entry.getValue().add(new CaptureEnemyCreatureTask(worldState, creature, entry.getKey()));
+                                entry.getValue().add(new CaptureEnemyCreatureTask(worldState, creature, entry.getKey()), creature);
                             }
                         }
+                    } else if (oldState == CreatureState.UNCONSCIOUS) {
+                        removeCreatureTasks(creature);
                     }
                 }
 
                 @Override
                 public void onDie(CreatureControl creature) {
+                    removeCreatureTasks(creature);
                     // TODO: Rob the corpses
                 }
 
@@ -169,27 +187,28 @@ public class TaskManager {
 
         // Object tasks
         for (ObjectControl objectControl : worldState.getThingLoader().getObjects()) {
-            for (Entry<Short, Set<AbstractTask>> entry : taskQueues.entrySet()) {
-                entry.getValue().add(getObjectTask(objectControl, entry.getKey()));
+            for (Entry<Short, TaskQueue> entry : taskQueues.entrySet()) {
+                entry.getValue().add(getObjectTask(objectControl, entry.getKey()), objectControl);
             }
         }
     }
 
+    /**
+     * The rescue & capture missions are over when the creature wakes up or
+     * dies
+     */
+    private void removeCreatureTasks(CreatureControl creature) {
+        for (TaskQueue taskQueue : taskQueues.values()) {
+            taskQueue.remove(creature);
+        }
+    }
+
     private void scanTerrainTasks(final MapData mapData, final int x, final int y, final boolean checkNeighbours, final boolean deleteObsolete) {
-        for (Entry<Short, Set<AbstractTask>> entry : taskQueues.entrySet()) {
+        for (Entry<Short, TaskQueue> entry : taskQueues.entrySet()) {
 
-            // Scan existing tasks that are they valid, should be only one tile task per tile?
+            // Drop the tasks of the tile that are not valid anymore
             if (deleteObsolete) {
-                Iterator<AbstractTask> iter = entry.getValue().iterator();
-                while (iter.hasNext()) {
-                    AbstractTask task = iter.next();
-                    if (task instanceof AbstractTileTask) {
-                        AbstractTileTask tileTask = (AbstractTileTask) task;
-                        if (tileTask.isRemovable()) {
-                            iter.remove();
-                        }
-                    }
-                }
+                entry.getValue().removeIf(x, y, Task::isRemovable);
             }
 
             // Add a task
@@ -220,7 +239,7 @@ public class TaskManager {
         // See the neighbours
         if (checkNeighbours) {
             for (Point p : worldState.getMapLoader().getSurroundingTiles(new Point(x, y), false)) {
-                scanTerrainTasks(mapData, p.x, p.y, false, false);
+                scanTerrainTasks(mapData, p.x, p.y, false, deleteObsolete);
             }
         }
     }
@@ -235,47 +254,190 @@ public class TaskManager {
      */
     public boolean assignTask(CreatureControl creature, boolean byDistance) {
 
-        Set<AbstractTask> taskQueue = taskQueues.get(creature.getOwnerId());
+        TaskQueue taskQueue = taskQueues.get(creature.getOwnerId());
         if (taskQueue == null) {
             return false;
 //            throw new IllegalArgumentException("This task manager instance is not for the given player!");
         }
+        TaskAssignmentEvent event = null;
+        if (JfrEvents.AVAILABLE) {
+            event = new TaskAssignmentEvent();
+            event.begin();
+        }
 
-        // Sort by distance & priority
-        final Point currentLocation = creature.getCreatureCoordinates();
-        List<AbstractTask> prioritisedTaskQueue = new ArrayList<>(taskQueue);
-        Collections.sort(prioritisedTaskQueue, new Comparator<AbstractTask>() {
+        // Take the first available task by distance & priority
+        AbstractTask assignedTask = null;
+        int examinedTasks = 0;
+        Iterator<AbstractTask> prioritisedTasks = taskQueue.getPrioritisedTasks(creature.getCreatureCoordinates());
+        while (prioritisedTasks.hasNext()) {
+            AbstractTask task = prioritisedTasks.next();
+            examinedTasks++;
+            if (task.canAssign(creature)) {
 
-            @Override
-            public int compare(AbstractTask t, AbstractTask t1) {
-                int result = Integer.compare(calculateDistance(currentLocation, t.getTaskLocation()) + t.getPriority(), calculateDistance(currentLocation, t1.getTaskLocation()) + t1.getPriority());
-                if (result == 0) {
+                // Assign to first task
+                task.assign(creature, true);
+                assignedTask = task;
+                break;
+            }
+        }
+
+        if (event != null && event.shouldCommit()) {
+            event.creature = creature.getCreature().getName();
+            event.playerId = creature.getOwnerId();
+            event.queuedTasks = taskQueue.size();
+            event.examinedTasks = examinedTasks;
+            event.task = (assignedTask != null ? assignedTask.toString() : null);
+            event.assigned = (assignedTask != null);
+            event.commit();
+        }
+
+        return assignedTask != null;
+    }
+
+    /**
+     * Queue a worker for the next batched task assignment. If the worker gets
+     * a task, it is put to work
+     *
+     * @param creature the idle worker
+     * @see #processTick(float, Application)
+     */
+    public void requestTask(CreatureControl creature) {
+        Set<CreatureControl> workers = idleWorkers.get(creature.getOwnerId());
+        if (workers != null) {
+            workers.add(creature);
+        }
+    }
+
+    /**
+     * Is the worker waiting for the next batched task assignment
+     *
+     * @param creature the worker
+     * @return true if the worker has requested a task
+     */
+    public boolean isTaskRequested(CreatureControl creature) {
+        Set<CreatureControl> workers = idleWorkers.get(creature.getOwnerId());
+        return workers != null && workers.contains(creature);
+    }
+
+    /**
+     * Matches the workers that requested a task during the tick with the
+     * tasks
+     *
+     * @param tpf the time since the last tick
+     * @param app the application
+     */
+    @Override
+    public void processTick(float tpf, Application app) {
+        for (Entry<Short, Set<CreatureControl>> entry : idleWorkers.entrySet()) {
+            Set<CreatureControl> workers = entry.getValue();
+            if (!workers.isEmpty()) {
+                assignWorkers(taskQueues.get(entry.getKey()), workers);
+                workers.clear();
+            }
+        }
+    }
 
-                    // If the same, compare by date added
-                    return t.getTaskCreated().compareTo(t1.getTaskCreated());
+    /**
+     * Matches the idle workers of a player with the tasks. Each worker
+     * proposes its few best tasks, and the proposals are granted from the
+     * cheapest up. So a task goes to the nearest worker, not to the one that
+     * happened to ask first, and the workers spread out. Only the granted
+     * proposals are path found, all at once in parallel by the path finding
+     * service later on this tick. The workers left without a task fall back to
+     * the whole queue, and if there is still nothing for them, they wander
+     *
+     * @param taskQueue the task queue of the player
+     * @param workers the idle workers of the player
+     */
+    private void assignWorkers(TaskQueue taskQueue, Set<CreatureControl> workers) {
+
+        // Gather the proposals
+        List<TaskProposal> proposals = new ArrayList<>(workers.size() * PROPOSALS_PER_WORKER);
+        Set<CreatureControl> moreTasksAvailable = new HashSet<>();
+        for (CreatureControl worker : workers) {
+            if (!isIdle(worker)) {
+                continue;
+            }
+            Point location = worker.getCreatureCoordinates();
+            Iterator<AbstractTask> prioritisedTasks = taskQueue.getPrioritisedTasks(location);
+            int count = 0;
+            while (prioritisedTasks.hasNext()) {
+                if (count == PROPOSALS_PER_WORKER) {
+                    moreTasksAvailable.add(worker);
+                    break;
+                }
+                AbstractTask task = prioritisedTasks.next();
+                if (task.getAssigneeCount() < task.getMaxAllowedNumberOfAsignees() && task.isValid(worker)) {
+                    proposals.add(new TaskProposal(worker, task, calculateDistance(location, task.getTaskLocation()) + task.getPriority()));
+                    count++;
                 }
-                return result;
             }
+        }
 
+        // Grant the cheapest first
+        proposals.sort((p1, p2) -> {
+            int result = Integer.compare(p1.cost, p2.cost);
+            if (result == 0) {
+                return p1.task.getTaskCreated().compareTo(p2.task.getTaskCreated());
+            }
+            return result;
         });
+        Set<CreatureControl> grantedWorkers = new HashSet<>();
+        Map<AbstractTask, Integer> grantedAssignees = new HashMap<>();
+        for (TaskProposal proposal : proposals) {
+            AbstractTask task = proposal.task;
+            int assignees = task.getAssigneeCount() + grantedAssignees.getOrDefault(task, 0);
+            if (!grantedWorkers.contains(proposal.worker) && assignees < task.getMaxAllowedNumberOfAsignees()) {
+                grantedWorkers.add(proposal.worker);
+                grantedAssignees.merge(task, 1, Integer::sum);
+
+                // Assign once the path is found
+                task.isReachableAsync(proposal.worker).whenComplete((reachable, error) -> {
+                    if (Boolean.TRUE.equals(reachable) && isIdle(proposal.worker)
+                            && task.getAssigneeCount() < task.getMaxAllowedNumberOfAsignees() && task.isValid(proposal.worker)) {
+                        task.assign(proposal.worker, true);
+                        proposal.worker.getStateMachine().changeState(CreatureState.WORK);
+                    } else {
+                        assignOrWander(proposal.worker, true);
+                    }
+                });
+            }
+        }
 
-        // Take the first available task from the sorted queue
-        for (AbstractTask task : prioritisedTaskQueue) {
-            if (task.canAssign(creature)) {
-
-                // Assign to first task
-                task.assign(creature, true);
-                return true;
+        // The ones whose proposals all went to others, try further
+        for (CreatureControl worker : workers) {
+            if (!grantedWorkers.contains(worker)) {
+                assignOrWander(worker, moreTasksAvailable.contains(worker));
             }
         }
+    }
 
-        return false;
+    /**
+     * Last resort for a worker the batch left without a task. Try the whole
+     * task queue, and if there is still nothing, the idle state leaves the
+     * wandering to us
+     *
+     * @param worker the worker
+     * @param searchFurther whether to try the whole task queue
+     */
+    private void assignOrWander(CreatureControl worker, boolean searchFurther) {
+        if (!isIdle(worker)) {
+            return;
+        }
+        if (searchFurther && assignTask(worker, false)) {
+            worker.getStateMachine().changeState(CreatureState.WORK);
+        } else if (worker.isStopped()) {
+            worker.navigateToRandomPoint();
+        }
+    }
+
+    private static boolean isIdle(CreatureControl creature) {
+        return creature.getStateMachine().isInState(CreatureState.IDLE) && !creature.isIncapacitated();
     }
 
     private void addTask(short playerId, AbstractTask task) {
-        Set<AbstractTask> tasks = taskQueues.get(playerId);
-        if (!tasks.contains(task)) {
-            tasks.add(task);
+        TaskQueue tasks = taskQueues.get(playerId);
+        if (tasks.add(task)) {
             logger.log(Level.INFO, "Added task {0} for player {1}!", new Object[]{task, playerId});
         } else {
             logger.log(Level.WARNING, "Already a task {0} for player {1}!", new Object[]{task, playerId});
@@ -322,30 +484,27 @@ public class TaskManager {
     private boolean assignClosestRoomTask(CreatureControl creature, GenericRoom.ObjectType objectType, boolean assign) {
         Point currentPosition = creature.getCreatureCoordinates();
 
-        // Get all the rooms of the given type
+        // Get all the rooms of the given type, leave out the ones we can't reach
         List<GenericRoom> rooms = worldState.getMapLoader().getRoomsByFunction(objectType, creature.getOwnerId());
-        Map<Integer, GenericRoom> distancesToRooms = new TreeMap<>();
+        Map<GenericRoom, Float> distancesToRooms = new HashMap<>();
         for (GenericRoom room : rooms) {
             if (!room.isFullCapacity()) {
-                distancesToRooms.put(getShortestDistance(currentPosition, room.getRoomInstance().getCoordinates().toArray(new Point[room.getRoomInstance().getCoordinates().size()])), room
-                );
+                float distance = getDistance(creature, currentPosition, room);
+                if (distance >= 0) {
+                    distancesToRooms.put(room, distance);
+                }
             }
         }
+        List<GenericRoom> roomsByDistance = new ArrayList<>(distancesToRooms.keySet());
+        roomsByDistance.sort(Comparator.comparing(distancesToRooms::get));
 
         // See that are they really accessible starting from the least distance one
-        for (GenericRoom room : distancesToRooms.values()) {
+        for (GenericRoom room : roomsByDistance) {
 
             // FIXME: if we are to have more capacity than one per tile, we need to refactor
             // The whole rooms are always accessible, take a random point from the room like DK II seems to do
-            List<Point> coordinates = new ArrayList<>(room.getObjectControl(objectType).getAvailableCoordinates());
-            Iterator<Point> iter = coordinates.iterator();
-            Map<Point, AbstractCapacityCriticalRoomTask> taskPoints = roomTasks.get(room);
-            while (iter.hasNext()) {
-                Point p = iter.next();
-                if (!room.isTileAccessible(null, p) || (taskPoints != null && taskPoints.containsKey(p))) {
-                    iter.remove();
-                }
-            }
+            RoomObjectControl<?, ?> control = room.getObjectControl(objectType);
+            List<Point> coordinates = control.getFreeCoordinates();
 
             // Assign
             if (!coordinates.isEmpty()) {
@@ -361,12 +520,8 @@ public class TaskManager {
                         return task.isValid(creature);
                     }
 
-                    if (task instanceof AbstractCapacityCriticalRoomTask) {
-                        if (taskPoints == null) {
-                            taskPoints = new HashMap<>();
-                        }
-                        taskPoints.put(target, (AbstractCapacityCriticalRoomTask) task);
-                        roomTasks.put(room, taskPoints);
+                    if (task instanceof AbstractCapacityCriticalRoomTask && !control.reserveCoordinate(target)) {
+                        logger.log(Level.WARNING, "Coordinate {0} in room {1} was already reserved!", new Object[]{target, room});
                     }
                     task.assign(creature, true);
                     return true;
@@ -377,6 +532,26 @@ public class TaskManager {
         return false;
     }
 
+    /**
+     * Get the travel distance to the nearest tile of the room. Uses the flow
+     * fields where possible, they are shared by all the creatures heading to
+     * the room
+     *
+     * @param creature the creature
+     * @param currentPosition the current position of the creature
+     * @param room the room
+     * @return the distance, negative if the room is not reachable
+     */
+    private float getDistance(CreatureControl creature, Point currentPosition, GenericRoom room) {
+        List<Point> coordinates = room.getRoomInstance().getCoordinates();
+        TileData tile = worldState.getMapData().getTile(currentPosition);
+        MapFlowField flowField = worldState.getPathFindingService().getFlowField(coordinates, creature);
+        if (tile != null && flowField != null) {
+            return flowField.getDistance(tile);
+        }
+        return getShortestDistance(currentPosition, coordinates.toArray(new Point[coordinates.size()]));
+    }
+
     private static Integer getShortestDistance(Point currentPosition, Point... coordinates) {
         int distance = Integer.MAX_VALUE;
         for (Point p : coordinates) {
@@ -412,11 +587,7 @@ public class TaskManager {
     }
 
     protected void removeRoomTask(AbstractCapacityCriticalRoomTask task) {
-        Map<Point, AbstractCapacityCriticalRoomTask> taskPoints = roomTasks.get(task.getRoom());
-        taskPoints.remove(task.getTaskLocation());
-        if (taskPoints.isEmpty()) {
-            roomTasks.remove(task.getRoom());
-        }
+        task.getRoomObjectControl().releaseCoordinate(task.getTaskLocation());
     }
 
     /**
@@ -451,6 +622,22 @@ public class TaskManager {
         return new FetchObjectTask(worldState, objectControl, playerId);
     }
 
+    /**
+     * A worker's bid on a task in the batched assignment
+     */
+    private static final class TaskProposal {
+
+        private final CreatureControl worker;
+        private final AbstractTask task;
+        private final int cost;
+
+        public TaskProposal(CreatureControl worker, AbstractTask task, int cost) {
+            this.worker = worker;
+            this.task = task;
+            this.cost = cost;
+        }
+    }
+
     /**
      * Test if a given task type is available
      *
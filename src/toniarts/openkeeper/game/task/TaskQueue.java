@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.task;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Task queue of one player. The tasks are bucketed by their location, and each
+ * bucket keeps its tasks in the order of priority. So the tasks can be visited
+ * in the order of distance + priority from any point without sorting the whole
+ * queue, only the buckets near the point are opened.<br>
+ * The order is the same the task manager has always used: the Manhattan
+ * distance to the task plus the task priority, and on a tie the older task
+ * first.<br>
+ * The tasks are also registered to their tiles, and the tasks bound to a thing
+ * (an object or a creature) to the thing. So the tasks of a changed tile or a
+ * removed thing are found directly, and the duplicates are caught without
+ * comparing to the other tasks.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class TaskQueue {
+
+    /**
+     * Bucket width & height in tiles
+     */
+    private static final int BUCKET_SIZE = 8;
+
+    private static final Comparator<TaskEntry> ENTRY_COMPARATOR = (e1, e2) -> {
+        int result = Integer.compare(e1.priority, e2.priority);
+        if (result == 0) {
+            result = compareAge(e1, e2);
+        }
+        return result;
+    };
+
+    private static final Comparator<Candidate> CANDIDATE_COMPARATOR = (c1, c2) -> {
+        int result = Integer.compare(c1.key, c2.key);
+        if (result == 0) {
+
+            // Open the buckets first, they might hold an older task of the same cost
+            if (c1.bucket != null || c2.bucket != null) {
+                return Boolean.compare(c2.bucket != null, c1.bucket != null);
+            }
+            result = compareAge(c1.entry, c2.entry);
+        }
+        return result;
+    };
+
+    private final int width;
+    private final int height;
+    private final int bucketsX;
+    private final Bucket[] buckets;
+    private final List<Bucket> occupiedBuckets = new ArrayList<>();
+    private final TaskEntry[] tileTasks;
+    private final Map<Object, TaskEntry> thingTasks = new IdentityHashMap<>();
+    private int size = 0;
+    private long sequence = 0;
+
+    /**
+     * Creates a task queue for a map
+     *
+     * @param width map width in tiles
+     * @param height map height in tiles
+     */
+    public TaskQueue(int width, int height) {
+        this.width = width;
+        this.height = height;
+        bucketsX = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        int bucketsY = (height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        buckets = new Bucket[bucketsX * bucketsY];
+        tileTasks = new TaskEntry[width * height];
+        for (int y = 0; y < bucketsY; y++) {
+            for (int x = 0; x < bucketsX; x++) {
+                buckets[y * bucketsX + x] = new Bucket(x * BUCKET_SIZE, y * BUCKET_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Adds a tile task to the queue. Only one task of each type is allowed per
+     * tile
+     *
+     * @param task the task
+     * @return {@code true} if the task was added, {@code false} if the tile
+     * already has a task of the same type
+     */
+    public boolean add(AbstractTask task) {
+        Point location = task.getTaskLocation();
+        int tileIndex = getTileIndex(location.x, location.y);
+        for (TaskEntry entry = tileTasks[tileIndex]; entry != null; entry = entry.nextOnTile) {
+            if (entry.thing == null && entry.task.getClass() == task.getClass()) {
+                return false;
+            }
+        }
+        addEntry(task, null, tileIndex);
+        return true;
+    }
+
+    /**
+     * Adds a task bound to a thing, like fetching an object. Only one task is
+     * allowed per thing
+     *
+     * @param task the task
+     * @param thing the object or creature the task is about
+     * @return {@code true} if the task was added, {@code false} if the thing
+     * already has a task
+     */
+    public boolean add(AbstractTask task, Object thing) {
+        if (thingTasks.containsKey(thing)) {
+            return false;
+        }
+        Point location = task.getTaskLocation();
+        thingTasks.put(thing, addEntry(task, thing, getTileIndex(location.x, location.y)));
+        return true;
+    }
+
+    private TaskEntry addEntry(AbstractTask task, Object thing, int tileIndex) {
+        int x = tileIndex % width;
+        int y = tileIndex / width;
+        TaskEntry entry = new TaskEntry(task, thing, x, y, sequence++);
+        size++;
+
+        // Register to the tile
+        entry.tileIndex = tileIndex;
+        entry.nextOnTile = tileTasks[tileIndex];
+        if (entry.nextOnTile != null) {
+            entry.nextOnTile.previousOnTile = entry;
+        }
+        tileTasks[tileIndex] = entry;
+
+        Bucket bucket = buckets[(y / BUCKET_SIZE) * bucketsX + x / BUCKET_SIZE];
+        if (bucket.tasks.isEmpty()) {
+            bucket.occupiedIndex = occupiedBuckets.size();
+            occupiedBuckets.add(bucket);
+        }
+        bucket.tasks.add(entry);
+        entry.bucket = bucket;
+        return entry;
+    }
+
+    /**
+     * Removes the task bound to the given thing
+     *
+     * @param thing the object or creature
+     * @return the removed task, or {@code null} if the thing had no task
+     */
+    public AbstractTask remove(Object thing) {
+        TaskEntry entry = thingTasks.remove(thing);
+        if (entry == null) {
+            return null;
+        }
+        removeEntry(entry);
+        return entry.task;
+    }
+
+    /**
+     * Removes the tasks of a tile that satisfy the given predicate. This
+     * includes the thing tasks registered to the tile
+     *
+     * @param x tile x
+     * @param y tile y
+     * @param filter the predicate for the tasks to remove
+     * @return {@code true} if any tasks were removed
+     */
+    public boolean removeIf(int x, int y, Predicate<AbstractTask> filter) {
+        boolean removed = false;
+        TaskEntry entry = tileTasks[getTileIndex(x, y)];
+        while (entry != null) {
+            TaskEntry next = entry.nextOnTile;
+            if (filter.test(entry.task)) {
+                if (entry.thing != null) {
+                    thingTasks.remove(entry.thing);
+                }
+                removeEntry(entry);
+                removed = true;
+            }
+            entry = next;
+        }
+        return removed;
+    }
+
+    private void removeEntry(TaskEntry entry) {
+        size--;
+
+        // Unregister from the tile
+        if (entry.previousOnTile != null) {
+            entry.previousOnTile.nextOnTile = entry.nextOnTile;
+        } else {
+            tileTasks[entry.tileIndex] = entry.nextOnTile;
+        }
+        if (entry.nextOnTile != null) {
+            entry.nextOnTile.previousOnTile = entry.previousOnTile;
+        }
+        entry.previousOnTile = null;
+        entry.nextOnTile = null;
+
+        Bucket bucket = entry.bucket;
+        bucket.tasks.remove(entry);
+        entry.bucket = null;
+        if (bucket.tasks.isEmpty()) {
+
+            // Swap remove from the occupied list
+            Bucket last = occupiedBuckets.remove(occupiedBuckets.size() - 1);
+            if (last != bucket) {
+                occupiedBuckets.set(bucket.occupiedIndex, last);
+                last.occupiedIndex = bucket.occupiedIndex;
+            }
+            bucket.occupiedIndex = -1;
+        }
+    }
+
+    private int getTileIndex(int x, int y) {
+        return Math.max(0, Math.min(height - 1, y)) * width + Math.max(0, Math.min(width - 1, x));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visits the tasks in the order of distance + priority from the given
+     * point. The tasks are looked up as the iteration proceeds, so stopping
+     * early is cheap. Don't modify the queue while iterating
+     *
+     * @param from the point to measure the distances from
+     * @return iterator over the tasks, the best first
+     */
+    public Iterator<AbstractTask> getPrioritisedTasks(Point from) {
+        return new PrioritisedIterator(from.x, from.y);
+    }
+
+    private static int compareAge(TaskEntry e1, TaskEntry e2) {
+        int result = Long.compare(e1.created, e2.created);
+        if (result == 0) {
+            result = Long.compare(e1.sequence, e2.sequence);
+        }
+        return result;
+    }
+
+    /**
+     * Iterates the tasks best first. Each occupied bucket is first queued with
+     * its lower bound, the distance to the bucket plus its best priority. The
+     * bucket is opened when it comes up, and its tasks are queued with their
+     * exact costs
+     */
+    private final class PrioritisedIterator implements Iterator<AbstractTask> {
+
+        private final int x;
+        private final int y;
+        private final PriorityQueue<Candidate> open;
+        private TaskEntry next;
+
+        public PrioritisedIterator(int x, int y) {
+            this.x = x;
+            this.y = y;
+            open = new PriorityQueue<>(Math.max(1, occupiedBuckets.size()), CANDIDATE_COMPARATOR);
+            for (Bucket bucket : occupiedBuckets) {
+                open.add(new Candidate(bucket.getDistance(x, y) + bucket.tasks.first().priority, bucket, null));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !open.isEmpty()) {
+                Candidate candidate = open.poll();
+                if (candidate.bucket != null) {
+                    for (TaskEntry entry : candidate.bucket.tasks) {
+                        open.add(new Candidate(Math.abs(x - entry.x) + Math.abs(y - entry.y) + entry.priority, null, entry));
+                    }
+                } else if (candidate.entry.bucket != null) {
+                    next = candidate.entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public AbstractTask next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            AbstractTask task = next.task;
+            next = null;
+            return task;
+        }
+    }
+
+    private static final class Bucket {
+
+        private final int startX;
+        private final int startY;
+        private final TreeSet<TaskEntry> tasks = new TreeSet<>(ENTRY_COMPARATOR);
+        private int occupiedIndex = -1;
+
+        public Bucket(int startX, int startY) {
+            this.startX = startX;
+            this.startY = startY;
+        }
+
+        /**
+         * Manhattan distance from the point to the nearest tile of the bucket
+         */
+        private int getDistance(int x, int y) {
+            int dx = Math.max(0, Math.max(startX - x, x - (startX + BUCKET_SIZE - 1)));
+            int dy = Math.max(0, Math.max(startY - y, y - (startY + BUCKET_SIZE - 1)));
+            return dx + dy;
+        }
+    }
+
+    private static final class TaskEntry {
+
+        private final AbstractTask task;
+        private final Object thing;
+        private final int x;
+        private final int y;
+        private final int priority;
+        private final long created;
+        private final long sequence;
+        private Bucket bucket;
+        private int tileIndex;
+        private TaskEntry previousOnTile;
+        private TaskEntry nextOnTile;
+
+        public TaskEntry(AbstractTask task, Object thing, int x, int y, long sequence) {
+            this.task = task;
+            this.thing = thing;
+            this.x = x;
+            this.y = y;
+            this.priority = task.getPriority();
+            this.created = task.getTaskCreated().getTime();
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Candidate {
+
+        private final int key;
+        private final Bucket bucket;
+        private final TaskEntry entry;
+
+        public Candidate(int key, Bucket bucket, TaskEntry entry) {
+            this.key = key;
+            this.bucket = bucket;
+            this.entry = entry;
+        }
+    }
+}
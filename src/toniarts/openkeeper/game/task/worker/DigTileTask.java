@@ -18,6 +18,9 @@ package toniarts.openkeeper.game.task.worker;
 
 import com.jme3.math.Vector2f;
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import toniarts.openkeeper.game.task.AbstractTileTask;
 import toniarts.openkeeper.tools.convert.map.ArtResource;
 import toniarts.openkeeper.world.TileData;
@@ -65,6 +68,20 @@ public class DigTileTask extends AbstractTileTask {
         return (getTarget(creature) != null); // To avoid multiple path finds
     }
 
+    @Override
+    public CompletableFuture<Boolean> isReachableAsync(CreatureControl creature) {
+
+        // Search all the accessible sides at once, any of them will do
+        List<CompletableFuture<Boolean>> sides = new ArrayList<>(4);
+        for (Point p : worldState.getMapLoader().getSurroundingTiles(getTaskLocation(), false)) {
+            if (worldState.isAccessible(worldState.getMapData().getTile(p), creature)) {
+                sides.add(isReachableAsync(creature, new Vector2f(p.x, p.y)));
+            }
+        }
+        return CompletableFuture.allOf(sides.toArray(new CompletableFuture<?>[sides.size()]))
+                .thenApply(v -> sides.stream().anyMatch(CompletableFuture::join));
+    }
+
     @Override
     public boolean isValid(CreatureControl creature) {
         TileData tile = worldState.getMapData().getTile(getTaskLocation());
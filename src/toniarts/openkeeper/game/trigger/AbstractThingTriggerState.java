@@ -21,7 +21,6 @@ import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import java.util.List;
 import java.util.Map;
-import toniarts.openkeeper.Main;
 import toniarts.openkeeper.game.state.GameState;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.world.control.IInteractiveControl;
@@ -35,7 +34,7 @@ import toniarts.openkeeper.world.control.IInteractiveControl;
 public abstract class AbstractThingTriggerState<T extends IInteractiveControl> extends AbstractAppState {
 
     private AppStateManager stateManager;
-    private Main app;
+    private Application app;
     private Map<Integer, AbstractThingTriggerControl<T>> thingTriggers = null;
 
     public AbstractThingTriggerState() {
@@ -50,7 +49,7 @@ public abstract class AbstractThingTriggerState<T extends IInteractiveControl> e
         super.initialize(stateManager, app);
 
         this.stateManager = stateManager;
-        this.app = (Main) app;
+        this.app = app;
 
         // Get all the map thing triggers
         thingTriggers = initTriggers(this.stateManager.getState(GameState.class).getLevelData().getThings(), stateManager);
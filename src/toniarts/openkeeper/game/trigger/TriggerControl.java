@@ -29,11 +29,14 @@ import toniarts.openkeeper.game.state.PlayerState;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
 import toniarts.openkeeper.tools.convert.map.Creature;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
+import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.tools.convert.map.TriggerAction;
 import toniarts.openkeeper.tools.convert.map.TriggerAction.FlagTargetValueActionType;
 import toniarts.openkeeper.tools.convert.map.TriggerGeneric;
 import toniarts.openkeeper.utils.WorldUtils;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
+import toniarts.openkeeper.utils.jfr.TriggerEvaluationEvent;
 import toniarts.openkeeper.view.PlayerCameraState;
 import toniarts.openkeeper.world.ThingLoader;
 import toniarts.openkeeper.world.WorldState;
@@ -76,6 +79,12 @@ public class TriggerControl extends Control {
     @Override
     protected void updateControl(float tpf) {
         TriggerGenericData next = null;
+        TriggerEvaluationEvent event = null;
+        int actions = 0;
+        if (JfrEvents.AVAILABLE) {
+            event = new TriggerEvaluationEvent();
+            event.begin();
+        }
         trigger.subRepeatTimes();
 
         for (int i = trigger.getLastTriggerIndex() + 1; i < trigger.getQuantity(); i++) {
@@ -95,6 +104,7 @@ public class TriggerControl extends Control {
 
                 //System.out.println(String.format("%s: %d %s", this.getClass().getSimpleName(), trigger.getId(), trigger.getType()));
                 doAction((TriggerActionData) value);
+                actions++;
                 if (!trigger.isRepeateable()) {
                     trigger.detachChild(value);
                     i--;
@@ -107,6 +117,14 @@ public class TriggerControl extends Control {
             trigger.detachFromParent();
         }
 
+        if (event != null && event.shouldCommit()) {
+            event.triggerControl = getClass().getSimpleName();
+            event.triggerId = trigger.getId();
+            event.actions = actions;
+            event.triggered = (next != null);
+            event.commit();
+        }
+
         if (next == null) {
             trigger.setLastTrigger(null);
             trigger = (trigger.getParent() != null) ? trigger.getParent() : root;
@@ -369,15 +387,29 @@ public class TriggerControl extends Control {
     protected Keeper getPlayer(short playerId) {
         GameState gameState = stateManager.getState(GameState.class);
         if (playerId == 0) {
-            return gameState.getPlayer(this.stateManager.getState(PlayerState.class).getPlayerId()); // Current player
+            return gameState.getPlayer(getCurrentPlayerId()); // Current player
         } else {
             return gameState.getPlayer(playerId);
         }
     }
 
+    /**
+     * Get the player sitting at the screen. Headless there is none, the first
+     * keeper stands in for it
+     *
+     * @return the current player ID
+     */
+    protected short getCurrentPlayerId() {
+        PlayerState playerState = stateManager.getState(PlayerState.class);
+        if (playerState == null) {
+            return Player.KEEPER1_ID;
+        }
+        return playerState.getPlayerId();
+    }
+
     protected void zoomToAP(int apId) {
-        if (apId != 0) {
-            PlayerCameraState pcs = stateManager.getState(PlayerCameraState.class);
+        PlayerCameraState pcs = stateManager.getState(PlayerCameraState.class);
+        if (apId != 0 && pcs != null) {
             getActionPoint(apId).addControl(new PlayerCameraControl(pcs.getCamera()));
         }
     }
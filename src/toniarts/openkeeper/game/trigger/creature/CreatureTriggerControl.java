@@ -175,8 +175,9 @@ public class CreatureTriggerControl extends AbstractThingTriggerControl<Creature
                 break;
 
             case ZOOM_TO:
-                if (instanceControl != null) {
-                    stateManager.getState(PlayerState.class).zoomToCreature(instanceControl);
+                PlayerState playerState = stateManager.getState(PlayerState.class);
+                if (instanceControl != null && playerState != null) {
+                    playerState.zoomToCreature(instanceControl);
                 }
                 break;
 
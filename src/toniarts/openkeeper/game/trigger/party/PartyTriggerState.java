@@ -21,7 +21,6 @@ import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import java.util.HashMap;
 import java.util.Map;
-import toniarts.openkeeper.Main;
 import toniarts.openkeeper.world.creature.Party;
 
 /**
@@ -31,7 +30,7 @@ import toniarts.openkeeper.world.creature.Party;
 public class PartyTriggerState extends AbstractAppState {
 
     private AppStateManager stateManager;
-    private Main app;
+    private Application app;
     private final Map<Integer, PartyTriggerControl> parties = new HashMap<>();
 
     public PartyTriggerState() {
@@ -46,7 +45,7 @@ public class PartyTriggerState extends AbstractAppState {
         super.initialize(stateManager, app);
 
         this.stateManager = stateManager;
-        this.app = (Main) app;
+        this.app = app;
     }
 
     @Override
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.simulation;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.logic.GameLogicThread;
+import toniarts.openkeeper.game.state.GameState;
+import toniarts.openkeeper.tools.convert.AssetsConverter;
+import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.map.KwdFile;
+import toniarts.openkeeper.utils.PathUtils;
+import toniarts.openkeeper.world.WorldState;
+
+/**
+ * Runs a level without the screen and the sounds, as fast as the simulation
+ * can be run. For soak testing the AI and the economy, and benchmarking the
+ * game logic. The level scripts are run, minus their user interface actions.
+ * Needs the converted assets, but not a graphics card.<br>
+ * Usage: HeadlessSimulation &lt;level name&gt; [ticks] [DK II folder]
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class HeadlessSimulation extends SimpleApplication {
+
+    private static final int DEFAULT_TICKS = 10000;
+    private static final int REPORT_INTERVAL = 1000;
+
+    private final KwdFile kwdFile;
+    private final int ticks;
+    private GameState gameState;
+    private boolean started = false;
+    private static final Logger logger = Logger.getLogger(HeadlessSimulation.class.getName());
+
+    public HeadlessSimulation(KwdFile kwdFile, int ticks) {
+        super();
+        this.kwdFile = kwdFile;
+        this.ticks = ticks;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new RuntimeException("Please provide the level name as a first parameter!");
+        }
+
+        // Take Dungeon Keeper 2 root folder as parameter
+        String dkIIFolder;
+        if (args.length < 3 || !new File(args[2]).exists()) {
+            dkIIFolder = PathUtils.getDKIIFolder();
+            if (dkIIFolder == null) {
+                throw new RuntimeException("Please provide Dungeon Keeper II main folder as a third parameter!");
+            }
+        } else {
+            dkIIFolder = PathUtils.fixFilePath(args[2]);
+        }
+        int ticks = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TICKS);
+
+        KwdFile kwdFile = new KwdFile(dkIIFolder,
+                new File(ConversionUtils.getRealFileName(dkIIFolder, PathUtils.DKII_MAPS_FOLDER + args[0] + ".kwd")), false);
+
+        HeadlessSimulation app = new HeadlessSimulation(kwdFile, ticks);
+        AppSettings settings = new AppSettings(true);
+        settings.setAudioRenderer(null);
+        app.setSettings(settings);
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+    }
+
+    @Override
+    public void simpleInitApp() {
+
+        // Distribution locator
+        assetManager.registerLocator(AssetsConverter.getAssetsFolder(), FileLocator.class);
+
+        gameState = new GameState(kwdFile, null, true);
+        stateManager.attach(gameState);
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+
+        // Start once the world is up
+        if (!started && gameState.isInitialized() && stateManager.getState(WorldState.class) != null
+                && stateManager.getState(WorldState.class).isInitialized()) {
+            started = true;
+            Thread thread = new Thread(this::runSimulation, "HeadlessSimulationThread");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void runSimulation() {
+        try {
+            GameLogicThread gameLogic = gameState.getGameLogicThread();
+            long start = System.nanoTime();
+            int ticksRun = 0;
+            while (ticksRun < ticks) {
+                int batch = Math.min(REPORT_INTERVAL, ticks - ticksRun);
+                long batchStart = System.nanoTime();
+                gameLogic.advance(batch);
+                ticksRun += batch;
+                long batchTime = System.nanoTime() - batchStart;
+                logger.log(Level.INFO, "{0} ticks, {1} s of game time, {2} ms per tick", new Object[]{ticksRun,
+                    gameLogic.getGameTime(), batchTime / 1000000.0 / batch});
+            }
+            long time = System.nanoTime() - start;
+            logger.log(Level.INFO, "Simulated {0} ticks in {1} s, {2} ticks per second", new Object[]{ticksRun,
+                time / 1000000000.0, ticksRun / (time / 1000000000.0)});
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Simulation failed!", e);
+        } finally {
+            stop();
+        }
+    }
+
+}
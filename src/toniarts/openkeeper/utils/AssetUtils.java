@@ -45,9 +45,9 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
@@ -60,6 +60,8 @@ import toniarts.openkeeper.tools.convert.map.ArtResource;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Room;
 import toniarts.openkeeper.tools.convert.map.Terrain;
+import toniarts.openkeeper.utils.jfr.AssetLoadEvent;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
 import toniarts.openkeeper.world.MapLoader;
 
 /**
@@ -73,7 +75,7 @@ public class AssetUtils {
     private final static Object assetLock = new Object();
     private final static AssetCache assetCache = new SimpleAssetCache();
     private final static AssetCache weakAssetCache = new WeakRefAssetCache();
-    private final static Map<String, Boolean> textureMapCache = new HashMap<>();
+    private final static Map<String, Boolean> textureMapCache = new ConcurrentHashMap<>(); // Terrain tiles are also constructed outside the render thread
     private static final Logger logger = Logger.getLogger(AssetUtils.class.getName());
 
     // Custom model data keys
@@ -100,14 +102,21 @@ public class AssetUtils {
 
         String filename = AssetsConverter.MODELS_FOLDER + File.separator + modelName + ".j3o";
         ModelKey assetKey = new ModelKey(ConversionUtils.getCanonicalAssetKey(filename));
+        AssetLoadEvent event = null;
+        if (JfrEvents.AVAILABLE) {
+            event = new AssetLoadEvent();
+            event.begin();
+        }
 
         Spatial result;
+        boolean cacheHit = false;
         if (useCache) {
             // Set the correct asset cache
             final AssetCache cache = (useWeakCache) ? weakAssetCache : assetCache;
 
             // Get the model from cache
             Spatial model = cache.getFromCache(assetKey);
+            cacheHit = (model != null);
             if (model == null) {
                 model = assetManager.loadModel(assetKey);
                 resetSpatial(model);
@@ -122,6 +131,12 @@ public class AssetUtils {
             resetSpatial(result);
         }
 
+        if (event != null && event.shouldCommit()) {
+            event.asset = assetKey.getName();
+            event.cacheHit = cacheHit;
+            event.commit();
+        }
+
         return result;
     }
 
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils.jfr;
+
+/**
+ * Custom Java Flight Recorder events of the game. The events are only
+ * recorded when a flight recording is running, otherwise they cost next to
+ * nothing.<br>
+ * The event API (jdk.jfr) is not present on all the Java 8 runtimes. So the
+ * event classes must only be touched when {@link #AVAILABLE} is true.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class JfrEvents {
+
+    /**
+     * Category shared by all our events
+     */
+    static final String CATEGORY = "OpenKeeper";
+
+    /**
+     * Is the flight recorder event API available in this runtime
+     */
+    public static final boolean AVAILABLE = isEventApiAvailable();
+
+    private JfrEvents() {
+        // Nope
+    }
+
+    private static boolean isEventApiAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
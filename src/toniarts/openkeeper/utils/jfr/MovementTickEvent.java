@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One movement step, steering of the creatures and the spatial index updates
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+@Name("toniarts.openkeeper.MovementTick")
+@Label("Movement Tick")
+@Category({JfrEvents.CATEGORY, "Simulation"})
+@Description("A movement step, steering and spatial index updates")
+public class MovementTickEvent extends Event {
+
+    @Label("Creatures")
+    public int creatures;
+
+    @Label("Objects")
+    public int objects;
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A path search. Searches answered from the cache or a flow field expand no
+ * nodes
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+@Name("toniarts.openkeeper.PathSearch")
+@Label("Path Search")
+@Category({JfrEvents.CATEGORY, "Path Finding"})
+@Description("A path search between two tiles")
+public class PathSearchEvent extends Event {
+
+    @Label("Start X")
+    public int startX;
+
+    @Label("Start Y")
+    public int startY;
+
+    @Label("Goal X")
+    public int goalX;
+
+    @Label("Goal Y")
+    public int goalY;
+
+    @Label("Movement Profile")
+    @Description("The movement profile, or empty for the entities with their own costs")
+    public String movementProfile;
+
+    @Label("Expanded Nodes")
+    public int expandedNodes;
+
+    @Label("Found")
+    public boolean found;
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A creature looking for a task from its player's task queue
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+@Name("toniarts.openkeeper.TaskAssignment")
+@Label("Task Assignment")
+@Category({JfrEvents.CATEGORY, "Tasks"})
+@Description("A creature looking for a task from the task queue")
+public class TaskAssignmentEvent extends Event {
+
+    @Label("Creature")
+    public String creature;
+
+    @Label("Player")
+    public short playerId;
+
+    @Label("Queued Tasks")
+    public int queuedTasks;
+
+    @Label("Examined Tasks")
+    public int examinedTasks;
+
+    @Label("Task")
+    public String task;
+
+    @Label("Assigned")
+    public boolean assigned;
+}
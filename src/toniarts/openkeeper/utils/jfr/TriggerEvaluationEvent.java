@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An evaluation of a trigger and its actions
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+@Name("toniarts.openkeeper.TriggerEvaluation")
+@Label("Trigger Evaluation")
+@Category({JfrEvents.CATEGORY, "Triggers"})
+@Description("An evaluation of a trigger and its actions")
+public class TriggerEvaluationEvent extends Event {
+
+    @Label("Trigger Control")
+    public String triggerControl;
+
+    @Label("Trigger ID")
+    public int triggerId;
+
+    @Label("Actions")
+    public int actions;
+
+    @Label("Triggered")
+    @Description("A child trigger was activated")
+    public boolean triggered;
+}
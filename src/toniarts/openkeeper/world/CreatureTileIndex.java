@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world;
+
+import java.awt.Point;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import toniarts.openkeeper.world.creature.CreatureControl;
+
+/**
+ * Keeps the tile creature records up to date. Only the creatures that have
+ * moved to another tile are touched, so the cost depends on the number of
+ * creatures and not on the map size.
+ *
+ * @see TileData#getCreatures()
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class CreatureTileIndex {
+
+    private final MapData mapData;
+    private final Map<CreatureControl, Entry> entries = new IdentityHashMap<>();
+    private long updateId = 0;
+
+    public CreatureTileIndex(MapData mapData) {
+        this.mapData = mapData;
+    }
+
+    /**
+     * Update the last known positions of the creatures to the tiles. The
+     * creatures not given anymore are removed from the tiles
+     *
+     * @param creatures all the creatures in the world
+     */
+    public void update(Collection<CreatureControl> creatures) {
+        updateId++;
+        int placed = 0;
+        for (CreatureControl creature : creatures) {
+            Point p = creature.getCreatureCoordinates();
+            TileData tile = (p != null ? mapData.getTile(p) : null);
+            Entry entry = entries.get(creature);
+            if (tile == null) {
+                if (entry != null) {
+                    entry.tile.removeCreature(creature);
+                    entries.remove(creature);
+                }
+                continue;
+            }
+
+            placed++;
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(creature, entry);
+            } else if (entry.tile != tile) {
+                entry.tile.removeCreature(creature);
+            }
+            if (entry.tile != tile) {
+                entry.tile = tile;
+                tile.addCreature(creature);
+            }
+            entry.updateId = updateId;
+        }
+
+        // Remove the creatures that are gone
+        if (entries.size() > placed) {
+            Iterator<Map.Entry<CreatureControl, Entry>> iter = entries.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<CreatureControl, Entry> entry = iter.next();
+                if (entry.getValue().updateId != updateId) {
+                    entry.getValue().tile.removeCreature(entry.getKey());
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private TileData tile;
+        private long updateId;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import toniarts.openkeeper.tools.convert.map.Terrain;
+
+/**
+ * Keeps the per player tile economy up to date. The tile store reports the
+ * ownership and terrain changes here, so the counters are always current and
+ * nobody needs to scan the whole map to get them.<br>
+ * The tiles are changed from both the game logic thread and the render thread
+ * (selling rooms), so the counters are atomic and can be read from any thread.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class EconomyLedger {
+
+    private final Map<Short, PlayerEconomy> economies = new ConcurrentHashMap<>();
+
+    /**
+     * Get the economy of the given player
+     *
+     * @param playerId the player id
+     * @return the player economy, never {@code null}
+     */
+    public PlayerEconomy getPlayerEconomy(short playerId) {
+        return economies.computeIfAbsent(playerId, PlayerEconomy::new);
+    }
+
+    /**
+     * Add a tile to its owner's economy
+     *
+     * @param playerId the tile owner
+     * @param terrain the tile terrain
+     */
+    protected void addTile(short playerId, Terrain terrain) {
+        getPlayerEconomy(playerId).addTile(terrain, 1);
+    }
+
+    /**
+     * Remove a tile from its owner's economy
+     *
+     * @param playerId the tile owner
+     * @param terrain the tile terrain
+     */
+    protected void removeTile(short playerId, Terrain terrain) {
+        getPlayerEconomy(playerId).addTile(terrain, -1);
+    }
+
+    /**
+     * Economy of a single player
+     */
+    public static final class PlayerEconomy {
+
+        private final short playerId;
+        private final AtomicInteger tiles = new AtomicInteger();
+        private final AtomicInteger roomTiles = new AtomicInteger();
+        private final AtomicInteger manaGain = new AtomicInteger();
+
+        private PlayerEconomy(short playerId) {
+            this.playerId = playerId;
+        }
+
+        private void addTile(Terrain terrain, int count) {
+            tiles.addAndGet(count);
+            if (terrain.getFlags().contains(Terrain.TerrainFlag.ROOM)) {
+                roomTiles.addAndGet(count);
+            }
+            manaGain.addAndGet(terrain.getManaGain() * count);
+        }
+
+        public short getPlayerId() {
+            return playerId;
+        }
+
+        /**
+         * Get the number of tiles owned by the player
+         *
+         * @return owned tile count
+         */
+        public int getTiles() {
+            return tiles.get();
+        }
+
+        /**
+         * Get the number of room tiles owned by the player
+         *
+         * @return owned room tile count
+         */
+        public int getRoomTiles() {
+            return roomTiles.get();
+        }
+
+        /**
+         * Get the mana gain per second from the tiles owned by the player
+         *
+         * @return mana gain from the tiles
+         */
+        public int getManaGain() {
+            return manaGain.get();
+        }
+
+    }
+
+}
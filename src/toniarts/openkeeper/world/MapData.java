@@ -17,7 +17,6 @@
 package toniarts.openkeeper.world;
 
 import java.awt.Point;
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Tile;
@@ -33,18 +32,23 @@ public final class MapData {
 
     private final int width, height;
     private final KwdFile kwdFile;
-    private final TileData[][] tiles;
+    private final TileData[] tiles;
+    private final EconomyLedger economyLedger = new EconomyLedger();
+    private final TileStore tileStore;
 
     public MapData(KwdFile kwdFile) {
         this.kwdFile = kwdFile;
         width = this.kwdFile.getMap().getWidth();
         height = this.kwdFile.getMap().getHeight();
+
         // Duplicate the map
-        this.tiles = new TileData[getWidth()][getHeight()];
+        tileStore = new TileStore(kwdFile, economyLedger);
+        this.tiles = new TileData[getWidth() * getHeight()];
         for (int y = 0; y < getHeight(); y++) {
             for (int x = 0; x < getWidth(); x++) {
                 Tile tile = this.kwdFile.getMap().getTile(x, y);
-                tiles[x][y] = new TileData(kwdFile, tile, kwdFile.getTerrain(tile.getTerrainId()), x, y, y * getWidth() + x);
+                int index = tileStore.getIndex(x, y);
+                tiles[index] = new TileData(tileStore, tile, x, y, index);
             }
         }
     }
@@ -57,8 +61,23 @@ public final class MapData {
         return height;
     }
 
-    protected void setTile(int x, int y, @Nonnull TileData tile) {
-        this.tiles[x][y] = tile;
+    /**
+     * Get the per player tile economy, kept up to date as the tiles change
+     *
+     * @return the economy ledger
+     */
+    public EconomyLedger getEconomyLedger() {
+        return economyLedger;
+    }
+
+    /**
+     * Get the packed tile state, for scanning the map without going through
+     * the tile objects
+     *
+     * @return the tile store
+     */
+    public TileStore getTileStore() {
+        return tileStore;
     }
 
     /**
@@ -73,7 +92,7 @@ public final class MapData {
         if (x < 0 || y < 0 || x >= width || y >= height) {
             return null;
         }
-        return this.tiles[x][y];
+        return this.tiles[y * width + x];
     }
 
     /**
@@ -90,4 +109,19 @@ public final class MapData {
 
         return null;
     }
+
+    /**
+     * Get the tile data by its index
+     *
+     * @param index the tile index
+     * @return the tile data
+     * @see TileData#getIndex()
+     */
+    @Nullable
+    public TileData getTile(int index) {
+        if (index < 0 || index >= width * height) {
+            return null;
+        }
+        return this.tiles[index];
+    }
 }
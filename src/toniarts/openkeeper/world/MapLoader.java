@@ -23,7 +23,6 @@ import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.queue.RenderQueue;
-import com.jme3.scene.BatchNode;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Node;
 import com.jme3.scene.SceneGraphVisitor;
@@ -32,13 +31,13 @@ import com.jme3.texture.Texture;
 import java.awt.Color;
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,6 +50,8 @@ import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.utils.AssetUtils;
 import toniarts.openkeeper.utils.WorldUtils;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
+import toniarts.openkeeper.utils.jfr.TileRebuildEvent;
 import toniarts.openkeeper.world.effect.EffectManagerState;
 import toniarts.openkeeper.world.effect.TorchControl;
 import toniarts.openkeeper.world.object.ObjectLoader;
@@ -59,6 +60,7 @@ import toniarts.openkeeper.world.room.RoomConstructor;
 import toniarts.openkeeper.world.room.RoomInstance;
 import toniarts.openkeeper.world.room.WallSection;
 import toniarts.openkeeper.world.room.WallSection.WallDirection;
+import toniarts.openkeeper.world.terrain.TerrainBatch;
 import toniarts.openkeeper.world.terrain.Water;
 
 /**
@@ -78,7 +80,7 @@ public abstract class MapLoader implements ILoader<KwdFile> {
 
     public final static ColorRGBA COLOR_FLASH = new ColorRGBA(0.8f, 0, 0, 1);
     public final static ColorRGBA COLOR_TAG = new ColorRGBA(0, 0, 0.8f, 1);
-    private final static int PAGE_SQUARE_SIZE = 8; // Divide the terrain to square "pages"
+    public final static int PAGE_SQUARE_SIZE = 8; // Divide the terrain to square "pages"
     private final static int FLOOR_INDEX = 0;
     private final static int WALL_INDEX = 1;
     private final static int TOP_INDEX = 2;
@@ -100,6 +102,7 @@ public abstract class MapLoader implements ILoader<KwdFile> {
     private final HashMap<Point, RoomInstance> roomCoordinates = new HashMap<>(); // A quick glimpse whether room at specific coordinates is already "found"
     private final HashMap<RoomInstance, Spatial> roomNodes = new HashMap<>(); // Room instances by node
     private final Map<RoomInstance, GenericRoom> roomActuals = new LinkedHashMap<>(); // Rooms by room instance
+    private final Map<GenericRoom.ObjectType, Set<GenericRoom>> roomsByFunction = new EnumMap<>(GenericRoom.ObjectType.class); // Rooms by the objects they can hold
     private final HashMap<Point, EntityInstance<Terrain>> terrainBatchCoordinates = new HashMap<>(); // A quick glimpse whether terrain batch at specific coordinates is already "found"
     private static final Logger logger = Logger.getLogger(MapLoader.class.getName());
 
@@ -151,9 +154,9 @@ public abstract class MapLoader implements ILoader<KwdFile> {
 
         // Batch the terrain pages
         for (Node page : pages) {
-            ((BatchNode) page.getChild(FLOOR_INDEX)).batch();
-            ((BatchNode) page.getChild(WALL_INDEX)).batch();
-            ((BatchNode) page.getChild(TOP_INDEX)).batch();
+            ((TerrainBatch) page.getChild(FLOOR_INDEX)).batch();
+            ((TerrainBatch) page.getChild(WALL_INDEX)).batch();
+            ((TerrainBatch) page.getChild(TOP_INDEX)).batch();
         }
         map.attachChild(terrain);
 
@@ -180,42 +183,113 @@ public abstract class MapLoader implements ILoader<KwdFile> {
      * @param points tile coordinates to update
      */
     protected void updateTiles(Point... points) {
+        TileRebuildEvent event = null;
+        if (JfrEvents.AVAILABLE) {
+            event = new TileRebuildEvent();
+            event.begin();
+        }
 
         // Reconstruct all tiles in the area
-        Set<BatchNode> nodesNeedBatching = new HashSet<>();
         Node terrainNode = (Node) map.getChild(TERRAIN_NODE);
         for (Point point : points) {
             TileData tile = mapData.getTile(point);
-            // Reconstruct and mark for patching
-            // The tile node needs to created anew, somehow the BatchNode just doesn't get it if I remove children from subnode
             Node pageNode = getPageNode(point, terrainNode);
-            Node tileNode = getTileNode(point, (Node) pageNode.getChild(FLOOR_INDEX));
-            if (!tileNode.getChildren().isEmpty()) {
-                tileNode.removeFromParent();
-                ((BatchNode) pageNode.getChild(FLOOR_INDEX)).attachChildAt(new Node(tileNode.getName()), getTileNodeIndex(point));
-                nodesNeedBatching.add((BatchNode) pageNode.getChild(FLOOR_INDEX));
+            int tileIndex = getTileNodeIndex(point);
+
+            // Clear the old tile nodes
+            for (int i = FLOOR_INDEX; i <= TOP_INDEX; i++) {
+                Node tileNode = getTileNode(point, (Node) pageNode.getChild(i));
+                if (!tileNode.getChildren().isEmpty()) {
+                    tileNode.removeFromParent();
+                    ((Node) pageNode.getChild(i)).attachChildAt(new Node(tileNode.getName()), tileIndex);
+                }
             }
-            tileNode = getTileNode(point, (Node) pageNode.getChild(WALL_INDEX));
-            if (!tileNode.getChildren().isEmpty()) {
-                tileNode.removeFromParent();
-                ((BatchNode) pageNode.getChild(WALL_INDEX)).attachChildAt(new Node(tileNode.getName()), getTileNodeIndex(point));
-                nodesNeedBatching.add((BatchNode) pageNode.getChild(WALL_INDEX));
+
+            // Reconstruct
+            handleTile(tile, terrainNode);
+
+            // Patch only this tile's geometry in the batches
+            for (int i = FLOOR_INDEX; i <= TOP_INDEX; i++) {
+                ((TerrainBatch) pageNode.getChild(i)).updateTile(tileIndex);
             }
-            tileNode = getTileNode(point, (Node) pageNode.getChild(TOP_INDEX));
-            if (!tileNode.getChildren().isEmpty()) {
-                tileNode.removeFromParent();
-                ((BatchNode) pageNode.getChild(TOP_INDEX)).attachChildAt(new Node(tileNode.getName()), getTileNodeIndex(point));
-                nodesNeedBatching.add((BatchNode) pageNode.getChild(TOP_INDEX));
+        }
+
+        if (event != null && event.shouldCommit()) {
+            event.tiles = points.length;
+            event.batches = points.length * (TOP_INDEX + 1);
+            event.commit();
+        }
+    }
+
+    /**
+     * See whether the tile can be constructed detached from the scene with
+     * {@link #constructTile(java.awt.Point)}. Rooms, tiles next to them and the
+     * water construction share state with the rest of the map, they need to be
+     * reconstructed in place with {@link #updateTiles(java.awt.Point...)}
+     *
+     * @param p the tile coordinates
+     * @return true if the tile can be constructed detached
+     */
+    protected boolean canConstructDetached(Point p) {
+        TileData tile = mapData.getTile(p);
+        if (tile == null || tile.getTerrain().getFlags().contains(Terrain.TerrainFlag.CONSTRUCTION_TYPE_WATER)) {
+            return false;
+        }
+        for (int y = p.y - 1; y <= p.y + 1; y++) {
+            for (int x = p.x - 1; x <= p.x + 1; x++) {
+                TileData neighbour = mapData.getTile(x, y);
+                if (neighbour != null && neighbour.getTerrain().getFlags().contains(Terrain.TerrainFlag.ROOM)) {
+                    return false;
+                }
             }
+        }
+        return true;
+    }
 
-            // Reconstruct
-            handleTile(tile, (Node) map.getChild(TERRAIN_NODE));
+    /**
+     * Construct the tile to new tile nodes that are not attached to the scene.
+     * Can be called outside the render thread for the tiles accepted by
+     * {@link #canConstructDetached(java.awt.Point)}. The tile itself is not
+     * touched, put the result in place with
+     * {@link #attachTile(java.awt.Point, toniarts.openkeeper.world.MapLoader.TileConstruction)}
+     *
+     * @param p the tile coordinates
+     * @return the constructed tile, or {@code null} if the tile can no longer
+     * be constructed detached
+     */
+    protected TileConstruction constructTile(Point p) {
+        if (!canConstructDetached(p)) {
+            return null;
+        }
+        Node[] tileNodes = new Node[TOP_INDEX + 1];
+        for (int i = FLOOR_INDEX; i <= TOP_INDEX; i++) {
+            tileNodes[i] = new Node(p.x + "_" + p.y);
         }
+        TileConstruction construction = new TileConstruction(mapData.getTile(p), tileNodes);
+        handleTile(construction);
+
+        return construction;
+    }
 
-        // Batch
-        for (BatchNode batchNode : nodesNeedBatching) {
-            batchNode.batch();
+    /**
+     * Swap the constructed tile nodes in place of the old ones, patch the tile
+     * in the page batches and update the tile. Must be called from the render
+     * thread
+     *
+     * @param p the tile coordinates
+     * @param construction the constructed tile from
+     * {@link #constructTile(java.awt.Point)}
+     */
+    protected void attachTile(Point p, TileConstruction construction) {
+        Node pageNode = getPageNode(p, (Node) map.getChild(TERRAIN_NODE));
+        int tileIndex = getTileNodeIndex(p);
+        for (int i = FLOOR_INDEX; i <= TOP_INDEX; i++) {
+            TerrainBatch page = (TerrainBatch) pageNode.getChild(i);
+            page.detachChildAt(tileIndex);
+            page.attachChildAt(construction.tileNodes[i], tileIndex);
+            page.updateTile(tileIndex);
         }
+        construction.apply();
     }
 
     /**
@@ -298,15 +372,15 @@ public abstract class MapLoader implements ILoader<KwdFile> {
                 Node page = new Node(x + "_" + y);
 
                 // Create batch nodes for ceiling, floor and walls
-                BatchNode floor = new BatchNode("floor");
+                TerrainBatch floor = new TerrainBatch("floor", PAGE_SQUARE_SIZE * PAGE_SQUARE_SIZE);
                 floor.setShadowMode(RenderQueue.ShadowMode.Receive); // Floors don't cast
                 generateTileNodes(floor, x, y);
                 page.attachChild(floor);
-                BatchNode wall = new BatchNode("wall");
+                TerrainBatch wall = new TerrainBatch("wall", PAGE_SQUARE_SIZE * PAGE_SQUARE_SIZE);
                 wall.setShadowMode(RenderQueue.ShadowMode.CastAndReceive); // Walls cast and receive shadows
                 generateTileNodes(wall, x, y);
                 page.attachChild(wall);
-                BatchNode ceiling = new BatchNode("ceiling");
+                TerrainBatch ceiling = new TerrainBatch("ceiling", PAGE_SQUARE_SIZE * PAGE_SQUARE_SIZE);
                 ceiling.setShadowMode(RenderQueue.ShadowMode.Off); // No lights above ceilings
                 generateTileNodes(ceiling, x, y);
                 page.attachChild(ceiling);
@@ -324,7 +398,7 @@ public abstract class MapLoader implements ILoader<KwdFile> {
      * @param pageX page x
      * @param pageY page y
      */
-    private void generateTileNodes(BatchNode pageBatch, int pageX, int pageY) {
+    private void generateTileNodes(TerrainBatch pageBatch, int pageX, int pageY) {
         for (int y = 0; y < PAGE_SQUARE_SIZE; y++) {
             for (int x = 0; x < PAGE_SQUARE_SIZE; x++) {
                 pageBatch.attachChild(new Node((x + pageX * PAGE_SQUARE_SIZE) + "_" + (y + pageY * PAGE_SQUARE_SIZE)));
@@ -381,9 +455,9 @@ public abstract class MapLoader implements ILoader<KwdFile> {
      * tagged for this in this spatial
      *
      * @param spatial the spatial
-     * @param tile the tile
+     * @param construction the tile construction
      */
-    private void setRandomTexture(final Spatial spatial, final TileData tile) {
+    private void setRandomTexture(final Spatial spatial, final TileConstruction construction) {
 
         // Check the data on geometry
         spatial.depthFirstTraversal(new SceneGraphVisitor() {
@@ -396,11 +470,13 @@ public abstract class MapLoader implements ILoader<KwdFile> {
                     // The principle is bit wrong, the random texture is tied to the tile, and not material etc.
                     // But it is probably just the tops of few tiles, so...
                     int tex;
-                    if (tile.getRandomTextureIndex() != null) {
-                        tex = tile.getRandomTextureIndex();
+                    if (construction.randomTextureIndex != null) {
+                        tex = construction.randomTextureIndex;
+                    } else if (construction.tile.getRandomTextureIndex() != null) {
+                        tex = construction.tile.getRandomTextureIndex();
                     } else {
                         tex = FastMath.rand.nextInt(texCount);
-                        tile.setRandomTextureIndex(tex);
+                        construction.randomTextureIndex = tex;
                     }
                     if (tex != 0) { // 0 is the default anyway
                         Geometry g = (Geometry) spatial;
@@ -431,16 +507,36 @@ public abstract class MapLoader implements ILoader<KwdFile> {
      * @param root the root node
      */
     private void handleTile(TileData tile, Node root) {
+        Point p = tile.getLocation();
+        Node pageNode = getPageNode(p, root);
+        Node[] tileNodes = new Node[TOP_INDEX + 1];
+        for (int i = FLOOR_INDEX; i <= TOP_INDEX; i++) {
+            tileNodes[i] = getTileNode(p, (Node) pageNode.getChild(i));
+        }
+
+        TileConstruction construction = new TileConstruction(tile, tileNodes);
+        handleTile(construction);
+        construction.apply();
+    }
+
+    /**
+     * Construct a single tile to the construction tile nodes. The tile is
+     * only read, the changes to it are collected to the construction
+     *
+     * @param construction the tile construction
+     */
+    private void handleTile(TileConstruction construction) {
 
         // Get the terrain
+        TileData tile = construction.tile;
+        Node[] tileNodes = construction.tileNodes;
         Terrain terrain = tile.getTerrain();
         Point p = tile.getLocation();
-        Node pageNode = getPageNode(p, root);
 
         // Torch (see https://github.com/tonihele/OpenKeeper/issues/128)
         if (!terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)
                 && (tile.getX() % 2 == 0 || tile.getY() % 2 == 0)) {
-            handleTorch(tile, pageNode);
+            handleTorch(tile, tileNodes);
         }
 
         // Room
@@ -457,13 +553,13 @@ public abstract class MapLoader implements ILoader<KwdFile> {
             }
         }
 
-        handleTop(tile, terrain, pageNode);
+        handleTop(construction, terrain);
         if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
-            handleSide(tile, pageNode);
+            handleSide(construction);
         }
     }
 
-    private void handleTorch(TileData tile, Node pageNode) {
+    private void handleTorch(TileData tile, Node[] tileNodes) {
 
         // The rooms actually contain the torch model resource, but it is always the same,
         // and sometimes even null and there is still a torch. So I don't think they are used
@@ -510,7 +606,7 @@ public abstract class MapLoader implements ILoader<KwdFile> {
             spatial.rotate(0, angleY, 0);
             spatial.setLocalTranslation(WorldUtils.pointToVector3f(tile.getLocation()).addLocal(position));
 
-            ((Node) getTileNode(tile.getLocation(), (Node) pageNode.getChild(WALL_INDEX))).attachChild(spatial);
+            tileNodes[WALL_INDEX].attachChild(spatial);
         }
     }
 
@@ -551,12 +647,13 @@ public abstract class MapLoader implements ILoader<KwdFile> {
     /**
      * Handle top construction on the tile
      *
-     * @param tile this tile
+     * @param construction this tile construction
      * @param terrain DO NOT REMOVE. Need for construct water bed
-     * @param pageNode page node
      */
-    private void handleTop(TileData tile, Terrain terrain, Node pageNode) {
+    private void handleTop(TileConstruction construction, Terrain terrain) {
 
+        TileData tile = construction.tile;
+        Node[] tileNodes = construction.tileNodes;
         ArtResource model = terrain.getCompleteResource();
         Point p = tile.getLocation();
         Spatial spatial;
@@ -591,26 +688,27 @@ public abstract class MapLoader implements ILoader<KwdFile> {
         }
 
         if (terrain.getFlags().contains(Terrain.TerrainFlag.RANDOM_TEXTURE)) {
-            setRandomTexture(spatial, tile);
+            setRandomTexture(spatial, construction);
         }
 
         Node topTileNode;
         if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
-            topTileNode = getTileNode(p, (Node) pageNode.getChild(TOP_INDEX));
+            topTileNode = tileNodes[TOP_INDEX];
         } else {
-            topTileNode = getTileNode(p, (Node) pageNode.getChild(FLOOR_INDEX));
+            topTileNode = tileNodes[FLOOR_INDEX];
         }
 
         topTileNode.attachChild(spatial);
         setTileMaterialToGeometries(tile, topTileNode);
         AssetUtils.translateToTile(topTileNode, p);
 
-        tile.setTopNode(topTileNode);
+        construction.topNode = topTileNode;
     }
 
-    private void handleSide(TileData tile, Node pageNode) {
+    private void handleSide(TileConstruction construction) {
+        TileData tile = construction.tile;
         Point p = tile.getLocation();
-        Node sideTileNode = getTileNode(p, (Node) pageNode.getChild(WALL_INDEX));
+        Node sideTileNode = construction.tileNodes[WALL_INDEX];
 
         for (WallDirection direction : WallDirection.values()) {
             Spatial wall = getWallSpatial(tile, direction);
@@ -623,7 +721,7 @@ public abstract class MapLoader implements ILoader<KwdFile> {
         setTileMaterialToGeometries(tile, sideTileNode);
         AssetUtils.translateToTile(sideTileNode, p);
 
-        tile.setSideNode(sideTileNode);
+        construction.sideNode = sideTileNode;
     }
 
     public void flashTile(boolean enabled, List<Point> points) {
@@ -785,6 +883,16 @@ public abstract class MapLoader implements ILoader<KwdFile> {
     private Spatial handleRoom(RoomInstance roomInstance) {
         GenericRoom room = RoomConstructor.constructRoom(roomInstance, assetManager, effectManager, worldState, objectLoader);
         roomActuals.put(roomInstance, room);
+        for (GenericRoom.ObjectType objectType : GenericRoom.ObjectType.values()) {
+            if (room.hasObjectControl(objectType)) {
+                Set<GenericRoom> roomSet = roomsByFunction.get(objectType);
+                if (roomSet == null) {
+                    roomSet = new LinkedHashSet<>();
+                    roomsByFunction.put(objectType, roomSet);
+                }
+                roomSet.add(room);
+            }
+        }
         updateRoomWalls(roomInstance);
         return room.construct();
     }
@@ -871,6 +979,9 @@ public abstract class MapLoader implements ILoader<KwdFile> {
             room.destroy();
 
             roomActuals.remove(instance);
+            for (Set<GenericRoom> roomSet : roomsByFunction.values()) {
+                roomSet.remove(room);
+            }
             for (Point p : instance.getCoordinates()) {
                 roomCoordinates.remove(p);
             }
@@ -1057,20 +1168,22 @@ public abstract class MapLoader implements ILoader<KwdFile> {
     }
 
     /**
-     * Get rooms by function.<br> FIXME: Should the player have ready lists?
+     * Get rooms by function. The rooms are indexed by function, but the owner
+     * is checked on query since capturing a room changes its owner in place
      *
      * @param objectType the function
      * @param playerId the player id, can be null
      * @return list of rooms that match the criteria
      */
     public List<GenericRoom> getRoomsByFunction(GenericRoom.ObjectType objectType, Short playerId) {
-        List<GenericRoom> roomsList = new ArrayList<>();
-        for (Entry<RoomInstance, GenericRoom> entry : roomActuals.entrySet()) {
-            if (playerId != null && entry.getKey().getOwnerId() != playerId) {
-                continue;
-            }
-            if (entry.getValue().hasObjectControl(objectType)) {
-                roomsList.add(entry.getValue());
+        Set<GenericRoom> roomSet = roomsByFunction.get(objectType);
+        if (roomSet == null) {
+            return new ArrayList<>(0);
+        }
+        List<GenericRoom> roomsList = new ArrayList<>(roomSet.size());
+        for (GenericRoom room : roomSet) {
+            if (playerId == null || room.getRoomInstance().getOwnerId() == playerId) {
+                roomsList.add(room);
             }
         }
         return roomsList;
@@ -1083,4 +1196,36 @@ public abstract class MapLoader implements ILoader<KwdFile> {
      */
     protected abstract void updateProgress(final float progress);
 
+    /**
+     * Tile constructed to tile nodes. The construction doesn't change the tile,
+     * it may run outside the render thread and the result may be thrown away.
+     * The collected changes are put to the tile once the nodes are in place
+     */
+    protected static final class TileConstruction {
+
+        private final TileData tile;
+        private final Node[] tileNodes; // Indexed by the terrain layer (floor, wall, top)
+        private Node topNode;
+        private Node sideNode;
+        private Integer randomTextureIndex;
+
+        private TileConstruction(TileData tile, Node[] tileNodes) {
+            this.tile = tile;
+            this.tileNodes = tileNodes;
+        }
+
+        private void apply() {
+            if (randomTextureIndex != null) {
+                tile.setRandomTextureIndex(randomTextureIndex);
+            }
+            if (topNode != null) {
+                tile.setTopNode(topNode);
+            }
+            if (sideNode != null) {
+                tile.setSideNode(sideNode);
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Uniform grid spatial index for things moving around the map. The map is
+ * divided into square cells, each cell holding a linked list of the items
+ * within it. Supports nearest, k-nearest and radius queries with an optional
+ * filter. The queries do not allocate, the caller provides the result
+ * containers.<br>
+ * The queries can run in parallel, they share a read lock. The filters are
+ * run under it, so they must not modify the index.<br>
+ * The positions are in world coordinates. The distances are squared, like in
+ * {@link toniarts.openkeeper.world.creature.CreatureControl#getDistanceToCreature(toniarts.openkeeper.world.creature.CreatureControl)}.
+ *
+ * @param <T> the type of the indexed items
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class SpatialIndex<T> {
+
+    public static final int DEFAULT_CELL_SIZE = 4;
+    private static final int NONE = -1;
+
+    private final float cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellHeads;
+    private final Map<T, Integer> slots = new IdentityHashMap<>();
+    private Object[] items = new Object[64];
+    private float[] positionsX = new float[64];
+    private float[] positionsY = new float[64];
+    private int[] cells = new int[64];
+    private int[] next = new int[64];
+    private int[] previous = new int[64];
+    private long[] updateIds = new long[64];
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount = 0;
+    private int slotCount = 0;
+    private long updateId = 0;
+    private int updated = 0;
+    private final ThreadLocal<float[]> scratchDistances = ThreadLocal.withInitial(() -> new float[8]); // For the k nearest, per querying thread
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SpatialIndex(int width, int height) {
+        this(width, height, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Create a new spatial index
+     *
+     * @param width map width in tiles
+     * @param height map height in tiles
+     * @param cellSize cell size in tiles
+     */
+    public SpatialIndex(int width, int height, int cellSize) {
+        this.cellSize = cellSize * MapLoader.TILE_WIDTH;
+        this.columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        this.cellHeads = new int[columns * rows];
+        Arrays.fill(cellHeads, NONE);
+    }
+
+    /**
+     * Starts an update round. Any item not updated before
+     * {@link #endUpdate()} is removed from the index
+     */
+    public void beginUpdate() {
+        lock.writeLock().lock();
+        try {
+            updateId++;
+            updated = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ends the update round, removes all the items not updated during it
+     */
+    public void endUpdate() {
+        lock.writeLock().lock();
+        try {
+            if (updated < slots.size()) {
+                for (int slot = 0; slot < slotCount; slot++) {
+                    if (items[slot] != null && updateIds[slot] != updateId) {
+                        remove(slot);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add or move an item in the index
+     *
+     * @param item the item
+     * @param x world x coordinate
+     * @param y world y coordinate
+     */
+    public void update(T item, float x, float y) {
+        lock.writeLock().lock();
+        try {
+            int cell = getCell(x, y);
+            Integer slot = slots.get(item);
+            if (slot == null) {
+                int newSlot = allocateSlot();
+                items[newSlot] = item;
+                slots.put(item, newSlot);
+                link(newSlot, cell);
+                slot = newSlot;
+            } else if (cells[slot] != cell) {
+                unlink(slot);
+                link(slot, cell);
+            }
+            positionsX[slot] = x;
+            positionsY[slot] = y;
+            if (updateIds[slot] != updateId) {
+                updateIds[slot] = updateId;
+                updated++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove an item from the index
+     *
+     * @param item the item
+     */
+    public void remove(T item) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(item);
+            if (slot != null) {
+                remove(slot.intValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the nearest item
+     *
+     * @param x world x coordinate
+     * @param y world y coordinate
+     * @param maxDistance maximum distance (not squared) to search
+     * @param filter optional filter for the items
+     * @return the nearest item or {@code null} if none is found
+     */
+    @SuppressWarnings("unchecked")
+    public T getNearest(float x, float y, float maxDistance, Predicate<? super T> filter) {
+        lock.readLock().lock();
+        try {
+            float maxDistance2 = maxDistance * maxDistance;
+            int nearest = NONE;
+            float nearestDistance = Float.MAX_VALUE;
+            int centerX = getColumn(x);
+            int centerY = getRow(y);
+            int maxRing = getMaxRing(centerX, centerY);
+            for (int ring = 0; ring <= maxRing; ring++) {
+                float bound = getRingDistance(x, y, centerX, centerY, ring);
+                if (bound > maxDistance2 || bound > nearestDistance) {
+                    break;
+                }
+                for (int cy = centerY - ring; cy <= centerY + ring; cy++) {
+                    if (cy < 0 || cy >= rows) {
+                        continue;
+                    }
+                    int step = (cy == centerY - ring || cy == centerY + ring ? 1 : Math.max(1, 2 * ring));
+                    for (int cx = centerX - ring; cx <= centerX + ring; cx += step) {
+                        if (cx < 0 || cx >= columns) {
+                            continue;
+                        }
+                        for (int slot = cellHeads[cy * columns + cx]; slot != NONE; slot = next[slot]) {
+                            float distance = getDistance(slot, x, y);
+                            if (distance <= maxDistance2 && distance < nearestDistance
+                                    && (filter == null || filter.test((T) items[slot]))) {
+                                nearestDistance = distance;
+                                nearest = slot;
+                            }
+                        }
+                    }
+                }
+            }
+            return (nearest != NONE ? (T) items[nearest] : null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the k nearest items, ordered by the distance
+     *
+     * @param x world x coordinate
+     * @param y world y coordinate
+     * @param maxDistance maximum distance (not squared) to search
+     * @param k maximum number of items to get
+     * @param filter optional filter for the items
+     * @param result the list to fill with the items, cleared first
+     * @return the number of items found
+     */
+    @SuppressWarnings("unchecked")
+    public int getNearest(float x, float y, float maxDistance, int k, Predicate<? super T> filter, List<? super T> result) {
+        lock.readLock().lock();
+        try {
+            result.clear();
+            if (k <= 0) {
+                return 0;
+            }
+            float[] nearestDistances = scratchDistances.get();
+            if (nearestDistances.length < k) {
+                nearestDistances = new float[k];
+                scratchDistances.set(nearestDistances);
+            }
+            float maxDistance2 = maxDistance * maxDistance;
+            int centerX = getColumn(x);
+            int centerY = getRow(y);
+            int maxRing = getMaxRing(centerX, centerY);
+            for (int ring = 0; ring <= maxRing; ring++) {
+                float bound = getRingDistance(x, y, centerX, centerY, ring);
+                if (bound > maxDistance2 || (result.size() == k && bound > nearestDistances[k - 1])) {
+                    break;
+                }
+                for (int cy = centerY - ring; cy <= centerY + ring; cy++) {
+                    if (cy < 0 || cy >= rows) {
+                        continue;
+                    }
+                    int step = (cy == centerY - ring || cy == centerY + ring ? 1 : Math.max(1, 2 * ring));
+                    for (int cx = centerX - ring; cx <= centerX + ring; cx += step) {
+                        if (cx < 0 || cx >= columns) {
+                            continue;
+                        }
+                        for (int slot = cellHeads[cy * columns + cx]; slot != NONE; slot = next[slot]) {
+                            float distance = getDistance(slot, x, y);
+                            if (distance > maxDistance2 || (result.size() == k && distance >= nearestDistances[k - 1])
+                                    || (filter != null && !filter.test((T) items[slot]))) {
+                                continue;
+                            }
+
+                            // Insertion sort, the k is meant to be small
+                            int index = Math.min(result.size(), k - 1);
+                            if (result.size() == k) {
+                                result.remove(k - 1);
+                            }
+                            while (index > 0 && nearestDistances[index - 1] > distance) {
+                                nearestDistances[index] = nearestDistances[index - 1];
+                                index--;
+                            }
+                            nearestDistances[index] = distance;
+                            result.add(index, (T) items[slot]);
+                        }
+                    }
+                }
+            }
+            return result.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the items within a radius
+     *
+     * @param x world x coordinate
+     * @param y world y coordinate
+     * @param radius the radius (not squared)
+     * @param filter optional filter for the items
+     * @param result the collection to add the items to
+     * @return the number of items found
+     */
+    @SuppressWarnings("unchecked")
+    public int getWithinRadius(float x, float y, float radius, Predicate<? super T> filter, Collection<? super T> result) {
+        lock.readLock().lock();
+        try {
+            float radius2 = radius * radius;
+            int found = 0;
+            int minX = getColumn(x - radius);
+            int maxX = getColumn(x + radius);
+            int minY = getRow(y - radius);
+            int maxY = getRow(y + radius);
+            for (int cy = minY; cy <= maxY; cy++) {
+                for (int cx = minX; cx <= maxX; cx++) {
+                    for (int slot = cellHeads[cy * columns + cx]; slot != NONE; slot = next[slot]) {
+                        if (getDistance(slot, x, y) <= radius2 && (filter == null || filter.test((T) items[slot]))) {
+                            result.add((T) items[slot]);
+                            found++;
+                        }
+                    }
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private float getDistance(int slot, float x, float y) {
+        float dx = positionsX[slot] - x;
+        float dy = positionsY[slot] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Get the (squared) lower bound of the distance from the point to the
+     * items in the cells of the given ring
+     */
+    private float getRingDistance(float x, float y, int centerX, int centerY, int ring) {
+        if (ring == 0) {
+            return 0;
+        }
+
+        // The distance to the edges of the block formed by the inner rings
+        float originX = x + MapLoader.TILE_WIDTH / 2;
+        float originY = y + MapLoader.TILE_WIDTH / 2;
+        float distance = Math.min(originX - (centerX - ring + 1) * cellSize, (centerX + ring) * cellSize - originX);
+        distance = Math.min(distance, Math.min(originY - (centerY - ring + 1) * cellSize, (centerY + ring) * cellSize - originY));
+        distance = Math.max(0, distance);
+        return distance * distance;
+    }
+
+    private int getMaxRing(int centerX, int centerY) {
+        return Math.max(Math.max(centerX, columns - 1 - centerX), Math.max(centerY, rows - 1 - centerY));
+    }
+
+    private int getColumn(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x + MapLoader.TILE_WIDTH / 2) / cellSize)));
+    }
+
+    private int getRow(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y + MapLoader.TILE_WIDTH / 2) / cellSize)));
+    }
+
+    private int getCell(float x, float y) {
+        return getRow(y) * columns + getColumn(x);
+    }
+
+    private void link(int slot, int cell) {
+        cells[slot] = cell;
+        previous[slot] = NONE;
+        next[slot] = cellHeads[cell];
+        if (cellHeads[cell] != NONE) {
+            previous[cellHeads[cell]] = slot;
+        }
+        cellHeads[cell] = slot;
+    }
+
+    private void unlink(int slot) {
+        if (previous[slot] != NONE) {
+            next[previous[slot]] = next[slot];
+        } else {
+            cellHeads[cells[slot]] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            previous[next[slot]] = previous[slot];
+        }
+    }
+
+    private void remove(int slot) {
+        unlink(slot);
+        if (updateIds[slot] == updateId) {
+            updated--;
+        }
+        slots.remove(items[slot]);
+        items[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    private int allocateSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (slotCount == items.length) {
+            int size = items.length * 2;
+            items = Arrays.copyOf(items, size);
+            positionsX = Arrays.copyOf(positionsX, size);
+            positionsY = Arrays.copyOf(positionsY, size);
+            cells = Arrays.copyOf(cells, size);
+            next = Arrays.copyOf(next, size);
+            previous = Arrays.copyOf(previous, size);
+            updateIds = Arrays.copyOf(updateIds, size);
+            freeSlots = Arrays.copyOf(freeSlots, size);
+        }
+        return slotCount++;
+    }
+
+}
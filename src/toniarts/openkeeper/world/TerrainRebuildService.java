@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world;
+
+import com.jme3.app.Application;
+import java.awt.Point;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rebuilds the terrain tiles outside the render thread. The rebuild requests
+ * can come from any thread, they are coalesced and handled once per frame.
+ * Plain tiles are constructed to detached nodes by the worker threads and the
+ * render thread only swaps the finished tiles to the scene. A finished tile is
+ * discarded and constructed again if the tile or its neighbours changed in the
+ * meantime.<br>
+ * Rooms, the tiles next to them and water are still reconstructed in place in
+ * the render thread, since they share state with the rest of the map.
+ *
+ * @see MapLoader#canConstructDetached(java.awt.Point)
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TerrainRebuildService {
+
+    private final Application app;
+    private final MapLoader mapLoader;
+    private final TileStore tileStore;
+    private final ExecutorService workers;
+    private final Set<Point> pending = ConcurrentHashMap.newKeySet();
+    private final Queue<ConstructedTile> constructed = new ConcurrentLinkedQueue<>();
+    private final Set<Point> constructing = new HashSet<>(); // Only used from the render thread
+    private final AtomicBoolean updateQueued = new AtomicBoolean(false);
+    private static final Logger logger = Logger.getLogger(TerrainRebuildService.class.getName());
+
+    public TerrainRebuildService(Application app, MapLoader mapLoader) {
+        this(app, mapLoader, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public TerrainRebuildService(Application app, MapLoader mapLoader, int workerCount) {
+        this.app = app;
+        this.mapLoader = mapLoader;
+        this.tileStore = mapLoader.getMapData().getTileStore();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, (Runnable r) -> {
+            Thread thread = new Thread(r, "TerrainRebuildThread-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Request the tiles to be rebuilt. Can be called from any thread, the
+     * tiles are rebuilt on the following frames
+     *
+     * @param points the tile coordinates to rebuild
+     */
+    public void rebuild(Point... points) {
+        for (Point p : points) {
+            pending.add(new Point(p));
+        }
+        queueUpdate();
+    }
+
+    private void queueUpdate() {
+        if (updateQueued.compareAndSet(false, true)) {
+            app.enqueue(this::update);
+        }
+    }
+
+    /**
+     * Swaps in the finished tiles and dispatches the pending requests, run in
+     * the render thread
+     */
+    private Void update() {
+        updateQueued.set(false);
+        Set<Point> inPlace = new LinkedHashSet<>();
+
+        // Swap the finished tiles to the scene
+        ConstructedTile tile;
+        while ((tile = constructed.poll()) != null) {
+            constructing.remove(tile.location);
+            if (tile.construction == null) {
+                inPlace.add(tile.location);
+            } else if (tile.version != getVersion(tile.location)) {
+                pending.add(tile.location); // Changed while we were constructing it
+            } else {
+                mapLoader.attachTile(tile.location, tile.construction);
+            }
+        }
+
+        // Dispatch the coalesced requests
+        Iterator<Point> iter = pending.iterator();
+        while (iter.hasNext()) {
+            Point p = iter.next();
+            if (constructing.contains(p)) {
+                continue; // Picked up once the previous construction finishes
+            }
+            iter.remove();
+            if (!inPlace.contains(p)) {
+                if (!workers.isShutdown() && mapLoader.canConstructDetached(p)) {
+                    constructing.add(p);
+                    int version = getVersion(p);
+                    workers.execute(() -> construct(p, version));
+                } else {
+                    inPlace.add(p);
+                }
+            }
+        }
+
+        if (!inPlace.isEmpty()) {
+            mapLoader.updateTiles(inPlace.toArray(new Point[inPlace.size()]));
+        }
+
+        return null;
+    }
+
+    private void construct(Point p, int version) {
+        MapLoader.TileConstruction construction = null;
+        try {
+            construction = mapLoader.constructTile(p);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to construct tile at " + p.x + ", " + p.y + "! Rebuilding it in place.", e);
+        }
+        constructed.add(new ConstructedTile(p, version, construction));
+        queueUpdate();
+    }
+
+    /**
+     * Get the combined version of the tile and its neighbours. The tile
+     * versions only grow so any change to the area changes the sum
+     *
+     * @param p the tile coordinates
+     * @return the area version
+     */
+    private int getVersion(Point p) {
+        int version = 0;
+        for (int y = p.y - 1; y <= p.y + 1; y++) {
+            for (int x = p.x - 1; x <= p.x + 1; x++) {
+                int index = tileStore.getIndex(x, y);
+                if (index != -1) {
+                    version += tileStore.getVersion(index);
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Stop the worker threads, the pending tiles are then rebuilt in place
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Tile constructed by a worker, waiting to be swapped in
+     */
+    private static class ConstructedTile {
+
+        private final Point location;
+        private final int version;
+        private final MapLoader.TileConstruction construction;
+
+        public ConstructedTile(Point location, int version, MapLoader.TileConstruction construction) {
+            this.location = location;
+            this.version = version;
+            this.construction = construction;
+        }
+
+    }
+
+}
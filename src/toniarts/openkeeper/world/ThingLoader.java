@@ -19,6 +19,7 @@ package toniarts.openkeeper.world;
 import com.jme3.app.Application;
 import com.jme3.asset.AssetManager;
 import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import java.awt.Point;
@@ -88,6 +89,8 @@ public class ThingLoader {
      * tile they are on)
      */
     private final Set<ObjectControl> objects = new LinkedHashSet<>();
+    private final SpatialIndex<CreatureControl> creatureIndex;
+    private final SpatialIndex<ObjectControl> objectIndex;
     private final Map<Point, DoorControl> doors = new HashMap<>();
     private final Map<Point, TrapControl> traps = new HashMap<>();
     private Map<Short, List<CreatureListener>> creatureListeners;
@@ -108,6 +111,7 @@ public class ThingLoader {
 
                 // Remove the creature
                 creatures.remove(creature);
+                creatureIndex.remove(creature);
 
                 // Notify listeners
                 if (creatureListeners != null && creatureListeners.containsKey(creature.getOwnerId())) {
@@ -144,6 +148,10 @@ public class ThingLoader {
         doorLoader = new DoorLoader(kwdFile, worldState);
         trapLoader = new TrapLoader(kwdFile, worldState);
 
+        // Spatial indices
+        creatureIndex = new SpatialIndex<>(kwdFile.getMap().getWidth(), kwdFile.getMap().getHeight());
+        objectIndex = new SpatialIndex<>(kwdFile.getMap().getWidth(), kwdFile.getMap().getHeight());
+
         // Create the scene graph
         root = new Node("Things");
         nodeCreatures = new Node("Creatures");
@@ -194,7 +202,6 @@ public class ThingLoader {
                     Thing.Object objectThing = (Thing.Object) obj;
                     Spatial object = objectLoader.load(assetManager, objectThing);
                     ObjectControl objectControl = object.getControl(ObjectControl.class);
-                    objects.add(objectControl);
                     nodeObjects.attachChild(object);
 
                     // Trigger
@@ -202,7 +209,7 @@ public class ThingLoader {
                         objectTriggerState.setThing(objectThing.getTriggerId(), objectControl);
                     }
 
-                    notifyOnObjectAdded(objectControl);
+                    onObjectAdded(objectControl);
                 } else if (obj instanceof Thing.Door) {
 
                     Thing.Door doorThing = (Thing.Door) obj;
@@ -343,9 +350,8 @@ public class ThingLoader {
         Spatial object = objectLoader.load(assetManager, coordinates,
                 0, initialAmount, 0, ObjectLoader.OBJECT_GOLD_ID, playerId, maxLooseGoldPerPile);
         GoldObjectControl control = object.getControl(GoldObjectControl.class);
-        objects.add(control);
         nodeObjects.attachChild(object);
-        notifyOnObjectAdded(control);
+        onObjectAdded(control);
 
         return control;
     }
@@ -389,8 +395,23 @@ public class ThingLoader {
         return control;
     }
 
+    /**
+     * Adds the object to the object registry and indexes it. The objects in the
+     * registry stay put, so they are indexed only here and removed from the
+     * index in {@link #onObjectRemoved(toniarts.openkeeper.world.object.ObjectControl)}
+     *
+     * @param object the object, attached to the scene
+     */
+    private void onObjectAdded(ObjectControl object) {
+        objects.add(object);
+        Vector3f translation = object.getSpatial().getWorldTranslation();
+        objectIndex.update(object, translation.x, translation.z);
+        notifyOnObjectAdded(object);
+    }
+
     public void onObjectRemoved(ObjectControl object) {
         objects.remove(object);
+        objectIndex.remove(object);
         if (objectListeners != null) {
             for (ObjectListener listener : objectListeners) {
                 listener.onRemoved(object);
@@ -406,6 +427,34 @@ public class ThingLoader {
         return new ArrayList<>(objects);
     }
 
+    public int getCreatureCount() {
+        return creatures.size();
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    /**
+     * Get the spatial index of the creatures. Maintained by the movement
+     *
+     * @return the creature spatial index
+     * @see toniarts.openkeeper.game.logic.MovementThread
+     */
+    public SpatialIndex<CreatureControl> getCreatureIndex() {
+        return creatureIndex;
+    }
+
+    /**
+     * Get the spatial index of the objects in the object registry. Maintained
+     * when the objects are added to or removed from the registry
+     *
+     * @return the object spatial index
+     */
+    public SpatialIndex<ObjectControl> getObjectIndex() {
+        return objectIndex;
+    }
+
     /**
      * If you want to get notified about the creature changes
      *
@@ -19,100 +19,89 @@ package toniarts.openkeeper.world;
 import com.jme3.math.Vector2f;
 import com.jme3.scene.Node;
 import java.awt.Point;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
 import toniarts.openkeeper.Main;
-import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Tile;
 import toniarts.openkeeper.world.creature.CreatureControl;
 
 /**
- * Wrapper for a map tile
+ * Wrapper for a map tile. The tile state itself lives in the packed
+ * {@link TileStore}, this is just a view to it
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public final class TileData extends Tile {
 
-    private boolean selected = false;
-    private boolean flashed = false;
-    private short selectedByPlayerId = 0;
-    private Integer randomTextureIndex;
-    private Terrain terrain;
-    private int health;
-    private int gold;
     private final Point p;
     private final int index;
-    private final KwdFile kwdFile;
-    private final List<CreatureControl> creatures = new ArrayList<>();
+    private final TileStore store;
+    private volatile List<CreatureControl> creatures;
     private Node sideNode;
     private Node topNode;
     private final static ResourceBundle bundle = Main.getResourceBundle("Interface/Texts/Text");
 
-    protected TileData(KwdFile kwdFile, Tile tile, Terrain terrain, int x, int y, int index) {
+    protected TileData(TileStore store, Tile tile, int x, int y, int index) {
         this.p = new Point(x, y);
         this.index = index;
-        this.kwdFile = kwdFile;
-        this.terrain = terrain;
-        this.setFlag(tile.getFlag());
-        this.setPlayerId(tile.getPlayerId());
-        this.setTerrainId(tile.getTerrainId());
+        this.store = store;
         this.setUnknown(tile.getUnknown());
-
-        // The water/lava under the bridge is set only when there is an actual bridge, but we might as well set it here, it doesn't change
-        if (terrain.getFlags().contains(Terrain.TerrainFlag.LAVA)) {
-            this.setFlag(BridgeTerrainType.LAVA);
-        } else if (terrain.getFlags().contains(Terrain.TerrainFlag.WATER)) {
-            this.setFlag(BridgeTerrainType.WATER);
-        }
-
-        // Set attributes
-        setAttributesFromTerrain();
     }
 
     public boolean isSelected() {
-        return selected;
+        return store.isSelected(index);
     }
 
     protected void setSelected(boolean selected, short playerId) {
-        this.selected = selected;
-        selectedByPlayerId = playerId;
+        store.setSelected(index, selected, playerId);
     }
 
     public boolean isFlashed() {
-        return flashed;
+        return store.isFlashed(index);
     }
 
     public void setFlashed(boolean flashed) {
-        this.flashed = flashed;
+        store.setFlashed(index, flashed);
     }
 
     public short getSelectedByPlayerId() {
-        return selectedByPlayerId;
+        return store.getSelectedByPlayerId(index);
     }
 
     public boolean isSelectedByPlayerId(short playerId) {
-        return (selected && selectedByPlayerId == playerId);
+        return (isSelected() && getSelectedByPlayerId() == playerId);
+    }
+
+    @Override
+    public short getPlayerId() {
+        return store.getPlayerId(index);
     }
 
     @Override
     protected void setPlayerId(short playerId) {
-        super.setPlayerId(playerId);
+        if (getPlayerId() != playerId) {
+            store.setPlayerId(index, playerId);
+        }
+    }
+
+    @Override
+    public short getTerrainId() {
+        return store.getTerrainId(index);
     }
 
     @Override
     protected void setTerrainId(short terrainId) {
-        super.setTerrainId(terrainId);
-        if (terrain.getTerrainId() != terrainId) {
+        if (getTerrainId() != terrainId) {
 
             // A change
-            terrain = kwdFile.getTerrain(getTerrainId());
-            setAttributesFromTerrain();
+            store.setTerrainId(index, terrainId);
 
             // If the terrain is not taggable anymore, reset the tagging data
-            if (!terrain.getFlags().contains(Terrain.TerrainFlag.TAGGABLE)) {
+            if (!getTerrain().getFlags().contains(Terrain.TerrainFlag.TAGGABLE)) {
                 setSelected(false, (short) 0);
             }
             // FIXME realy need?
@@ -120,12 +109,23 @@ public final class TileData extends Tile {
         }
     }
 
+    @Override
+    public BridgeTerrainType getFlag() {
+        return store.getBridgeTerrainType(index);
+    }
+
+    @Override
+    protected void setFlag(BridgeTerrainType flag) {
+        store.setBridgeTerrainType(index, flag);
+    }
+
     public Integer getRandomTextureIndex() {
-        return randomTextureIndex;
+        short randomTextureIndex = store.getRandomTextureIndex(index);
+        return (randomTextureIndex >= 0 ? Integer.valueOf(randomTextureIndex) : null);
     }
 
     protected void setRandomTextureIndex(Integer randomTextureIndex) {
-        this.randomTextureIndex = randomTextureIndex;
+        store.setRandomTextureIndex(index, (short) (randomTextureIndex != null ? randomTextureIndex : -1));
     }
 
     public int getX() {
@@ -162,20 +162,15 @@ public final class TileData extends Tile {
      * @return the terrain
      */
     public Terrain getTerrain() {
-        return terrain;
-    }
-
-    private void setAttributesFromTerrain() {
-        health = terrain.getStartingHealth();
-        gold = terrain.getGoldValue();
+        return store.getTerrain(index);
     }
 
     public int getHealth() {
-        return health;
+        return store.getHealth(index);
     }
 
     public int getGold() {
-        return gold;
+        return store.getGold(index);
     }
 
     /**
@@ -184,18 +179,18 @@ public final class TileData extends Tile {
      * @param health the health points to set
      */
     protected void setHealth(int health) {
-        this.health = health;
+        store.setHealth(index, health);
     }
 
     public String getTooltip() {
         return bundle.getString(Integer.toString(getTerrain().getTooltipStringId()))
                 .replaceAll("%37%", Integer.toString(getHealthPercent()))
-                .replaceAll("%66", Integer.toString(terrain.getManaGain()))
-                .replaceAll("%67", Integer.toString(gold));
+                .replaceAll("%66", Integer.toString(getTerrain().getManaGain()))
+                .replaceAll("%67", Integer.toString(getGold()));
     }
 
     protected Integer getHealthPercent() {
-        return Math.round((float) health / terrain.getMaxHealth() * 100);
+        return Math.round((float) getHealth() / getTerrain().getMaxHealth() * 100);
     }
 
     /**
@@ -205,7 +200,8 @@ public final class TileData extends Tile {
      * @return true if the tile is "dead"
      */
     public boolean applyDamage(int damage) {
-        health = Math.max(0, health - damage);
+        int health = Math.max(0, getHealth() - damage);
+        setHealth(health);
         return (health == 0);
     }
 
@@ -216,7 +212,8 @@ public final class TileData extends Tile {
      * @return true if the tile is at max
      */
     public boolean applyHealing(int healing) {
-        health = (int) Math.min(getTerrain().getMaxHealth(), (long) health + healing);
+        int health = (int) Math.min(getTerrain().getMaxHealth(), (long) getHealth() + healing);
+        setHealth(health);
         return (health == getTerrain().getMaxHealth());
     }
 
@@ -227,8 +224,9 @@ public final class TileData extends Tile {
      * @return the amount of gold got
      */
     public int mineGold(int damage) {
+        int gold = getGold();
         int minedAmount = Math.min(damage, gold);
-        gold -= minedAmount;
+        store.setGold(index, gold - minedAmount);
         return minedAmount;
     }
 
@@ -238,14 +236,16 @@ public final class TileData extends Tile {
      * @return true if full health
      */
     public boolean isAtFullHealth() {
-        return (health == getTerrain().getMaxHealth());
+        return (getHealth() == getTerrain().getMaxHealth());
     }
 
     /**
      * Clears the tile creature record
      */
     public void clearCreatures() {
-        creatures.clear();
+        if (creatures != null) {
+            creatures.clear();
+        }
     }
 
     /**
@@ -254,16 +254,33 @@ public final class TileData extends Tile {
      * @param creature the creature to add
      */
     public void addCreature(CreatureControl creature) {
+        if (creatures == null) {
+            creatures = new CopyOnWriteArrayList<>();
+        }
         creatures.add(creature);
     }
 
     /**
-     * Get list of creatures currently wondering at this tile
+     * Remove a creature from the tile creature record
      *
+     * @param creature the creature to remove
+     */
+    public void removeCreature(CreatureControl creature) {
+        if (creatures != null) {
+            creatures.remove(creature);
+        }
+    }
+
+    /**
+     * Get list of creatures currently wondering at this tile. The list is safe
+     * to iterate from any thread. The list is created on the first creature
+     *
+     * @see CreatureTileIndex
      * @return creatures at this tile
      */
     public List<CreatureControl> getCreatures() {
-        return creatures;
+        List<CreatureControl> list = creatures;
+        return (list != null ? list : Collections.<CreatureControl>emptyList());
     }
 
     @Nullable
@@ -283,4 +300,9 @@ public final class TileData extends Tile {
     public void setTopNode(Node node) {
         this.topNode = node;
     }
+
+    @Override
+    public String toString() {
+        return "TileData{" + "x=" + p.x + ", y=" + p.y + ", terrainId=" + getTerrainId() + ", playerId=" + getPlayerId() + ", flag=" + getFlag() + '}';
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import toniarts.openkeeper.tools.convert.map.KwdFile;
+import toniarts.openkeeper.tools.convert.map.Terrain;
+import toniarts.openkeeper.tools.convert.map.Tile;
+
+/**
+ * Packed storage of the map tile state. Every attribute is a primitive array
+ * indexed by the tile index (y * width + x), so scanning the map touches a few
+ * contiguous arrays instead of chasing a tile object per coordinate.<br>
+ * The {@link TileData} objects are just views to this store. Code scanning
+ * large areas of the map should read the store directly by index.
+ *
+ * @see MapData#getTileStore()
+ * @see TileData#getIndex()
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class TileStore {
+
+    private static final short NO_RANDOM_TEXTURE = -1;
+    private static final Tile.BridgeTerrainType[] BRIDGE_TERRAIN_TYPES; // By the type value, 0 for none
+
+    static {
+        int maxValue = 0;
+        for (Tile.BridgeTerrainType type : Tile.BridgeTerrainType.values()) {
+            maxValue = Math.max(maxValue, type.getValue());
+        }
+        BRIDGE_TERRAIN_TYPES = new Tile.BridgeTerrainType[maxValue + 1];
+        for (Tile.BridgeTerrainType type : Tile.BridgeTerrainType.values()) {
+            BRIDGE_TERRAIN_TYPES[type.getValue()] = type;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final Terrain[] terrains; // Terrains by terrain ID
+    private final EconomyLedger economyLedger;
+    private final short[] terrainIds;
+    private final short[] playerIds;
+    private final int[] healths;
+    private final int[] golds;
+    private final byte[] bridgeTerrainTypes;
+    private final boolean[] selected; // Written from both the render and the logic thread, so not packed with the other flags
+    private final boolean[] flashed;
+    private final byte[] selectedByPlayerIds;
+    private final short[] randomTextureIndices;
+    private final AtomicIntegerArray versions; // Bumped after every change, tells whether a tile has changed since it was last looked at. Also publishes the change to the other threads
+
+    public TileStore(KwdFile kwdFile, EconomyLedger economyLedger) {
+        this.economyLedger = economyLedger;
+        width = kwdFile.getMap().getWidth();
+        height = kwdFile.getMap().getHeight();
+
+        // Terrain lookup
+        int maxTerrainId = 0;
+        for (Terrain terrain : kwdFile.getTerrainList()) {
+            maxTerrainId = Math.max(maxTerrainId, terrain.getTerrainId());
+        }
+        terrains = new Terrain[maxTerrainId + 1];
+        for (Terrain terrain : kwdFile.getTerrainList()) {
+            terrains[terrain.getTerrainId()] = terrain;
+        }
+
+        int size = width * height;
+        terrainIds = new short[size];
+        playerIds = new short[size];
+        healths = new int[size];
+        golds = new int[size];
+        bridgeTerrainTypes = new byte[size];
+        selected = new boolean[size];
+        flashed = new boolean[size];
+        selectedByPlayerIds = new byte[size];
+        randomTextureIndices = new short[size];
+        versions = new AtomicIntegerArray(size);
+        Arrays.fill(randomTextureIndices, NO_RANDOM_TEXTURE);
+
+        // Copy the map
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = getIndex(x, y);
+                Tile tile = kwdFile.getMap().getTile(x, y);
+                Terrain terrain = terrains[tile.getTerrainId()];
+                terrainIds[index] = tile.getTerrainId();
+                playerIds[index] = tile.getPlayerId();
+                setAttributesFromTerrain(index, terrain);
+
+                // The water/lava under the bridge is set only when there is an actual bridge, but we might as well set it here, it doesn't change
+                Tile.BridgeTerrainType bridgeTerrainType = tile.getFlag();
+                if (terrain.getFlags().contains(Terrain.TerrainFlag.LAVA)) {
+                    bridgeTerrainType = Tile.BridgeTerrainType.LAVA;
+                } else if (terrain.getFlags().contains(Terrain.TerrainFlag.WATER)) {
+                    bridgeTerrainType = Tile.BridgeTerrainType.WATER;
+                }
+                setBridgeTerrainType(index, bridgeTerrainType);
+
+                economyLedger.addTile(playerIds[index], terrain);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the number of tiles in the store
+     *
+     * @return the tile count
+     */
+    public int size() {
+        return terrainIds.length;
+    }
+
+    /**
+     * Get the tile index of the given coordinates
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return the tile index, -1 if outside the map
+     */
+    public int getIndex(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        return y * width + x;
+    }
+
+    public short getTerrainId(int index) {
+        return terrainIds[index];
+    }
+
+    public Terrain getTerrain(int index) {
+        return terrains[terrainIds[index]];
+    }
+
+    public short getPlayerId(int index) {
+        return playerIds[index];
+    }
+
+    public int getHealth(int index) {
+        return healths[index];
+    }
+
+    public int getGold(int index) {
+        return golds[index];
+    }
+
+    public Tile.BridgeTerrainType getBridgeTerrainType(int index) {
+        return BRIDGE_TERRAIN_TYPES[bridgeTerrainTypes[index]];
+    }
+
+    public boolean isSelected(int index) {
+        return selected[index];
+    }
+
+    public short getSelectedByPlayerId(int index) {
+        return selectedByPlayerIds[index];
+    }
+
+    public boolean isFlashed(int index) {
+        return flashed[index];
+    }
+
+    /**
+     * Get the random texture index of the tile
+     *
+     * @param index the tile index
+     * @return the random texture index, -1 if not set
+     */
+    public short getRandomTextureIndex(int index) {
+        return randomTextureIndices[index];
+    }
+
+    /**
+     * Get the version of the tile state. The version changes every time the
+     * tile is modified, so comparing the versions tells whether the tile has
+     * changed in between
+     *
+     * @param index the tile index
+     * @return the tile version
+     */
+    public int getVersion(int index) {
+        return versions.get(index);
+    }
+
+    /**
+     * Set the tile owner, updates the economy ledger
+     *
+     * @param index the tile index
+     * @param playerId the new owner
+     */
+    protected void setPlayerId(int index, short playerId) {
+        Terrain terrain = getTerrain(index);
+        economyLedger.removeTile(playerIds[index], terrain);
+        playerIds[index] = playerId;
+        economyLedger.addTile(playerId, terrain);
+        versions.incrementAndGet(index);
+    }
+
+    /**
+     * Set the tile terrain, resets the health and gold to the new terrain's
+     * starting values and updates the economy ledger
+     *
+     * @param index the tile index
+     * @param terrainId the new terrain ID
+     */
+    protected void setTerrainId(int index, short terrainId) {
+        economyLedger.removeTile(playerIds[index], getTerrain(index));
+        terrainIds[index] = terrainId;
+        Terrain terrain = getTerrain(index);
+        economyLedger.addTile(playerIds[index], terrain);
+        setAttributesFromTerrain(index, terrain);
+        versions.incrementAndGet(index);
+    }
+
+    protected void setHealth(int index, int health) {
+        healths[index] = health;
+        versions.incrementAndGet(index);
+    }
+
+    protected void setGold(int index, int gold) {
+        golds[index] = gold;
+        versions.incrementAndGet(index);
+    }
+
+    protected void setBridgeTerrainType(int index, Tile.BridgeTerrainType bridgeTerrainType) {
+        int value = (bridgeTerrainType != null ? bridgeTerrainType.getValue() : 0);
+        bridgeTerrainTypes[index] = (byte) value;
+        versions.incrementAndGet(index);
+    }
+
+    protected void setSelected(int index, boolean selected, short playerId) {
+        this.selected[index] = selected;
+        selectedByPlayerIds[index] = (byte) playerId;
+        versions.incrementAndGet(index);
+    }
+
+    protected void setFlashed(int index, boolean flashed) {
+        this.flashed[index] = flashed;
+        versions.incrementAndGet(index);
+    }
+
+    protected void setRandomTextureIndex(int index, short randomTextureIndex) {
+        randomTextureIndices[index] = randomTextureIndex;
+    }
+
+    private void setAttributesFromTerrain(int index, Terrain terrain) {
+        healths[index] = terrain.getStartingHealth();
+        golds[index] = terrain.getGoldValue();
+    }
+
+}
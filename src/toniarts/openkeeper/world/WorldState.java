@@ -16,12 +16,12 @@
  */
 package toniarts.openkeeper.world;
 
-import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
 import com.badlogic.gdx.ai.pfa.GraphPath;
 import com.badlogic.gdx.ai.steer.utils.paths.LinePath;
 import com.badlogic.gdx.ai.steer.utils.paths.LinePath.Segment;
 import com.badlogic.gdx.math.Vector2;
 import com.jme3.app.Application;
+import com.jme3.app.SimpleApplication;
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import com.jme3.asset.AssetManager;
@@ -48,6 +48,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import toniarts.openkeeper.Main;
@@ -74,16 +75,16 @@ import toniarts.openkeeper.world.animation.AnimationLoader;
 import toniarts.openkeeper.world.control.FlashTileControl;
 import toniarts.openkeeper.world.control.IInteractiveControl;
 import toniarts.openkeeper.world.creature.CreatureControl;
+import toniarts.openkeeper.world.creature.CreaturePerception;
+import toniarts.openkeeper.world.creature.ThreatMap;
 import toniarts.openkeeper.world.effect.EffectManagerState;
 import toniarts.openkeeper.world.listener.CreatureListener;
 import toniarts.openkeeper.world.listener.RoomListener;
 import toniarts.openkeeper.world.listener.TileChangeListener;
 import toniarts.openkeeper.world.object.GoldObjectControl;
 import toniarts.openkeeper.world.object.ObjectControl;
-import toniarts.openkeeper.world.pathfinding.MapDistance;
-import toniarts.openkeeper.world.pathfinding.MapIndexedGraph;
-import toniarts.openkeeper.world.pathfinding.MapPathFinder;
 import toniarts.openkeeper.world.pathfinding.PathFindable;
+import toniarts.openkeeper.world.pathfinding.PathFindingService;
 import toniarts.openkeeper.world.room.GenericRoom;
 import toniarts.openkeeper.world.room.RoomInstance;
 import toniarts.openkeeper.world.room.control.RoomGoldControl;
@@ -95,16 +96,17 @@ import toniarts.openkeeper.world.room.control.RoomGoldControl;
  */
 public abstract class WorldState extends AbstractAppState {
 
-    private Main app;
+    private SimpleApplication app;
     private AppStateManager stateManager;
     private final MapLoader mapLoader;
     private final ThingLoader thingLoader;
     private final KwdFile kwdFile;
     private AssetManager assetManager;
     private Node worldNode;
-    private final MapIndexedGraph pathFindingMap;
-    private final MapPathFinder pathFinder;
-    private final MapDistance heuristic;
+    private final PathFindingService pathFindingService;
+    private final TerrainRebuildService terrainRebuildService;
+    private final CreaturePerception creaturePerception;
+    private final ThreatMap threatMap;
     private final Node thingsNode;
     private final BulletAppState bulletAppState;
     private final EffectManagerState effectManager;
@@ -142,17 +144,25 @@ public abstract class WorldState extends AbstractAppState {
             }
         };
         worldNode.attachChild(mapLoader.load(assetManager, kwdFile));
+        terrainRebuildService = new TerrainRebuildService(gameState.getApplication(), mapLoader);
 
         // For path finding
-        pathFindingMap = new MapIndexedGraph(this);
-        pathFinder = new MapPathFinder(pathFindingMap, false);
-        heuristic = new MapDistance();
+        pathFindingService = new PathFindingService(this, MapLoader.PAGE_SQUARE_SIZE);
+        addListener(pathFindingService);
+
+        // Creature senses
+        creaturePerception = new CreaturePerception(getMapData());
+        addListener(creaturePerception);
+        threatMap = new ThreatMap(getMapData(), thingLoader, creaturePerception);
 
         // Things
         thingsNode = thingLoader.loadAll(gameState.getCreatureTriggerState(), gameState.getObjectTriggerState(), gameState.getDoorTriggerState(), gameState.getPartyTriggerState());
         worldNode.attachChild(thingsNode);
 
-        flashTileControl = new FlashTileControl(this, (Main) gameState.getApplication());
+        // Path finding costs, the doors need to be in place
+        pathFindingService.getCostGrid().updateAll();
+
+        flashTileControl = new FlashTileControl(this, gameState.getApplication());
 
         // Player money
         initPlayerMoney();
@@ -195,7 +205,8 @@ public abstract class WorldState extends AbstractAppState {
 
                 @Override
                 public void onSpawn(CreatureControl creature) {
-                    if (player.getId() == stateManager.getState(PlayerState.class).getPlayerId() && player.getCreatureControl().getTypeCount(creature.getCreature()) == 0) {
+                    PlayerState playerState = stateManager.getState(PlayerState.class);
+                    if (playerState != null && player.getId() == playerState.getPlayerId() && player.getCreatureControl().getTypeCount(creature.getCreature()) == 0) {
 
                         // First appearance
                         String message;
@@ -204,7 +215,7 @@ public abstract class WorldState extends AbstractAppState {
                             message = String.format("${level.%d}", overrideTextId - 1);
                             stateManager.getState(SoundState.class).attachLevelSpeech(overrideTextId);
 
-                            stateManager.getState(PlayerState.class).setText(overrideTextId, true, 0);
+                            playerState.setText(overrideTextId, true, 0);
                         } else {
                             // default entrance message
                             message = "${speech.376}";
@@ -247,7 +258,7 @@ public abstract class WorldState extends AbstractAppState {
     @Override
     public void initialize(final AppStateManager stateManager, final Application app) {
         super.initialize(stateManager, app);
-        this.app = (Main) app;
+        this.app = (SimpleApplication) app;
         this.stateManager = stateManager;
         this.assetManager = app.getAssetManager();
 
@@ -276,6 +287,10 @@ public abstract class WorldState extends AbstractAppState {
         // Effects
         this.stateManager.detach(effectManager);
 
+        // Path finding & terrain threads
+        pathFindingService.shutdown();
+        terrainRebuildService.shutdown();
+
         super.cleanup();
     }
 
@@ -380,7 +395,7 @@ public abstract class WorldState extends AbstractAppState {
             }
         }
         Point[] tiles = updatableTiles.toArray(new Point[updatableTiles.size()]);
-        mapLoader.updateTiles(tiles);
+        terrainRebuildService.rebuild(tiles);
 
         // Notify
         notifyTileChange(tiles);
@@ -525,26 +540,23 @@ public abstract class WorldState extends AbstractAppState {
 
         // update one
         updateTiles(enqueue, mapLoader.getSurroundingTiles(pos, true));
+
+        // Notify
+        notifyTileChange(pos);
     }
 
     /**
      * Update map tiles, on the scene graph
      *
      * @param enqueue if {@code false} this is executed in the current thread,
-     * otherwise it is enqueued to the update loop
+     * otherwise the tiles are rebuilt by the terrain rebuild service
      * @param points the map points to update
      */
     protected void updateTiles(boolean enqueue, Point... points) {
 
         // Enqueue if app is set
         if (enqueue) {
-
-            app.enqueue(() -> {
-
-                mapLoader.updateTiles(points);
-
-                return null;
-            });
+            terrainRebuildService.rebuild(points);
         } else {
             mapLoader.updateTiles(points);
         }
@@ -578,6 +590,9 @@ public abstract class WorldState extends AbstractAppState {
         // See if room walls are allowed and does this touch any rooms
         updateRoomWalls(tile);
         mapLoader.updateTiles(mapLoader.getSurroundingTiles(tile.getLocation(), true));
+
+        // Notify
+        notifyTileChange(tile.getLocation());
     }
 
     private void updateRoomWalls(TileData tile) {
@@ -636,6 +651,9 @@ public abstract class WorldState extends AbstractAppState {
         updateRoomWalls(tile);
 
         mapLoader.updateTiles(mapLoader.getSurroundingTiles(tile.getLocation(), true));
+
+        // Only the ownership changes, no need to rescan the tasks
+        notifyPassabilityChange(tile.getLocation());
     }
 
     /**
@@ -728,6 +746,7 @@ public abstract class WorldState extends AbstractAppState {
         }
 
         mapLoader.updateTiles(updatableTiles.toArray(new Point[updatableTiles.size()]));
+        notifyPassabilityChange(updatableTiles.toArray(new Point[updatableTiles.size()]));
 
         // New room, calculate gold capacity
         RoomInstance instance = mapLoader.getRoomCoordinates().get(instancePlots.get(0));
@@ -838,6 +857,7 @@ public abstract class WorldState extends AbstractAppState {
         removeRoomInstances(soldInstances.toArray(new RoomInstance[soldInstances.size()]));
 
         mapLoader.updateTiles(updatableTiles.toArray(new Point[updatableTiles.size()]));
+        notifyPassabilityChange(updatableTiles.toArray(new Point[updatableTiles.size()]));
 
         // See if any of the rooms survived
         Set<RoomInstance> newInstances = new HashSet<>();
@@ -873,7 +893,7 @@ public abstract class WorldState extends AbstractAppState {
     }
 
     /**
-     * Get a random tile, that is not a starting tile
+     * Get a random tile reachable from the start, that is not a starting tile
      *
      * @param start starting coordinates
      * @param radius radius, in tiles
@@ -881,6 +901,7 @@ public abstract class WorldState extends AbstractAppState {
      * @return a random tile if one is found
      */
     public Point findRandomAccessibleTile(Point start, int radius, CreatureControl creature) {
+        TileData startTile = getMapData().getTile(start);
         List<Point> tiles = new ArrayList<>(radius * radius - 1);
         for (int y = start.y - radius; y <= start.y + radius; y++) {
             for (int x = start.x - radius; x <= start.x + radius; x++) {
@@ -891,7 +912,8 @@ public abstract class WorldState extends AbstractAppState {
                 }
 
                 TileData tile = getMapData().getTile(x, y);
-                if (tile != null && isAccessible(tile, creature)) {
+                if (tile != null && isAccessible(tile, creature)
+                        && (startTile == null || pathFindingService.isReachable(startTile, tile, creature))) {
                     tiles.add(new Point(x, y));
                 }
             }
@@ -905,22 +927,82 @@ public abstract class WorldState extends AbstractAppState {
     }
 
     /**
-     * FIXME: This can NOT be. Just for quick easy testing.
+     * Find a path between two points, in the calling thread. This is thread
+     * safe.
      *
      * @param start start point
      * @param end end point
      * @param pathFindable the entity to find path for
      * @return output path, null if path not found
+     * @see #getPathFindingService()
      */
     public GraphPath<TileData> findPath(Point start, Point end, PathFindable pathFindable) {
-        pathFindingMap.setPathFindable(pathFindable);
-        GraphPath<TileData> outPath = new DefaultGraphPath<>();
         TileData startTile = getMapData().getTile(start.x, start.y);
         TileData endTile = getMapData().getTile(end.x, end.y);
-        if (startTile != null && endTile != null && pathFinder.searchNodePath(startTile, endTile, heuristic, outPath)) {
-            return outPath;
+        if (startTile == null || endTile == null) {
+            return null;
+        }
+        return pathFindingService.findPath(startTile, endTile, pathFindable);
+    }
+
+    /**
+     * Queue a path search between two points. The search is run on the next
+     * game tick with the other queued searches, and the future is completed
+     * in the game logic thread
+     *
+     * @param start start point
+     * @param end end point
+     * @param pathFindable the entity to find path for
+     * @return future for the output path, the path is null if not found
+     * @see PathFindingService#findPathAsync(TileData, TileData, PathFindable)
+     */
+    public CompletableFuture<GraphPath<TileData>> findPathAsync(Point start, Point end, PathFindable pathFindable) {
+        TileData startTile = getMapData().getTile(start.x, start.y);
+        TileData endTile = getMapData().getTile(end.x, end.y);
+        if (startTile == null || endTile == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return pathFindingService.findPathAsync(startTile, endTile, pathFindable);
+    }
+
+    /**
+     * Get the path finding service, for the path smoothing, the reachability
+     * checks and the flow fields
+     *
+     * @return the path finding service
+     */
+    public PathFindingService getPathFindingService() {
+        return pathFindingService;
+    }
+
+    /**
+     * Get the creature perception queries
+     *
+     * @return the creature perception
+     */
+    public CreaturePerception getCreaturePerception() {
+        return creaturePerception;
+    }
+
+    /**
+     * Get the creature threat influence map
+     *
+     * @return the threat map
+     */
+    public ThreatMap getThreatMap() {
+        return threatMap;
+    }
+
+    /**
+     * Notify the path finding that the passability of a tile has changed, i.e.
+     * a door got locked or a room was rebuilt
+     *
+     * @param points the tile coordinates
+     */
+    public void notifyPassabilityChange(Point... points) {
+        for (Point p : points) {
+            pathFindingService.onTileChange(p.x, p.y);
         }
-        return null;
     }
 
     /**
@@ -931,6 +1013,9 @@ public abstract class WorldState extends AbstractAppState {
      * @return is accessible
      */
     public boolean isAccessible(TileData tile, PathFindable pathFindable) {
+        if (pathFindable.hasDefaultCost()) {
+            return pathFindingService.getCostGrid().getCost(null, tile, pathFindable) >= 0;
+        }
         Float cost = pathFindable.getCost(null, tile, this);
         return cost != null;
     }
@@ -1053,12 +1138,12 @@ public abstract class WorldState extends AbstractAppState {
             tile.setTerrainId(terrain.getDestroyedTypeTerrainId());
 
             updateRoomWalls(tile);
-            mapLoader.updateTiles(mapLoader.getSurroundingTiles(tile.getLocation(), true));
+            terrainRebuildService.rebuild(mapLoader.getSurroundingTiles(tile.getLocation(), true));
 
             // Notify
             notifyTileChange(point);
         } else if (terrain.getFlags().contains(Terrain.TerrainFlag.DECAY)) {
-            mapLoader.updateTiles(point);
+            terrainRebuildService.rebuild(point);
         }
 
         return returnedGold;
@@ -1114,12 +1199,12 @@ public abstract class WorldState extends AbstractAppState {
             }
 
             updateRoomWalls(tile);
-            mapLoader.updateTiles(mapLoader.getSurroundingTiles(tile.getLocation(), true));
+            terrainRebuildService.rebuild(mapLoader.getSurroundingTiles(tile.getLocation(), true));
 
             // Notify
             notifyTileChange(point);
         } else if (terrain.getFlags().contains(Terrain.TerrainFlag.DECAY)) {
-            mapLoader.updateTiles(point);
+            terrainRebuildService.rebuild(point);
         }
     }
 
@@ -16,13 +16,13 @@
  */
 package toniarts.openkeeper.world.control;
 
+import com.jme3.app.Application;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
 import com.jme3.scene.control.AbstractControl;
 import java.awt.Point;
 import java.util.ArrayList;
 import java.util.List;
-import toniarts.openkeeper.Main;
 import toniarts.openkeeper.world.WorldState;
 
 /**
@@ -36,12 +36,12 @@ public class FlashTileControl extends AbstractControl {
     private boolean flashed = false;
     private WorldState worldState;
     private final List<Point> points = new ArrayList<>();
-    private Main app;
+    private Application app;
 
     public FlashTileControl() {
     }
 
-    public FlashTileControl(final WorldState worldState, final Main app) {
+    public FlashTileControl(final WorldState worldState, final Application app) {
         this.worldState = worldState;
         this.app = app;
     }
@@ -40,6 +40,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 import toniarts.openkeeper.ai.creature.CreatureState;
 import toniarts.openkeeper.game.action.ActionPoint;
@@ -61,6 +62,7 @@ import toniarts.openkeeper.tools.convert.map.Thing.NeutralCreature;
 import toniarts.openkeeper.tools.convert.map.Variable;
 import toniarts.openkeeper.utils.Utils;
 import toniarts.openkeeper.utils.WorldUtils;
+import toniarts.openkeeper.world.MapLoader;
 import toniarts.openkeeper.world.TileData;
 import toniarts.openkeeper.world.WorldState;
 import toniarts.openkeeper.world.animation.AnimationControl;
@@ -155,10 +157,10 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
      */
     private final Set<CreatureControl> visibilityList = new HashSet<>();
     private boolean visibilityListUpdated = false;
-    private Integer ourThreat;
-    private Integer enemyThreat;
-    private Integer fellowFighters;
+    private boolean tickPrepared = false;
     private CreatureControl attackTarget;
+    private final Predicate<CreatureControl> attackTargetFilter = (c) -> visibilityList.contains(c) && isEnemy(c)
+            && (!c.isIncapacitated() || c.getStateMachine().getCurrentState() == CreatureState.FLEE);
     private boolean attacked = false;
 
     // Good creature specific stuff
@@ -237,22 +239,42 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
         }
     }
 
-    @Override
-    public void processTick(float tpf, Application app) {
+    /**
+     * The first phase of the tick. Senses the surroundings and makes the
+     * decisions that only need to read the world. Only the state of this
+     * creature is modified, so the creatures can be prepared in parallel.
+     * Must be called before {@link #processTick(float, com.jme3.app.Application)},
+     * which then applies the rest
+     *
+     * @param tpf the time per frame
+     */
+    public void prepareTick(float tpf) {
         visibilityList.clear();
         visibilityListUpdated = false;
-        ourThreat = null;
-        enemyThreat = null;
-        fellowFighters = null;
-        if (stateMachine.getCurrentState() == null) {
-            initState();
-        }
+        getVisibleCreatures();
 
         // Update attacks
         for (CreatureAttack attack : attacks) {
             attack.recharge(tpf);
         }
 
+        // Pick a target in advance
+        if (creature.getFightStyle() != Creature.FightStyle.NON_FIGHTER && stateMachine.getCurrentState() != null) {
+            getAttackTarget();
+        }
+        tickPrepared = true;
+    }
+
+    @Override
+    public void processTick(float tpf, Application app) {
+        if (!tickPrepared) {
+            prepareTick(tpf);
+        }
+        tickPrepared = false;
+        if (stateMachine.getCurrentState() == null) {
+            initState();
+        }
+
         // Update attributes
         if (stateMachine.getCurrentState() != null
                 && stateMachine.getCurrentState() != CreatureState.PICKED_UP) {
@@ -838,19 +860,16 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
             // See if there is any gold at our feet to merge to
             // FIXME: What would be the best way...
             final int goldToSet = gold;
-            for (ObjectControl objectControl : worldState.getThingLoader().getObjects()) {
-                if (objectControl instanceof GoldObjectControl && objectControl.getState() == ObjectControl.ObjectState.NORMAL) {
-
-                    // See distance
-                    if (getSpatial().getWorldBound().collideWith(objectControl.getSpatial().getWorldBound()) > 0) {
-                        GoldObjectControl goldObjectControl = (GoldObjectControl) objectControl;
-                        worldState.getGameState().getApplication().enqueue(() -> {
-                            goldObjectControl.setGold(goldObjectControl.getGold() + goldToSet);
-                        });
-                        gold = 0;
-                        return;
-                    }
-                }
+            ObjectControl objectControl = worldState.getThingLoader().getObjectIndex().getNearest(getPosition().x, getPosition().y, MapLoader.TILE_WIDTH,
+                    (o) -> o instanceof GoldObjectControl && o.getState() == ObjectControl.ObjectState.NORMAL
+                    && getSpatial().getWorldBound().collideWith(o.getSpatial().getWorldBound()) > 0);
+            if (objectControl != null) {
+                GoldObjectControl goldObjectControl = (GoldObjectControl) objectControl;
+                worldState.getGameState().getApplication().enqueue(() -> {
+                    goldObjectControl.setGold(goldObjectControl.getGold() + goldToSet);
+                });
+                gold = 0;
+                return;
             }
 
             // No merging, just add loose gold
@@ -911,9 +930,10 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
 
     public boolean findWork() {
 
-        // See if we have some available work
+        // Workers are matched with the tasks in batches, the task comes on the next task phase
         if (isWorker()) {
-            return (worldState.getTaskManager().assignTask(this, false));
+            worldState.getTaskManager().requestTask(this);
+            return false;
         }
 
         // See that is there a prefered job for us
@@ -935,6 +955,15 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
         return false;
     }
 
+    /**
+     * Is the worker waiting for a task from the batched task assignment
+     *
+     * @return true if a task has been requested
+     */
+    public boolean isTaskRequested() {
+        return isWorker() && worldState.getTaskManager().isTaskRequested(this);
+    }
+
     private static Creature.JobPreference chooseOnWeight(List<Creature.JobPreference> items) {
         double completeWeight = 0.0;
         for (Creature.JobPreference item : items) {
@@ -1263,8 +1292,7 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
             if (currentPoint != null) {
                 TileData tile = worldState.getMapData().getTile(currentPoint);
                 if (tile != null) {
-                    visibilityList.addAll(tile.getCreatures());
-                    addVisibleCreatures(currentPoint, (int) creature.getAttributes().getDistanceCanHear());
+                    worldState.getCreaturePerception().getCreatures(tile, (int) creature.getAttributes().getDistanceCanHear(), visibilityList);
                 }
             }
             visibilityList.remove(this);
@@ -1273,21 +1301,6 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
         return visibilityList;
     }
 
-    private void addVisibleCreatures(Point p, int range) {
-        TileData tile = worldState.getMapData().getTile(p);
-        if (tile == null || tile.getTerrain().getFlags().contains(Terrain.TerrainFlag.SOLID)
-                || range-- < 0) {
-            return;
-        }
-
-        visibilityList.addAll(tile.getCreatures());
-
-        addVisibleCreatures(new Point(p.x + 1, p.y), range);
-        addVisibleCreatures(new Point(p.x - 1, p.y), range);
-        addVisibleCreatures(new Point(p.x, p.y + 1), range);
-        addVisibleCreatures(new Point(p.x, p.y - 1), range);
-    }
-
     /**
      * Get creature facing direction in map directions. FIXME: I don't really
      * like this enum to be used here, wrap it
@@ -1342,50 +1355,60 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
     }
 
     private int getFellowFighters() {
-        if (fellowFighters == null) {
-            fellowFighters = 0;
-            for (CreatureControl c : getVisibleCreatures()) {
-                if (isAlly(c) && !c.isIncapacitated() && !c.equals(this) && c.getCreature().getFightStyle() != Creature.FightStyle.NON_FIGHTER) {
-                    fellowFighters++;
-                }
-            }
+        TileData tile = getCreatureTile();
+        if (tile == null) {
+            return 0;
+        }
+        int fellowFighters = worldState.getThreatMap().getAllyFighters(worldState.getGameState().getPlayer(ownerId), tile, ThreatMap.getRange(this));
+        if (!isIncapacitated() && creature.getFightStyle() != Creature.FightStyle.NON_FIGHTER) {
+            fellowFighters--;
         }
-        return fellowFighters;
+        return Math.max(0, fellowFighters);
     }
 
     /**
-     * Gets the total threat caused by the enemies visible
+     * Gets the total threat caused by the enemies within our senses
      *
      * @return total enemy threat
      */
     private int getEnemyThreat() {
-        if (enemyThreat == null) {
-            enemyThreat = 0;
-            for (CreatureControl c : getVisibleCreatures()) {
-                if (isEnemy(c) && !c.isIncapacitated()) {
-                    enemyThreat += c.threat;
-                }
-            }
+        TileData tile = getCreatureTile();
+        if (tile == null) {
+            return 0;
         }
-        return enemyThreat;
+        return worldState.getThreatMap().getEnemyThreat(worldState.getGameState().getPlayer(ownerId), tile, ThreatMap.getRange(this));
     }
 
     /**
-     * Gets the total threat caused by us. Meaning the band of brothers visible
-     * to us
+     * Gets the total threat caused by us. Meaning the band of brothers within
+     * our senses
      *
      * @return total threat caused by us
      */
     private int getOurThreat() {
-        if (ourThreat == null) {
-            ourThreat = 0;
-            for (CreatureControl c : getVisibleCreatures()) {
-                if (isAlly(c) && !c.isIncapacitated()) {
-                    ourThreat += c.threat;
-                }
-            }
+        TileData tile = getCreatureTile();
+        if (tile == null) {
+            return 0;
+        }
+        int ourThreat = worldState.getThreatMap().getAllyThreat(worldState.getGameState().getPlayer(ownerId), tile, ThreatMap.getRange(this));
+        if (!isIncapacitated()) {
+            ourThreat -= threat;
         }
-        return ourThreat;
+        return Math.max(0, ourThreat);
+    }
+
+    /**
+     * Get the threat this creature causes
+     *
+     * @return the threat
+     */
+    public int getThreat() {
+        return threat;
+    }
+
+    private TileData getCreatureTile() {
+        Point p = getCreatureCoordinates();
+        return (p != null ? worldState.getMapData().getTile(p) : null);
     }
 
     public CreatureControl getAttackTarget() {
@@ -1394,18 +1417,13 @@ public abstract class CreatureControl extends AbstractCreatureSteeringControl im
 
             // Pick a new target
             // TODO: is there any preference? Now just take the nearest
-            CreatureControl nearestEnemy = null;
-            float nearestDistance = Float.MAX_VALUE;
-            for (CreatureControl c : getVisibleCreatures()) {
-                if (isEnemy(c) && (!c.isIncapacitated() || c.getStateMachine().getCurrentState() == CreatureState.FLEE)) {
-                    float distance = getDistanceToCreature(c);
-                    if (distance < nearestDistance) {
-                        nearestDistance = distance;
-                        nearestEnemy = c;
-                    }
-                }
+            attackTarget = null;
+            if (!getVisibleCreatures().isEmpty()) {
+
+                // The senses reach the tiles, allow for the positions within them
+                float range = creature.getAttributes().getDistanceCanHear() + 2 * MapLoader.TILE_WIDTH;
+                attackTarget = worldState.getThingLoader().getCreatureIndex().getNearest(getPosition().x, getPosition().y, range, attackTargetFilter);
             }
-            attackTarget = nearestEnemy;
         }
         return attackTarget;
     }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.creature;
+
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import toniarts.openkeeper.tools.convert.map.Terrain;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.listener.TileChangeListener;
+
+/**
+ * Answers what the creatures can sense around them. The senses travel
+ * orthogonally through the non-solid tiles. The tiles within the range of
+ * each tile are calculated once and kept until the terrain around them
+ * changes.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class CreaturePerception implements TileChangeListener {
+
+    private static final int[] ORTHOGONAL_X = {0, 1, 0, -1}; // North, East, South, West
+    private static final int[] ORTHOGONAL_Y = {-1, 0, 1, 0};
+
+    private final MapData mapData;
+    private final int width;
+    private final int height;
+    private final Map<Integer, AtomicReferenceArray<int[]>> stencils = new ConcurrentHashMap<>();
+    private final AtomicInteger modCount = new AtomicInteger();
+
+    // Search buffers
+    private final int[] visited;
+    private final int[] distances;
+    private final IntArray queue = new IntArray();
+    private int generation = 0;
+
+    public CreaturePerception(MapData mapData) {
+        this.mapData = mapData;
+        this.width = mapData.getWidth();
+        this.height = mapData.getHeight();
+        visited = new int[width * height];
+        distances = new int[width * height];
+    }
+
+    /**
+     * Adds the creatures within the range to the result
+     *
+     * @param origin the tile we are sensing from
+     * @param range the range, in tiles
+     * @param result the creatures are added here
+     */
+    public void getCreatures(TileData origin, int range, Collection<CreatureControl> result) {
+        for (int index : getTiles(origin.getIndex(), Math.max(0, range))) {
+            result.addAll(mapData.getTile(index).getCreatures());
+        }
+    }
+
+    /**
+     * Get the tiles within the range
+     *
+     * @param origin the tile index we are sensing from
+     * @param range the range, in tiles
+     * @return the tile indices, including the origin. Do not modify
+     */
+    public int[] getTiles(int origin, int range) {
+        AtomicReferenceArray<int[]> rangeStencils = stencils.computeIfAbsent(range, (r) -> new AtomicReferenceArray<>(width * height));
+        int[] stencil = rangeStencils.get(origin);
+        if (stencil == null) {
+            int count = modCount.get();
+            stencil = calculateTiles(origin, range);
+            rangeStencils.set(origin, stencil);
+
+            // If the terrain changed meanwhile, the invalidation might have run before we stored
+            if (modCount.get() != count) {
+                rangeStencils.compareAndSet(origin, stencil, null);
+            }
+        }
+        return stencil;
+    }
+
+    @Override
+    public void onTileChange(int x, int y) {
+        modCount.incrementAndGet();
+
+        // Only the tiles within the range can have seen the tile
+        for (Map.Entry<Integer, AtomicReferenceArray<int[]>> entry : stencils.entrySet()) {
+            int range = entry.getKey();
+            AtomicReferenceArray<int[]> rangeStencils = entry.getValue();
+            for (int dy = -range; dy <= range; dy++) {
+                int ty = y + dy;
+                if (ty < 0 || ty >= height) {
+                    continue;
+                }
+                int reach = range - Math.abs(dy);
+                for (int tx = Math.max(0, x - reach); tx <= Math.min(width - 1, x + reach); tx++) {
+                    rangeStencils.set(ty * width + tx, null);
+                }
+            }
+        }
+    }
+
+    private synchronized int[] calculateTiles(int origin, int range) {
+        nextGeneration();
+        queue.clear();
+        queue.add(origin);
+        visited[origin] = generation;
+        distances[origin] = 0;
+
+        // Breadth first, the solid tiles stop the senses
+        for (int i = 0; i < queue.size; i++) {
+            int node = queue.get(i);
+            int distance = distances[node];
+            if (distance == range || isSolid(node)) {
+                continue;
+            }
+            int x = node % width;
+            int y = node / width;
+            for (int j = 0; j < ORTHOGONAL_X.length; j++) {
+                int nx = x + ORTHOGONAL_X[j];
+                int ny = y + ORTHOGONAL_Y[j];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                if (visited[neighbour] != generation && !isSolid(neighbour)) {
+                    visited[neighbour] = generation;
+                    distances[neighbour] = distance + 1;
+                    queue.add(neighbour);
+                }
+            }
+        }
+
+        return queue.toArray();
+    }
+
+    private boolean isSolid(int index) {
+        return mapData.getTile(index).getTerrain().getFlags().contains(Terrain.TerrainFlag.SOLID);
+    }
+
+    private void nextGeneration() {
+
+        // Wrap around, the marks need to be reset then
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            generation = 1;
+            Arrays.fill(visited, 0);
+        }
+    }
+
+}
@@ -254,6 +254,11 @@ public class Party implements PathFindable {
         return cost;
     }
 
+    @Override
+    public boolean hasDefaultCost() {
+        return false;
+    }
+
     @Override
     public boolean canMoveDiagonally() {
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.creature;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.jme3.app.Application;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import toniarts.openkeeper.game.data.Keeper;
+import toniarts.openkeeper.game.logic.IGameLogicUpdateable;
+import toniarts.openkeeper.tools.convert.map.Creature;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.ThingLoader;
+import toniarts.openkeeper.world.TileData;
+
+/**
+ * Influence map of the creature threat. Once per game tick every able
+ * creature spreads its threat, per player, over the tiles around it. The
+ * creatures hear at different distances, so there is a set of layers for
+ * every hearing range the creatures on the map have. A creature within the
+ * range of a tile is also heard from the tile with the same range, so the
+ * threat a creature senses around it is just a sum over the players on a
+ * single tile of its own range.<br>
+ * Updated and meant to be read in the game logic thread.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class ThreatMap implements IGameLogicUpdateable {
+
+    private final MapData mapData;
+    private final ThingLoader thingLoader;
+    private final CreaturePerception creaturePerception;
+    private final Map<Integer, Map<Short, Layer>> layers = new ConcurrentHashMap<>(); // By the hearing range
+    private final IntArray touchedTiles = new IntArray();
+    private final boolean[] touched;
+    private final List<CreatureControl> sources = new ArrayList<>();
+    private final IntArray ranges = new IntArray();
+
+    public ThreatMap(MapData mapData, ThingLoader thingLoader, CreaturePerception creaturePerception) {
+        this.mapData = mapData;
+        this.thingLoader = thingLoader;
+        this.creaturePerception = creaturePerception;
+        this.touched = new boolean[mapData.getWidth() * mapData.getHeight()];
+    }
+
+    @Override
+    public void processTick(float tpf, Application app) {
+
+        // Clear only the tiles affected last time
+        for (int i = 0; i < touchedTiles.size; i++) {
+            int index = touchedTiles.get(i);
+            touched[index] = false;
+            for (Map<Short, Layer> rangeLayers : layers.values()) {
+                for (Layer layer : rangeLayers.values()) {
+                    layer.threat[index] = 0;
+                    layer.fighters[index] = 0;
+                }
+            }
+        }
+        touchedTiles.clear();
+
+        // The ranges we need, the ones the creatures hear at
+        sources.clear();
+        ranges.clear();
+        for (CreatureControl creature : thingLoader.getCreatures()) {
+            int range = getRange(creature);
+            if (!ranges.contains(range)) {
+                ranges.add(range);
+            }
+            if (!creature.isIncapacitated()) {
+                sources.add(creature);
+            }
+        }
+
+        for (CreatureControl creature : sources) {
+            Point p = creature.getCreatureCoordinates();
+            TileData tile = (p != null ? mapData.getTile(p) : null);
+            if (tile == null) {
+                continue;
+            }
+
+            int threat = creature.getThreat();
+            int fighter = (creature.getCreature().getFightStyle() != Creature.FightStyle.NON_FIGHTER ? 1 : 0);
+            for (int i = 0; i < ranges.size; i++) {
+                int range = ranges.get(i);
+                Layer layer = getLayer(range, creature.getOwnerId());
+                for (int index : creaturePerception.getTiles(tile.getIndex(), range)) {
+                    layer.threat[index] += threat;
+                    layer.fighters[index] += fighter;
+                    if (!touched[index]) {
+                        touched[index] = true;
+                        touchedTiles.add(index);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the hearing range of the creature, the range it senses the threat
+     * at
+     *
+     * @param creature the creature
+     * @return the range in tiles
+     */
+    public static int getRange(CreatureControl creature) {
+        return Math.max(0, (int) creature.getCreature().getAttributes().getDistanceCanHear());
+    }
+
+    /**
+     * Get the threat the creatures of a player cause on a tile
+     *
+     * @param playerId the player
+     * @param tile the tile
+     * @param range the hearing range
+     * @return the threat
+     */
+    public int getThreat(short playerId, TileData tile, int range) {
+        Layer layer = getLayers(range).get(playerId);
+        return (layer != null ? layer.threat[tile.getIndex()] : 0);
+    }
+
+    /**
+     * Get the threat caused by the enemies of the player on a tile
+     *
+     * @param keeper the player
+     * @param tile the tile
+     * @param range the hearing range
+     * @return the enemy threat
+     */
+    public int getEnemyThreat(Keeper keeper, TileData tile, int range) {
+        int threat = 0;
+        for (Map.Entry<Short, Layer> entry : getLayers(range).entrySet()) {
+            if (keeper.isEnemy(entry.getKey())) {
+                threat += entry.getValue().threat[tile.getIndex()];
+            }
+        }
+        return threat;
+    }
+
+    /**
+     * Get the threat caused by the player and its allies on a tile
+     *
+     * @param keeper the player
+     * @param tile the tile
+     * @param range the hearing range
+     * @return the allied threat
+     */
+    public int getAllyThreat(Keeper keeper, TileData tile, int range) {
+        int threat = 0;
+        for (Map.Entry<Short, Layer> entry : getLayers(range).entrySet()) {
+            if (keeper.isAlly(entry.getKey())) {
+                threat += entry.getValue().threat[tile.getIndex()];
+            }
+        }
+        return threat;
+    }
+
+    /**
+     * Get the number of fighters of the player and its allies on a tile
+     *
+     * @param keeper the player
+     * @param tile the tile
+     * @param range the hearing range
+     * @return the number of allied fighters
+     */
+    public int getAllyFighters(Keeper keeper, TileData tile, int range) {
+        int fighters = 0;
+        for (Map.Entry<Short, Layer> entry : getLayers(range).entrySet()) {
+            if (keeper.isAlly(entry.getKey())) {
+                fighters += entry.getValue().fighters[tile.getIndex()];
+            }
+        }
+        return fighters;
+    }
+
+    private Map<Short, Layer> getLayers(int range) {
+        Map<Short, Layer> rangeLayers = layers.get(range);
+        return (rangeLayers != null ? rangeLayers : Collections.emptyMap());
+    }
+
+    private Layer getLayer(int range, short playerId) {
+        return layers.computeIfAbsent(range, (r) -> new ConcurrentHashMap<>())
+                .computeIfAbsent(playerId, (id) -> new Layer(touched.length));
+    }
+
+    /**
+     * The influence of one player, for one hearing range
+     */
+    private static class Layer {
+
+        private final int[] threat;
+        private final int[] fighters;
+
+        public Layer(int size) {
+            threat = new int[size];
+            fighters = new int[size];
+        }
+    }
+
+}
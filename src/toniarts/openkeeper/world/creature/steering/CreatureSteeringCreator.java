@@ -48,15 +48,21 @@ public class CreatureSteeringCreator {
 
     public static SteeringBehavior<Vector2> navigateToPoint(final WorldState worldState, final PathFindable pathFindable, final CreatureControl creature, final Point p, final Point faceTarget) {
         GraphPath<TileData> outPath = worldState.findPath(WorldUtils.vectorToPoint(creature.getSpatial().getWorldTranslation()), p, pathFindable);
-        return navigateToPoint(outPath, faceTarget, creature, p);
+        return navigateToPoint(worldState, pathFindable, outPath, faceTarget, creature, p);
     }
 
-    public static SteeringBehavior<Vector2> navigateToPoint(GraphPath<TileData> outPath, final Point faceTarget, final CreatureControl creature, final Point p) {
-        if ((outPath != null && outPath.getCount() > 1) || faceTarget != null) {
+    public static SteeringBehavior<Vector2> navigateToPoint(final WorldState worldState, final PathFindable pathFindable, GraphPath<TileData> outPath, final Point faceTarget, final CreatureControl creature, final Point p) {
+
+        // Smooth first, the hierarchical paths are then refined only where needed
+        Array<Vector2> waypoints = null;
+        if (outPath != null) {
+            waypoints = worldState.getPathFindingService().smoothPath(outPath, pathFindable);
+        }
+        if ((waypoints != null && waypoints.size > 1) || faceTarget != null) {
 
             PrioritySteering<Vector2> prioritySteering = new PrioritySteering(creature);
 
-            if (outPath != null && outPath.getCount() > 1) {
+            if (waypoints != null && waypoints.size > 1) {
                 // Add regular avoidance
 //                CollisionAvoidance<Vector2> ca = new CollisionAvoidance<>(creature, new ProximityBase<Vector2>(creature, null) {
 //
@@ -83,7 +89,7 @@ public class CreatureSteeringCreator {
 
                 // Navigate
                 FollowPath<Vector2, LinePath.LinePathParam> followPath = new FollowPath(creature,
-                        new LinePath<>(pathToArray(outPath), true), 2);
+                        new LinePath<>(waypoints, true), 2);
                 followPath.setDecelerationRadius(0.3f);
                 followPath.setArrivalTolerance(0.1f);
                 prioritySteering.add(followPath);
@@ -106,12 +112,4 @@ public class CreatureSteeringCreator {
 
         return null;
     }
-
-    private static Array<Vector2> pathToArray(GraphPath<TileData> outPath) {
-        Array<Vector2> path = new Array<>(outPath.getCount());
-        for (TileData tile : outPath) {
-            path.add(WorldUtils.pointToVector2(tile.getLocation()));
-        }
-        return path;
-    }
 }
@@ -231,6 +231,7 @@ public class DoorControl extends HighlightControl implements IInteractiveControl
             ((Node) getSpatial()).detachChild(lockSpatial);
             lockSpatial = null;
         }
+        worldState.notifyPassabilityChange(tile.getLocation());
     }
 
     protected void lockDoor() {
@@ -241,6 +242,7 @@ public class DoorControl extends HighlightControl implements IInteractiveControl
             ((Node) getSpatial()).attachChild(lockSpatial);
         }
         closeDoor();
+        worldState.notifyPassabilityChange(tile.getLocation());
     }
 
     private void openDoor() {
@@ -318,7 +320,7 @@ public class DoorControl extends HighlightControl implements IInteractiveControl
     }
 
     public boolean isPassable(short ownerId) {
-        if (state == DoorState.BLUEPRINT || state == DoorState.DESTROYED) {
+        if (isPassableByAll()) {
             return true;
         }
 
@@ -330,4 +332,13 @@ public class DoorControl extends HighlightControl implements IInteractiveControl
         return ownerId == getOwnerId();
     }
 
+    /**
+     * Is the door passable by everyone, i.e. not yet built or destroyed
+     *
+     * @return {@code true} if anyone can pass
+     */
+    public boolean isPassableByAll() {
+        return state == DoorState.BLUEPRINT || state == DoorState.DESTROYED;
+    }
+
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.utils.Array;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import toniarts.openkeeper.world.TileData;
+
+/**
+ * Path found by the {@link MapHierarchicalPathFinder}. Holds the abstract
+ * waypoints and refines them to tiles only when the tiles are actually
+ * requested. So the long paths that get abandoned early, or are just checked
+ * for existence, never pay for the full refinement.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class HierarchicalPath implements GraphPath<TileData> {
+
+    private final MapHierarchicalPathFinder pathFinder;
+    private final MovementProfile movementProfile;
+    private final int[] waypoints;
+    private final Array<TileData> nodes;
+    private int nextWaypoint = 1;
+
+    protected HierarchicalPath(MapHierarchicalPathFinder pathFinder, MovementProfile movementProfile, int[] waypoints) {
+        this.pathFinder = pathFinder;
+        this.movementProfile = movementProfile;
+        this.waypoints = waypoints;
+        nodes = new Array<>(waypoints.length * 4);
+        nodes.add(pathFinder.getMapData().getTile(waypoints[0]));
+    }
+
+    /**
+     * Is the whole path refined to tiles
+     *
+     * @return {@code true} if all the waypoints are refined
+     */
+    public boolean isRefined() {
+        return nextWaypoint >= waypoints.length;
+    }
+
+    /**
+     * Refines the next segment of the path. If the segment is no longer
+     * passable, the rest of the path is searched again
+     *
+     * @return {@code false} if there was nothing to refine or the path is
+     * broken
+     */
+    public boolean refineNext() {
+        if (isRefined()) {
+            return false;
+        }
+
+        int from = waypoints[nextWaypoint - 1];
+        int to = waypoints[nextWaypoint];
+        if (pathFinder.refine(from, to, movementProfile, nodes)) {
+            nextWaypoint++;
+            return true;
+        }
+
+        // The map has changed, search the rest of the path again
+        nextWaypoint = waypoints.length;
+        TileData end = pathFinder.getMapData().getTile(waypoints[waypoints.length - 1]);
+        GraphPath<TileData> path = pathFinder.searchNodePath(nodes.peek(), end, movementProfile);
+        if (path != null) {
+            for (int i = 1; i < path.getCount(); i++) {
+                nodes.add(path.get(i));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Refines a single segment of the path to the given array, without
+     * touching the refining state of this path
+     *
+     * @param segment the segment, 1 being the first one from the start
+     * @param nodes the tiles of the segment are added here, excluding the
+     * start tile
+     * @return {@code false} if the segment can't be travelled anymore
+     */
+    boolean refineSegment(int segment, Array<TileData> nodes) {
+        return pathFinder.refine(waypoints[segment - 1], waypoints[segment], movementProfile, nodes);
+    }
+
+    /**
+     * Get the abstract waypoints, the start and the end included
+     *
+     * @return the tile indices of the waypoints. Do not modify
+     */
+    int[] getWaypoints() {
+        return waypoints;
+    }
+
+    /**
+     * Get a new unrefined copy of this path, the waypoints are shared
+     *
+     * @return copy of the path
+     */
+    HierarchicalPath copy() {
+        return new HierarchicalPath(pathFinder, movementProfile, waypoints);
+    }
+
+    private void refineAll() {
+        while (refineNext()) {
+        }
+    }
+
+    private void refineTo(int count) {
+        while (nodes.size < count && refineNext()) {
+        }
+    }
+
+    @Override
+    public int getCount() {
+        refineAll();
+        return nodes.size;
+    }
+
+    @Override
+    public TileData get(int index) {
+        refineTo(index + 1);
+        return nodes.get(index);
+    }
+
+    @Override
+    public void add(TileData node) {
+        refineAll();
+        nodes.add(node);
+    }
+
+    @Override
+    public void clear() {
+        nextWaypoint = waypoints.length;
+        nodes.clear();
+    }
+
+    @Override
+    public void reverse() {
+        refineAll();
+        nodes.reverse();
+    }
+
+    @Override
+    public Iterator<TileData> iterator() {
+        return new Iterator<TileData>() {
+
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                refineTo(index + 1);
+                return index < nodes.size;
+            }
+
+            @Override
+            public TileData next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return nodes.get(index++);
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+
+/**
+ * Abstract graph of the map for one movement profile. The map is divided into
+ * square clusters, and the tiles where the clusters can be entered from each
+ * other are the nodes (portals) of this graph. The portals of the same cluster
+ * are connected with the travel costs inside the cluster.<br>
+ * The clusters are rebuilt lazily when the tiles in them change.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class MapClusterGraph {
+
+    /**
+     * Entrances this long or longer get a portal at both ends
+     */
+    private static final int LONG_ENTRANCE = 6;
+
+    private final MapData mapData;
+    private final MapCostGrid costGrid;
+    private final MovementProfile movementProfile;
+    private final int clusterSize;
+    private final int clustersX;
+    private final int clustersY;
+    private final Cluster[] clusters;
+    private final Portal[] portals;
+    private final boolean[] dirtyClusters;
+    private boolean dirty = true;
+
+    public MapClusterGraph(WorldState worldState, MapCostGrid costGrid, MovementProfile movementProfile, int clusterSize) {
+        this.mapData = worldState.getMapData();
+        this.costGrid = costGrid;
+        this.movementProfile = movementProfile;
+        this.clusterSize = clusterSize;
+        clustersX = (int) Math.ceil(mapData.getWidth() / (float) clusterSize);
+        clustersY = (int) Math.ceil(mapData.getHeight() / (float) clusterSize);
+        clusters = new Cluster[clustersX * clustersY];
+        for (int y = 0; y < clustersY; y++) {
+            for (int x = 0; x < clustersX; x++) {
+                clusters[y * clustersX + x] = new Cluster(x, y);
+            }
+        }
+        portals = new Portal[mapData.getWidth() * mapData.getHeight()];
+        dirtyClusters = new boolean[clusters.length];
+        Arrays.fill(dirtyClusters, true);
+    }
+
+    public MovementProfile getMovementProfile() {
+        return movementProfile;
+    }
+
+    /**
+     * Are there changes waiting for the {@link #update(MapClusterSearch)}
+     *
+     * @return {@code true} if the graph needs updating
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Mark the tile changed. The clusters the tile may affect are rebuilt on
+     * the next {@link #update(MapClusterSearch)}
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    public void markDirty(int x, int y) {
+
+        // The tile affects the diagonal moves of the surrounding tiles as well
+        for (int cy = Math.max(0, (y - 1) / clusterSize); cy <= Math.min(clustersY - 1, (y + 1) / clusterSize); cy++) {
+            for (int cx = Math.max(0, (x - 1) / clusterSize); cx <= Math.min(clustersX - 1, (x + 1) / clusterSize); cx++) {
+                dirtyClusters[cy * clustersX + cx] = true;
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the changed clusters
+     *
+     * @param search the search used for calculating the costs inside the
+     * clusters
+     */
+    public void update(MapClusterSearch search) {
+        if (!dirty) {
+            return;
+        }
+
+        // The entrances are shared with the neighbouring clusters, so they need to be rebuilt as well
+        List<Cluster> rebuild = new ArrayList<>();
+        for (Cluster cluster : clusters) {
+            if (isDirtyOrNextToDirty(cluster)) {
+                rebuild.add(cluster);
+            }
+        }
+        for (Cluster cluster : rebuild) {
+            for (Portal portal : cluster.portals) {
+                portals[portal.index] = null;
+            }
+            cluster.portals.clear();
+        }
+        for (Cluster cluster : rebuild) {
+            createPortals(cluster);
+        }
+        for (Cluster cluster : rebuild) {
+            connectPortals(cluster, search);
+        }
+
+        Arrays.fill(dirtyClusters, false);
+        dirty = false;
+    }
+
+    private boolean isDirtyOrNextToDirty(Cluster cluster) {
+        for (int y = Math.max(0, cluster.y - 1); y <= Math.min(clustersY - 1, cluster.y + 1); y++) {
+            for (int x = Math.max(0, cluster.x - 1); x <= Math.min(clustersX - 1, cluster.x + 1); x++) {
+                if ((x == cluster.x || y == cluster.y) && dirtyClusters[y * clustersX + x]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void createPortals(Cluster cluster) {
+        int[] bounds = cluster.bounds;
+        int endX = bounds[0] + bounds[2] - 1;
+        int endY = bounds[1] + bounds[3] - 1;
+        if (cluster.y > 0) { // North
+            createPortals(cluster, bounds[0], bounds[1], 1, 0, 0, -1, bounds[2]);
+        }
+        if (cluster.x < clustersX - 1) { // East
+            createPortals(cluster, endX, bounds[1], 0, 1, 1, 0, bounds[3]);
+        }
+        if (cluster.y < clustersY - 1) { // South
+            createPortals(cluster, bounds[0], endY, 1, 0, 0, 1, bounds[2]);
+        }
+        if (cluster.x > 0) { // West
+            createPortals(cluster, bounds[0], bounds[1], 0, 1, -1, 0, bounds[3]);
+        }
+    }
+
+    /**
+     * Scans one side of the cluster for entrances and creates the portals. The
+     * side is always scanned in ascending coordinate order so that the
+     * neighbouring cluster ends up with the matching portals
+     */
+    private void createPortals(Cluster cluster, int x, int y, int stepX, int stepY, int outX, int outY, int length) {
+        int entranceStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean open = (i < length && isOpen(x + stepX * i, y + stepY * i, outX, outY));
+            if (open && entranceStart < 0) {
+                entranceStart = i;
+            } else if (!open && entranceStart >= 0) {
+                int entranceLength = i - entranceStart;
+                if (entranceLength >= LONG_ENTRANCE) {
+                    addPortal(cluster, x + stepX * entranceStart, y + stepY * entranceStart, outX, outY);
+                    addPortal(cluster, x + stepX * (i - 1), y + stepY * (i - 1), outX, outY);
+                } else {
+                    int middle = entranceStart + (entranceLength - 1) / 2;
+                    addPortal(cluster, x + stepX * middle, y + stepY * middle, outX, outY);
+                }
+                entranceStart = -1;
+            }
+        }
+    }
+
+    private boolean isOpen(int x, int y, int outX, int outY) {
+        TileData tile = mapData.getTile(x, y);
+        TileData neighbour = mapData.getTile(x + outX, y + outY);
+        if (getCost(null, tile) < 0 || getCost(null, neighbour) < 0) {
+            return false;
+        }
+        return getCost(tile, neighbour) >= 0 || getCost(neighbour, tile) >= 0;
+    }
+
+    private void addPortal(Cluster cluster, int x, int y, int outX, int outY) {
+        TileData tile = mapData.getTile(x, y);
+        Portal portal = portals[tile.getIndex()];
+        if (portal == null) {
+            portal = new Portal(tile.getIndex());
+            portals[portal.index] = portal;
+            cluster.portals.add(portal);
+        }
+
+        // Transition to the neighbouring cluster
+        TileData neighbour = mapData.getTile(x + outX, y + outY);
+        float cost = getCost(tile, neighbour);
+        if (cost >= 0) {
+            portal.addEdge(neighbour.getIndex(), cost);
+        }
+    }
+
+    private void connectPortals(Cluster cluster, MapClusterSearch search) {
+        for (Portal portal : cluster.portals) {
+            search.calculateCosts(portal.index, cluster.bounds, movementProfile, false);
+            for (Portal other : cluster.portals) {
+                if (other != portal) {
+                    float cost = search.getCost(other.index);
+                    if (cost >= 0) {
+                        portal.addEdge(other.index, cost);
+                    }
+                }
+            }
+        }
+    }
+
+    private float getCost(TileData from, TileData to) {
+        if (to == null) {
+            return MapCostGrid.IMPASSABLE;
+        }
+        return costGrid.getCost(from != null ? from.getIndex() : -1, to.getIndex(), movementProfile);
+    }
+
+    /**
+     * Get the cluster the tile belongs to
+     *
+     * @param index the tile index
+     * @return the cluster bounds {x, y, width, height}
+     */
+    public int[] getCluster(int index) {
+        int x = index % mapData.getWidth();
+        int y = index / mapData.getWidth();
+        return clusters[(y / clusterSize) * clustersX + x / clusterSize].bounds;
+    }
+
+    /**
+     * Get the portals of the cluster the tile belongs to
+     *
+     * @param index the tile index
+     * @return the portals
+     */
+    public List<Portal> getPortals(int index) {
+        int x = index % mapData.getWidth();
+        int y = index / mapData.getWidth();
+        return clusters[(y / clusterSize) * clustersX + x / clusterSize].portals;
+    }
+
+    /**
+     * Get portal at tile
+     *
+     * @param index the tile index
+     * @return the portal, or {@code null} if the tile is not a portal
+     */
+    public Portal getPortal(int index) {
+        return portals[index];
+    }
+
+    /**
+     * Are the two tiles in the same cluster
+     *
+     * @param index the tile index
+     * @param otherIndex the other tile index
+     * @return {@code true} if the tiles are in the same cluster
+     */
+    public boolean isSameCluster(int index, int otherIndex) {
+        return getCluster(index) == getCluster(otherIndex);
+    }
+
+    private final class Cluster {
+
+        private final int x;
+        private final int y;
+        private final int[] bounds;
+        private final List<Portal> portals = new ArrayList<>();
+
+        public Cluster(int x, int y) {
+            this.x = x;
+            this.y = y;
+            int startX = x * clusterSize;
+            int startY = y * clusterSize;
+            bounds = new int[]{startX, startY,
+                Math.min(clusterSize, mapData.getWidth() - startX),
+                Math.min(clusterSize, mapData.getHeight() - startY)};
+        }
+    }
+
+    /**
+     * A node in the abstract graph
+     */
+    static final class Portal {
+
+        final int index;
+        final IntArray edges = new IntArray(8);
+        final FloatArray costs = new FloatArray(8);
+
+        public Portal(int index) {
+            this.index = index;
+        }
+
+        private void addEdge(int index, float cost) {
+            edges.add(index);
+            costs.add(cost);
+        }
+    }
+
+}
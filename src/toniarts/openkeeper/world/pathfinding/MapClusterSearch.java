@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Arrays;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+
+/**
+ * Searches inside a single cluster of the map. The search buffers are reused
+ * between the searches, so one instance can't be used from multiple threads
+ * simultaneously.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class MapClusterSearch {
+
+    private static final int[] ORTHOGONAL_X = {0, 1, 0, -1}; // North, East, South, West
+    private static final int[] ORTHOGONAL_Y = {-1, 0, 1, 0};
+
+    private final MapData mapData;
+    private final MapCostGrid costGrid;
+    private final int clusterSize;
+    private final float[] costs;
+    private final int[] parents;
+    private final int[] openStamps;
+    private final int[] closedStamps;
+    private final boolean[] valids = new boolean[4];
+    private final NodeHeap open = new NodeHeap();
+    private int searchId = 0;
+    private long expandedNodes = 0;
+
+    // Current search
+    private MovementProfile movementProfile;
+    private int startX;
+    private int startY;
+    private int endX;
+    private int endY;
+
+    public MapClusterSearch(WorldState worldState, MapCostGrid costGrid, int clusterSize) {
+        this.mapData = worldState.getMapData();
+        this.costGrid = costGrid;
+        this.clusterSize = clusterSize;
+        int size = clusterSize * clusterSize;
+        costs = new float[size];
+        parents = new int[size];
+        openStamps = new int[size];
+        closedStamps = new int[size];
+    }
+
+    /**
+     * Find a path between two tiles inside a cluster. The path may not leave
+     * the cluster
+     *
+     * @param startIndex the start tile index
+     * @param goalIndex the goal tile index
+     * @param cluster the cluster bounds {x, y, width, height}
+     * @param movementProfile the movement profile to find the path for
+     * @param path the tile indices of the path are appended here, excluding
+     * the start tile
+     * @return {@code true} if the path was found
+     */
+    public boolean findPath(int startIndex, int goalIndex, int[] cluster, MovementProfile movementProfile, IntArray path) {
+        initSearch(cluster, movementProfile);
+        int goalX = goalIndex % mapData.getWidth();
+        int goalY = goalIndex / mapData.getWidth();
+        if (!contains(goalX, goalY)) {
+            return false;
+        }
+
+        int start = toLocal(startIndex);
+        int goal = toLocal(goalIndex);
+        costs[start] = 0;
+        parents[start] = -1;
+        openStamps[start] = searchId;
+        open.add(start, getEstimate(start, goalX, goalY));
+        while (!open.isEmpty()) {
+            int current = open.pop();
+            if (closedStamps[current] == searchId) {
+                continue;
+            }
+            if (current == goal) {
+
+                // Collect the path, the nodes are collected from the goal so flip them
+                int count = path.size;
+                for (int node = goal; node != start; node = parents[node]) {
+                    path.add(toGlobal(node));
+                }
+                for (int i = count, j = path.size - 1; i < j; i++, j--) {
+                    path.swap(i, j);
+                }
+                return true;
+            }
+            closedStamps[current] = searchId;
+            expand(current, goalX, goalY);
+        }
+
+        return false;
+    }
+
+    /**
+     * Calculates the travel costs between the given tile and all the other
+     * tiles in the cluster
+     *
+     * @param index the tile index
+     * @param cluster the cluster bounds {x, y, width, height}
+     * @param movementProfile the movement profile to calculate the costs for
+     * @param reverse {@code false} to calculate costs from the given tile,
+     * {@code true} to calculate costs to the given tile
+     * @see #getCost(int)
+     */
+    public void calculateCosts(int index, int[] cluster, MovementProfile movementProfile, boolean reverse) {
+        initSearch(cluster, movementProfile);
+
+        int source = toLocal(index);
+        costs[source] = 0;
+        openStamps[source] = searchId;
+        open.add(source, 0);
+        while (!open.isEmpty()) {
+            int current = open.pop();
+            if (closedStamps[current] == searchId) {
+                continue;
+            }
+            closedStamps[current] = searchId;
+            if (reverse) {
+                expandReverse(current);
+            } else {
+                expand(current, -1, -1);
+            }
+        }
+    }
+
+    /**
+     * Get the number of nodes expanded by this search so far, all the searches
+     * and cost calculations included
+     *
+     * @return the expanded node count
+     */
+    public long getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * Get the cost calculated by the last
+     * {@link #calculateCosts(int, int[], MovementProfile, boolean)}
+     *
+     * @param index the tile index
+     * @return the cost, or negative value if the tile is not reachable
+     */
+    public float getCost(int index) {
+        int x = index % mapData.getWidth();
+        int y = index / mapData.getWidth();
+        if (!contains(x, y)) {
+            return -1;
+        }
+        int local = toLocal(index);
+        if (closedStamps[local] != searchId) {
+            return -1;
+        }
+        return costs[local];
+    }
+
+    private float getCost(TileData from, TileData to) {
+        if (to == null) {
+            return MapCostGrid.IMPASSABLE;
+        }
+        return costGrid.getCost(from != null ? from.getIndex() : -1, to.getIndex(), movementProfile);
+    }
+
+    private void initSearch(int[] cluster, MovementProfile movementProfile) {
+        this.movementProfile = movementProfile;
+        startX = cluster[0];
+        startY = cluster[1];
+        endX = cluster[0] + cluster[2];
+        endY = cluster[1] + cluster[3];
+        open.clear();
+
+        // Wrap around the search ID, the stamps need to be reset then
+        searchId++;
+        if (searchId == Integer.MAX_VALUE) {
+            searchId = 1;
+            Arrays.fill(openStamps, 0);
+            Arrays.fill(closedStamps, 0);
+        }
+    }
+
+    private void expand(int node, int goalX, int goalY) {
+        expandedNodes++;
+        int x = startX + node % clusterSize;
+        int y = startY + node / clusterSize;
+        TileData tile = mapData.getTile(x, y);
+        for (int i = 0; i < 4; i++) {
+            valids[i] = relax(node, tile, x + ORTHOGONAL_X[i], y + ORTHOGONAL_Y[i], goalX, goalY);
+        }
+        if (movementProfile.canMoveDiagonally()) {
+            for (int i = 0; i < 4; i++) {
+                int next = (i + 1) % 4;
+                if (valids[i] && valids[next]) {
+                    relax(node, tile, x + ORTHOGONAL_X[i] + ORTHOGONAL_X[next], y + ORTHOGONAL_Y[i] + ORTHOGONAL_Y[next], goalX, goalY);
+                }
+            }
+        }
+    }
+
+    private boolean relax(int node, TileData tile, int x, int y, int goalX, int goalY) {
+        TileData neighbour = mapData.getTile(x, y);
+        float cost = getCost(tile, neighbour);
+        if (cost < 0) {
+            return false;
+        }
+        if (contains(x, y)) {
+            update(node, (x - startX) + (y - startY) * clusterSize, costs[node] + cost, goalX, goalY);
+        }
+        return true;
+    }
+
+    private void expandReverse(int node) {
+        expandedNodes++;
+        int x = startX + node % clusterSize;
+        int y = startY + node / clusterSize;
+        TileData tile = mapData.getTile(x, y);
+        for (int i = 0; i < 4; i++) {
+            int fromX = x + ORTHOGONAL_X[i];
+            int fromY = y + ORTHOGONAL_Y[i];
+            if (contains(fromX, fromY)) {
+                float cost = getCost(mapData.getTile(fromX, fromY), tile);
+                if (cost >= 0) {
+                    update(node, (fromX - startX) + (fromY - startY) * clusterSize, costs[node] + cost, -1, -1);
+                }
+            }
+        }
+        if (movementProfile.canMoveDiagonally()) {
+
+            // The diagonal move requires both of the orthogonal moves to be possible from the origin
+            for (int i = 0; i < 4; i++) {
+                int next = (i + 1) % 4;
+                int fromX = x + ORTHOGONAL_X[i] + ORTHOGONAL_X[next];
+                int fromY = y + ORTHOGONAL_Y[i] + ORTHOGONAL_Y[next];
+                if (contains(fromX, fromY)) {
+                    TileData from = mapData.getTile(fromX, fromY);
+                    if (getCost(from, mapData.getTile(x + ORTHOGONAL_X[i], y + ORTHOGONAL_Y[i])) >= 0
+                            && getCost(from, mapData.getTile(x + ORTHOGONAL_X[next], y + ORTHOGONAL_Y[next])) >= 0) {
+                        float cost = getCost(from, tile);
+                        if (cost >= 0) {
+                            update(node, (fromX - startX) + (fromY - startY) * clusterSize, costs[node] + cost, -1, -1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void update(int parent, int node, float cost, int goalX, int goalY) {
+        if (closedStamps[node] == searchId || (openStamps[node] == searchId && costs[node] <= cost)) {
+            return;
+        }
+        costs[node] = cost;
+        parents[node] = parent;
+        openStamps[node] = searchId;
+        open.add(node, cost + (goalX < 0 ? 0 : getEstimate(node, goalX, goalY)));
+    }
+
+    private float getEstimate(int node, int goalX, int goalY) {
+        return estimate(startX + node % clusterSize, startY + node / clusterSize, goalX, goalY, movementProfile.canMoveDiagonally());
+    }
+
+    /**
+     * Admissible estimate of the cost between two tiles
+     *
+     * @param x start x
+     * @param y start y
+     * @param goalX goal x
+     * @param goalY goal y
+     * @param diagonal are diagonal moves allowed
+     * @return the estimated cost
+     */
+    static float estimate(int x, int y, int goalX, int goalY, boolean diagonal) {
+        int dx = Math.abs(goalX - x);
+        int dy = Math.abs(goalY - y);
+        return (diagonal ? Math.max(dx, dy) : dx + dy) * PathFindable.DEFAULT_COST;
+    }
+
+    private boolean contains(int x, int y) {
+        return x >= startX && y >= startY && x < endX && y < endY;
+    }
+
+    private int toLocal(int index) {
+        return (index % mapData.getWidth() - startX) + (index / mapData.getWidth() - startY) * clusterSize;
+    }
+
+    private int toGlobal(int node) {
+        return (startY + node / clusterSize) * mapData.getWidth() + startX + node % clusterSize;
+    }
+
+    /**
+     * Simple binary heap of nodes, the lowest key first. Stale entries are
+     * allowed and need to be filtered out by the user.
+     */
+    static final class NodeHeap {
+
+        private int[] nodes = new int[64];
+        private float[] keys = new float[64];
+        private int size = 0;
+
+        public void clear() {
+            size = 0;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void add(int node, float key) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+
+            // Sift up
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        public int pop() {
+            int result = nodes[0];
+            int node = nodes[--size];
+            float key = keys[size];
+
+            // Sift down
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = (i << 1) + 1;
+                int right = child + 1;
+                if (right < size && keys[right] < keys[child]) {
+                    child = right;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import toniarts.openkeeper.world.MapData;
+
+/**
+ * Connected components of the map per movement class and owner. Lets us
+ * reject the unreachable targets before searching, a failed search is the
+ * most expensive one as it exhausts the whole reachable area.<br>
+ * The components are formed by the orthogonally adjacent passable tiles. So
+ * a different component means certainly unreachable, while the same
+ * component is not a guarantee of a path (i.e. the prison walls).
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapConnectivity {
+
+    private static final int[] ORTHOGONAL_X = {0, 1, 0, -1}; // North, East, South, West
+    private static final int[] ORTHOGONAL_Y = {-1, 0, 1, 0};
+    private static final int IMPASSABLE = -1;
+    private static final int UNLABELED = -2;
+
+    private final MapCostGrid costGrid;
+    private final int width;
+    private final int height;
+    private final Map<MovementProfile, Components> components = new ConcurrentHashMap<>();
+
+    public MapConnectivity(MapData mapData, MapCostGrid costGrid) {
+        this.costGrid = costGrid;
+        this.width = mapData.getWidth();
+        this.height = mapData.getHeight();
+    }
+
+    /**
+     * Can the end tile possibly be reached from the start tile. If the start
+     * tile is impassable itself, we can't tell, and the answer is yes
+     *
+     * @param start the start tile index
+     * @param end the end tile index
+     * @param movementProfile the movement profile
+     * @return {@code false} if the end is certainly unreachable
+     */
+    public boolean isReachable(int start, int end, MovementProfile movementProfile) {
+        if (start == end) {
+            return true;
+        }
+        return getComponents(movementProfile).isReachable(start, end);
+    }
+
+    /**
+     * Updates the components after a tile change. Call after the costs have
+     * been updated
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    public void onTileChange(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        int index = y * width + x;
+        for (Components c : components.values()) {
+            c.onTileChange(index);
+        }
+    }
+
+    private Components getComponents(MovementProfile movementProfile) {
+
+        // The diagonal moves don't matter, they always require the orthogonal ones
+        MovementProfile key = movementProfile;
+        if (movementProfile.canMoveDiagonally()) {
+            key = new MovementProfile(movementProfile.getMovementClass(), movementProfile.getOwnerId(), false);
+        }
+        return components.computeIfAbsent(key, Components::new);
+    }
+
+    /**
+     * The component labels of one movement profile
+     */
+    private final class Components {
+
+        private final MovementProfile movementProfile;
+        private final int[] labels;
+        private final IntArray sizes = new IntArray();
+        private final IntArray stack = new IntArray();
+
+        public Components(MovementProfile movementProfile) {
+            this.movementProfile = movementProfile;
+            this.labels = new int[width * height];
+            labelAll();
+        }
+
+        public synchronized boolean isReachable(int start, int end) {
+            int startLabel = labels[start];
+            int endLabel = labels[end];
+            if (endLabel == IMPASSABLE) {
+                return false;
+            }
+            return startLabel == IMPASSABLE || startLabel == endLabel;
+        }
+
+        public synchronized void onTileChange(int index) {
+            boolean passable = isPassable(index);
+            int label = labels[index];
+            if (passable == (label != IMPASSABLE)) {
+                return;
+            }
+
+            if (passable) {
+
+                // Join the neighbouring components, the smaller ones are relabeled to the largest
+                int largest = IMPASSABLE;
+                for (int i = 0; i < 4; i++) {
+                    int neighbour = getNeighbour(index, i);
+                    if (neighbour >= 0 && labels[neighbour] != IMPASSABLE
+                            && (largest == IMPASSABLE || sizes.get(labels[neighbour]) > sizes.get(largest))) {
+                        largest = labels[neighbour];
+                    }
+                }
+                if (largest == IMPASSABLE) {
+                    largest = newLabel();
+                }
+                labels[index] = largest;
+                sizes.incr(largest, 1);
+                for (int i = 0; i < 4; i++) {
+                    int neighbour = getNeighbour(index, i);
+                    if (neighbour >= 0 && labels[neighbour] != IMPASSABLE && labels[neighbour] != largest) {
+                        int neighbourLabel = labels[neighbour];
+                        sizes.set(neighbourLabel, 0);
+                        sizes.incr(largest, fill(neighbour, neighbourLabel, largest));
+                    }
+                }
+            } else {
+
+                // The component may split
+                labels[index] = IMPASSABLE;
+                sizes.set(label, 0);
+                for (int i = 0; i < 4; i++) {
+                    int neighbour = getNeighbour(index, i);
+                    if (neighbour >= 0 && labels[neighbour] == label) {
+                        int newLabel = newLabel();
+                        sizes.set(newLabel, fill(neighbour, label, newLabel));
+                    }
+                }
+            }
+
+            // Don't let the dead labels pile up
+            if (sizes.size > labels.length) {
+                labelAll();
+            }
+        }
+
+        private void labelAll() {
+            sizes.clear();
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = (isPassable(i) ? UNLABELED : IMPASSABLE);
+            }
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == UNLABELED) {
+                    int label = newLabel();
+                    sizes.set(label, fill(i, UNLABELED, label));
+                }
+            }
+        }
+
+        private int newLabel() {
+            sizes.add(0);
+            return sizes.size - 1;
+        }
+
+        /**
+         * Flood fill the area of the old label with the new label
+         *
+         * @param start the start tile index
+         * @param oldLabel the label to replace
+         * @param newLabel the new label
+         * @return the number of tiles filled
+         */
+        private int fill(int start, int oldLabel, int newLabel) {
+            int count = 0;
+            stack.clear();
+            labels[start] = newLabel;
+            stack.add(start);
+            while (stack.size > 0) {
+                int node = stack.pop();
+                count++;
+                for (int i = 0; i < 4; i++) {
+                    int neighbour = getNeighbour(node, i);
+                    if (neighbour >= 0 && labels[neighbour] == oldLabel) {
+                        labels[neighbour] = newLabel;
+                        stack.add(neighbour);
+                    }
+                }
+            }
+            return count;
+        }
+
+        private boolean isPassable(int index) {
+            return costGrid.getCost(-1, index, movementProfile) >= 0;
+        }
+
+        private int getNeighbour(int index, int direction) {
+            int x = index % width + ORTHOGONAL_X[direction];
+            int y = index / width + ORTHOGONAL_Y[direction];
+            if (x < 0 || y < 0 || x >= width || y >= height) {
+                return -1;
+            }
+            return y * width + x;
+        }
+    }
+
+}
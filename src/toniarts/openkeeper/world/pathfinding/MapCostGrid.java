@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import java.awt.Point;
+import toniarts.openkeeper.tools.convert.map.Terrain;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+import toniarts.openkeeper.world.door.DoorControl;
+import toniarts.openkeeper.world.room.GenericRoom;
+import toniarts.openkeeper.world.room.RoomInstance;
+
+/**
+ * Precalculated costs of entering the map tiles, per movement class. The door
+ * access is kept separately per tile, so that the owner of the entity can be
+ * taken into account without separate grids per player.<br>
+ * The grid is kept up to date by updating the tiles as they change.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapCostGrid {
+
+    /**
+     * The tile can't be entered
+     */
+    public static final float IMPASSABLE = -1;
+    /**
+     * The accessibility depends on the tile we are coming from, see
+     * {@link GenericRoom#hasDirectionalAccess()}
+     */
+    private static final float DIRECTIONAL = -2;
+    private static final short DOOR_ACCESS_ALL = -1;
+    private static final short DOOR_ACCESS_NONE = -2;
+
+    private final WorldState worldState;
+    private final MapData mapData;
+    private final float[][] costs;
+    private final short[] doorAccess;
+
+    public MapCostGrid(WorldState worldState) {
+        this.worldState = worldState;
+        this.mapData = worldState.getMapData();
+        int size = mapData.getWidth() * mapData.getHeight();
+        costs = new float[MovementClass.values().length][size];
+        doorAccess = new short[size];
+    }
+
+    /**
+     * Calculates the costs for the whole map
+     */
+    public void updateAll() {
+        for (int y = 0; y < mapData.getHeight(); y++) {
+            for (int x = 0; x < mapData.getWidth(); x++) {
+                updateTile(x, y);
+            }
+        }
+    }
+
+    /**
+     * Recalculates the costs of a tile
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    public void updateTile(int x, int y) {
+        TileData tile = mapData.getTile(x, y);
+        if (tile == null) {
+            return;
+        }
+
+        int index = tile.getIndex();
+        for (MovementClass movementClass : MovementClass.values()) {
+            costs[movementClass.ordinal()][index] = calculateCost(tile, movementClass);
+        }
+
+        // Doors
+        DoorControl doorControl = worldState.getThingLoader().getDoor(tile.getLocation());
+        if (doorControl == null || doorControl.isPassableByAll()) {
+            doorAccess[index] = DOOR_ACCESS_ALL;
+        } else if (doorControl.isPassable(doorControl.getOwnerId())) {
+            doorAccess[index] = doorControl.getOwnerId();
+        } else {
+            doorAccess[index] = DOOR_ACCESS_NONE;
+        }
+    }
+
+    private float calculateCost(TileData tile, MovementClass movementClass) {
+        Terrain terrain = tile.getTerrain();
+        if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
+            return IMPASSABLE;
+        }
+        if (terrain.getFlags().contains(Terrain.TerrainFlag.ROOM)) {
+
+            // Get room obstacles
+            GenericRoom room = getRoom(tile.getLocation());
+            if (room == null) {
+                return PathFindable.DEFAULT_COST;
+            }
+            if (room.hasDirectionalAccess()) {
+                return DIRECTIONAL;
+            }
+            return room.isTileAccessible(null, tile.getLocation()) ? PathFindable.DEFAULT_COST : IMPASSABLE;
+        } else if (movementClass == MovementClass.FLYER) {
+            return PathFindable.DEFAULT_COST;
+        } else if (terrain.getFlags().contains(Terrain.TerrainFlag.LAVA) && movementClass == MovementClass.LAVA_WALKER) {
+            return PathFindable.DEFAULT_COST;
+        } else if (terrain.getFlags().contains(Terrain.TerrainFlag.WATER) && movementClass == MovementClass.WATER_WALKER) {
+            return PathFindable.WATER_COST;
+        }
+        return PathFindable.DEFAULT_COST;
+    }
+
+    private GenericRoom getRoom(Point p) {
+        RoomInstance roomInstance = worldState.getMapLoader().getRoomCoordinates().get(p);
+        if (roomInstance == null) {
+            return null;
+        }
+        return worldState.getMapLoader().getRoomActuals().get(roomInstance);
+    }
+
+    /**
+     * Get the cost of moving between two tiles
+     *
+     * @param from the tile we are moving from, may be {@code null}
+     * @param to the tile we are moving to
+     * @param pathFindable the entity
+     * @return the cost, or {@link #IMPASSABLE} if the move is not possible
+     */
+    public float getCost(TileData from, TileData to, PathFindable pathFindable) {
+        return getCost(from != null ? from.getIndex() : -1, to.getIndex(), pathFindable.getOwnerId(), MovementClass.valueOf(pathFindable));
+    }
+
+    /**
+     * Get the cost of moving between two tiles
+     *
+     * @param fromIndex the tile index we are moving from, or negative if not
+     * known
+     * @param toIndex the tile index we are moving to
+     * @param movementProfile the movement profile
+     * @return the cost, or {@link #IMPASSABLE} if the move is not possible
+     */
+    public float getCost(int fromIndex, int toIndex, MovementProfile movementProfile) {
+        return getCost(fromIndex, toIndex, movementProfile.getOwnerId(), movementProfile.getMovementClass());
+    }
+
+    /**
+     * Get the cost of entering a tile that can be entered from any direction
+     *
+     * @param index the tile index
+     * @param movementProfile the movement profile
+     * @return the cost, or {@link #IMPASSABLE} if the tile can't be entered
+     * or the access depends on the direction
+     */
+    public float getFreeCost(int index, MovementProfile movementProfile) {
+        short access = doorAccess[index];
+        if (access != DOOR_ACCESS_ALL && access != movementProfile.getOwnerId()) {
+            return IMPASSABLE;
+        }
+        float cost = costs[movementProfile.getMovementClass().ordinal()][index];
+        return (cost == DIRECTIONAL ? IMPASSABLE : cost);
+    }
+
+    private float getCost(int fromIndex, int toIndex, short ownerId, MovementClass movementClass) {
+        short access = doorAccess[toIndex];
+        if (access != DOOR_ACCESS_ALL && access != ownerId) {
+            return IMPASSABLE;
+        }
+        float cost = costs[movementClass.ordinal()][toIndex];
+        if (cost == DIRECTIONAL) {
+            return getDirectionalCost(fromIndex >= 0 ? mapData.getTile(fromIndex) : null, mapData.getTile(toIndex));
+        }
+        return cost;
+    }
+
+    private float getDirectionalCost(TileData from, TileData to) {
+        GenericRoom room = getRoom(to.getLocation());
+        if (room == null || room.isTileAccessible(from != null ? from.getLocation() : null, to.getLocation())) {
+            return PathFindable.DEFAULT_COST;
+        }
+        return IMPASSABLE;
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Arrays;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+
+/**
+ * Flow field (a Dijkstra map) towards a set of goal tiles for one movement
+ * profile. Holds the distance to the nearest goal and the next step from
+ * every tile, so any number of entities can follow it without searching.<br>
+ * On tile changes only the tiles whose route went through the changed tile
+ * are recalculated.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapFlowField {
+
+    /**
+     * Directions, first the orthogonal ones and then the diagonals
+     */
+    private static final int[] DIRECTION_X = {0, 1, 0, -1, 1, -1, 1, -1};
+    private static final int[] DIRECTION_Y = {-1, 0, 1, 0, -1, -1, 1, 1};
+    private static final int ORTHOGONAL_DIRECTIONS = 4;
+
+    private final MapData mapData;
+    private final MapCostGrid costGrid;
+    private final MovementProfile movementProfile;
+    private final int width;
+    private final int height;
+    private final int[] goals;
+    private final boolean[] goalTiles;
+    private final float[] distances;
+    private final int[] next;
+    private final int[] stamps;
+    private final IntArray affected = new IntArray();
+    private final MapClusterSearch.NodeHeap open = new MapClusterSearch.NodeHeap();
+    private int stamp = 0;
+
+    public MapFlowField(WorldState worldState, MapCostGrid costGrid, int[] goals, MovementProfile movementProfile) {
+        this.mapData = worldState.getMapData();
+        this.costGrid = costGrid;
+        this.movementProfile = movementProfile;
+        this.width = mapData.getWidth();
+        this.height = mapData.getHeight();
+        this.goals = goals;
+        int size = width * height;
+        goalTiles = new boolean[size];
+        for (int goal : goals) {
+            goalTiles[goal] = true;
+        }
+        distances = new float[size];
+        next = new int[size];
+        stamps = new int[size];
+        update();
+    }
+
+    /**
+     * Recalculates the whole field
+     */
+    public final synchronized void update() {
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        Arrays.fill(next, -1);
+        open.clear();
+        for (int goal : goals) {
+            distances[goal] = 0;
+            open.add(goal, 0);
+        }
+        search();
+    }
+
+    /**
+     * Repairs the field after a tile change. The tiles routed through the
+     * changed tile are cleared and refilled from their surroundings, and the
+     * surroundings get a chance to route through the changed tile.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    public synchronized void onTileChange(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        int changed = y * width + x;
+        nextStamp();
+        affected.clear();
+        mark(changed);
+
+        // Diagonal moves past the corner of the changed tile, made from the orthogonal neighbours
+        for (int i = 0; i < ORTHOGONAL_DIRECTIONS; i++) {
+            int nx = x + DIRECTION_X[i];
+            int ny = y + DIRECTION_Y[i];
+            if (!contains(nx, ny)) {
+                continue;
+            }
+            int neighbour = ny * width + nx;
+            int step = next[neighbour];
+            if (step >= 0) {
+                int sx = step % width;
+                int sy = step / width;
+                if (sx != nx && sy != ny && ((ny == y && sx == x) || (nx == x && sy == y))) {
+                    mark(neighbour);
+                }
+            }
+        }
+
+        // Everything routed through the affected tiles
+        for (int i = 0; i < affected.size; i++) {
+            int node = affected.get(i);
+            int nodeX = node % width;
+            int nodeY = node / width;
+            for (int j = 0; j < DIRECTION_X.length; j++) {
+                int fromX = nodeX + DIRECTION_X[j];
+                int fromY = nodeY + DIRECTION_Y[j];
+                if (contains(fromX, fromY)) {
+                    int from = fromY * width + fromX;
+                    if (next[from] == node && stamps[from] != stamp) {
+                        mark(from);
+                    }
+                }
+            }
+        }
+
+        // Clear and seed from the unaffected surroundings
+        open.clear();
+        for (int i = 0; i < affected.size; i++) {
+            int node = affected.get(i);
+            next[node] = -1;
+            distances[node] = Float.POSITIVE_INFINITY;
+            if (goalTiles[node]) {
+                distances[node] = 0;
+                open.add(node, 0);
+            }
+        }
+        for (int i = 0; i < affected.size; i++) {
+            int node = affected.get(i);
+            int nodeX = node % width;
+            int nodeY = node / width;
+            for (int j = 0; j < DIRECTION_X.length; j++) {
+                int nx = nodeX + DIRECTION_X[j];
+                int ny = nodeY + DIRECTION_Y[j];
+                if (contains(nx, ny)) {
+                    int neighbour = ny * width + nx;
+                    if (stamps[neighbour] != stamp && distances[neighbour] != Float.POSITIVE_INFINITY) {
+                        open.add(neighbour, distances[neighbour]);
+                    }
+                }
+            }
+        }
+        search();
+    }
+
+    /**
+     * Get the distance (cost) to the nearest goal
+     *
+     * @param tile the tile
+     * @return the distance, or negative value if no goal is reachable
+     */
+    public synchronized float getDistance(TileData tile) {
+        float distance = distances[tile.getIndex()];
+        return (distance == Float.POSITIVE_INFINITY ? -1 : distance);
+    }
+
+    /**
+     * Get the next step towards the nearest goal
+     *
+     * @param tile the tile
+     * @return the next tile, or {@code null} if at the goal or no goal is
+     * reachable
+     */
+    public synchronized TileData getNext(TileData tile) {
+        int step = next[tile.getIndex()];
+        return (step >= 0 ? mapData.getTile(step) : null);
+    }
+
+    /**
+     * Get the whole path to the nearest goal
+     *
+     * @param start the start tile
+     * @return the path, or {@code null} if no goal is reachable
+     */
+    public synchronized GraphPath<TileData> getPath(TileData start) {
+        int node = start.getIndex();
+        if (distances[node] == Float.POSITIVE_INFINITY) {
+            return null;
+        }
+        DefaultGraphPath<TileData> path = new DefaultGraphPath<>();
+        path.add(start);
+        while (!goalTiles[node]) {
+            node = next[node];
+            path.add(mapData.getTile(node));
+        }
+        return path;
+    }
+
+    public MovementProfile getMovementProfile() {
+        return movementProfile;
+    }
+
+    private void search() {
+        nextStamp();
+        while (!open.isEmpty()) {
+            int node = open.pop();
+            if (stamps[node] == stamp) {
+                continue;
+            }
+            stamps[node] = stamp;
+
+            // Expand backwards, to the tiles that can move to this node
+            int x = node % width;
+            int y = node / width;
+            for (int i = 0; i < DIRECTION_X.length; i++) {
+                if (i >= ORTHOGONAL_DIRECTIONS && !movementProfile.canMoveDiagonally()) {
+                    break;
+                }
+                int fromX = x + DIRECTION_X[i];
+                int fromY = y + DIRECTION_Y[i];
+                if (!contains(fromX, fromY)) {
+                    continue;
+                }
+                int from = fromY * width + fromX;
+                float cost = getMoveCost(fromX, fromY, x, y);
+                if (cost < 0) {
+                    continue;
+                }
+                float distance = distances[node] + cost;
+                if (distance < distances[from]) {
+                    distances[from] = distance;
+                    next[from] = node;
+                    open.add(from, distance);
+                }
+            }
+        }
+    }
+
+    private float getMoveCost(int fromX, int fromY, int toX, int toY) {
+        int from = fromY * width + fromX;
+
+        // The diagonal move requires both of the orthogonal moves to be possible
+        if (fromX != toX && fromY != toY
+                && (costGrid.getCost(from, fromY * width + toX, movementProfile) < 0
+                || costGrid.getCost(from, toY * width + fromX, movementProfile) < 0)) {
+            return MapCostGrid.IMPASSABLE;
+        }
+        return costGrid.getCost(from, toY * width + toX, movementProfile);
+    }
+
+    private void mark(int node) {
+        stamps[node] = stamp;
+        affected.add(node);
+    }
+
+    private void nextStamp() {
+
+        // Wrap around, the stamps need to be reset then
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            stamp = 1;
+            Arrays.fill(stamps, 0);
+        }
+    }
+
+    private boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+}
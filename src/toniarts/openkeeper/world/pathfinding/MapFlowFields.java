@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import toniarts.openkeeper.world.WorldState;
+
+/**
+ * Keeps the flow fields of the popular destinations. A field for a single
+ * destination is created once enough paths have been requested to it, and
+ * the least recently used fields are dropped when the capacity is reached.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapFlowFields {
+
+    /**
+     * Default maximum number of flow fields
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+    /**
+     * Default number of path requests to a destination before a flow field is
+     * created for it
+     */
+    public static final int DEFAULT_POPULARITY_THRESHOLD = 8;
+    private static final int MAX_TRACKED_DESTINATIONS = 4096;
+
+    private final WorldState worldState;
+    private final MapCostGrid costGrid;
+    private final int popularityThreshold;
+    private final Map<FlowKey, MapFlowField> fields;
+    private final Map<FlowKey, Integer> requestCounts = new HashMap<>();
+    private final AtomicInteger modCount = new AtomicInteger();
+
+    public MapFlowFields(WorldState worldState, MapCostGrid costGrid, int capacity, int popularityThreshold) {
+        this.worldState = worldState;
+        this.costGrid = costGrid;
+        this.popularityThreshold = popularityThreshold;
+        this.fields = new LinkedHashMap<FlowKey, MapFlowField>(capacity, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FlowKey, MapFlowField> eldest) {
+                return size() > capacity;
+            }
+
+        };
+    }
+
+    /**
+     * Get a flow field to the given goals, the field is created if it doesn't
+     * exist yet
+     *
+     * @param goals the goal tile indices
+     * @param movementProfile the movement profile
+     * @return the flow field
+     */
+    public MapFlowField getFlowField(int[] goals, MovementProfile movementProfile) {
+        int[] sortedGoals = goals.clone();
+        Arrays.sort(sortedGoals);
+        FlowKey key = new FlowKey(sortedGoals, movementProfile);
+        synchronized (fields) {
+            MapFlowField field = fields.get(key);
+            if (field != null) {
+                return field;
+            }
+        }
+        return createFlowField(key);
+    }
+
+    /**
+     * Get a flow field to a single destination if the destination is popular
+     * enough. Counts the request towards the popularity
+     *
+     * @param goal the goal tile index
+     * @param movementProfile the movement profile
+     * @return the flow field, or {@code null} if there is none
+     */
+    public MapFlowField getPopularFlowField(int goal, MovementProfile movementProfile) {
+        FlowKey key = new FlowKey(new int[]{goal}, movementProfile);
+        synchronized (fields) {
+            MapFlowField field = fields.get(key);
+            if (field != null) {
+                return field;
+            }
+            if (requestCounts.size() >= MAX_TRACKED_DESTINATIONS) {
+                requestCounts.clear();
+            }
+            int count = requestCounts.merge(key, 1, Integer::sum);
+            if (count < popularityThreshold) {
+                return null;
+            }
+            requestCounts.remove(key);
+        }
+        return createFlowField(key);
+    }
+
+    /**
+     * Repairs the flow fields after a tile change
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    public void onTileChange(int x, int y) {
+        modCount.incrementAndGet();
+        List<MapFlowField> snapshot;
+        synchronized (fields) {
+            snapshot = new ArrayList<>(fields.values());
+        }
+        for (MapFlowField field : snapshot) {
+            field.onTileChange(x, y);
+        }
+    }
+
+    private MapFlowField createFlowField(FlowKey key) {
+
+        // Calculate outside the lock, a concurrent duplicate is just discarded
+        int count = modCount.get();
+        MapFlowField field = new MapFlowField(worldState, costGrid, key.goals, key.movementProfile);
+        synchronized (fields) {
+            MapFlowField existing = fields.putIfAbsent(key, field);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        // The map changed while calculating, the changes may have been missed
+        if (modCount.get() != count) {
+            field.update();
+        }
+        return field;
+    }
+
+    private static final class FlowKey {
+
+        private final int[] goals;
+        private final MovementProfile movementProfile;
+
+        public FlowKey(int[] goals, MovementProfile movementProfile) {
+            this.goals = goals;
+            this.movementProfile = movementProfile;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 5;
+            hash = 59 * hash + Arrays.hashCode(this.goals);
+            hash = 59 * hash + Objects.hashCode(this.movementProfile);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final FlowKey other = (FlowKey) obj;
+            if (!Arrays.equals(this.goals, other.goals)) {
+                return false;
+            }
+            return Objects.equals(this.movementProfile, other.movementProfile);
+        }
+
+    }
+
+}
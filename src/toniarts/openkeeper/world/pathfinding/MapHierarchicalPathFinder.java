@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+import toniarts.openkeeper.world.listener.TileChangeListener;
+
+/**
+ * Hierarchical path finder. The map is divided into clusters and the path is
+ * first searched on an abstract graph connecting the cluster entrances. Only
+ * then the abstract path is refined to actual tiles, segment by segment when
+ * the path is read.<br>
+ * The abstract graphs are kept per {@link MovementProfile} and the clusters
+ * are rebuilt when their tiles change. Only entities using the default cost
+ * function can use this, see {@link PathFindable#hasDefaultCost()}.<br>
+ * This is thread safe, every thread gets its own search buffers and the
+ * searches only share the abstract graphs. The paths are refined lazily, so
+ * the refining takes the given map read lock to keep the map data from
+ * changing underneath it.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapHierarchicalPathFinder implements TileChangeListener {
+
+    private final WorldState worldState;
+    private final MapData mapData;
+    private final MapCostGrid costGrid;
+    private final int clusterSize;
+    private final Map<MovementProfile, MapClusterGraph> graphs = new ConcurrentHashMap<>();
+    private final ReadWriteLock graphLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<SearchContext> searchContext;
+    private final Lock mapReadLock;
+
+    public MapHierarchicalPathFinder(WorldState worldState, MapCostGrid costGrid, int clusterSize, Lock mapReadLock) {
+        this.worldState = worldState;
+        this.mapData = worldState.getMapData();
+        this.costGrid = costGrid;
+        this.clusterSize = clusterSize;
+        this.mapReadLock = mapReadLock;
+        searchContext = ThreadLocal.withInitial(SearchContext::new);
+    }
+
+    @Override
+    public void onTileChange(int x, int y) {
+        graphLock.writeLock().lock();
+        try {
+            for (MapClusterGraph graph : graphs.values()) {
+                graph.markDirty(x, y);
+            }
+        } finally {
+            graphLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find a path between two tiles
+     *
+     * @param start the start tile
+     * @param end the end tile
+     * @param pathFindable the entity to find the path for
+     * @return the path, or {@code null} if there is no path
+     */
+    public GraphPath<TileData> findPath(TileData start, TileData end, PathFindable pathFindable) {
+        SearchContext context = searchContext.get();
+        if (!pathFindable.hasDefaultCost()) {
+            return context.searchNodePath(start, end, pathFindable);
+        }
+
+        MovementProfile movementProfile = MovementProfile.valueOf(pathFindable);
+        int startIndex = start.getIndex();
+        int endIndex = end.getIndex();
+
+        // Stuck inside an obstacle, the abstract graph doesn't know the way out
+        if (costGrid.getCost(-1, startIndex, movementProfile) < 0) {
+            return context.searchNodePath(start, end, movementProfile);
+        }
+
+        lockGraph(movementProfile, context);
+        try {
+            MapClusterGraph graph = graphs.get(movementProfile);
+
+            // Inside the same cluster try the direct path first, a path might still exist via the other clusters
+            if (graph.isSameCluster(startIndex, endIndex)) {
+                IntArray buffer = context.buffer;
+                buffer.clear();
+                if (context.search.findPath(startIndex, endIndex, graph.getCluster(startIndex), movementProfile, buffer)) {
+                    DefaultGraphPath<TileData> path = new DefaultGraphPath<>(buffer.size + 1);
+                    path.add(start);
+                    for (int i = 0; i < buffer.size; i++) {
+                        path.add(mapData.getTile(buffer.get(i)));
+                    }
+                    return path;
+                }
+            }
+
+            if (!context.searchAbstractPath(graph, startIndex, endIndex)) {
+                return null;
+            }
+            return new HierarchicalPath(this, movementProfile, context.waypoints.toArray());
+        } finally {
+            graphLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Acquires the read lock to the graph of the given profile. The graph is
+     * created and updated first if needed
+     */
+    private void lockGraph(MovementProfile movementProfile, SearchContext context) {
+        graphLock.readLock().lock();
+        MapClusterGraph graph = graphs.get(movementProfile);
+        if (graph != null && !graph.isDirty()) {
+            return;
+        }
+
+        // Upgrade to write lock for updating the graph, and downgrade back
+        graphLock.readLock().unlock();
+        graphLock.writeLock().lock();
+        try {
+            graph = graphs.get(movementProfile);
+            if (graph == null) {
+                graph = new MapClusterGraph(worldState, costGrid, movementProfile, clusterSize);
+                graphs.put(movementProfile, graph);
+            }
+            graph.update(context.search);
+            graphLock.readLock().lock();
+        } finally {
+            graphLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Refines one segment of the abstract path
+     *
+     * @param from the tile index the segment starts from
+     * @param to the tile index the segment ends to
+     * @param movementProfile the movement profile
+     * @param nodes the tiles of the segment are added here, excluding the
+     * start tile
+     * @return {@code false} if the segment can't be travelled anymore
+     */
+    boolean refine(int from, int to, MovementProfile movementProfile, Array<TileData> nodes) {
+        SearchContext context = searchContext.get();
+        mapReadLock.lock();
+        lockGraph(movementProfile, context);
+        try {
+            MapClusterGraph graph = graphs.get(movementProfile);
+            if (!graph.isSameCluster(from, to)) {
+
+                // Transition between two clusters
+                TileData tile = mapData.getTile(to);
+                if (costGrid.getCost(from, to, movementProfile) < 0) {
+                    return false;
+                }
+                nodes.add(tile);
+                return true;
+            }
+
+            IntArray buffer = context.buffer;
+            buffer.clear();
+            if (!context.search.findPath(from, to, graph.getCluster(from), movementProfile, buffer)) {
+                return false;
+            }
+            for (int i = 0; i < buffer.size; i++) {
+                nodes.add(mapData.getTile(buffer.get(i)));
+            }
+            return true;
+        } finally {
+            graphLock.readLock().unlock();
+            mapReadLock.unlock();
+        }
+    }
+
+    /**
+     * Find a path with the plain A*, used when the refining of the path fails
+     *
+     * @param start the start tile
+     * @param end the end tile
+     * @param pathFindable the entity to find the path for
+     * @return the path, or {@code null} if there is no path
+     */
+    GraphPath<TileData> searchNodePath(TileData start, TileData end, PathFindable pathFindable) {
+        mapReadLock.lock();
+        try {
+            return searchContext.get().searchNodePath(start, end, pathFindable);
+        } finally {
+            mapReadLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of nodes expanded by the searches of the calling thread
+     * so far. Take the difference around a search to get its share
+     *
+     * @return the expanded node count
+     */
+    long getExpandedNodes() {
+        return searchContext.get().getExpandedNodes();
+    }
+
+    MapData getMapData() {
+        return mapData;
+    }
+
+    /**
+     * Search buffers of one thread
+     */
+    private final class SearchContext {
+
+        private final MapClusterSearch search;
+        private final MapIndexedGraph fallbackGraph;
+        private final MapPathFinder fallbackPathFinder;
+        private final MapDistance heuristic = new MapDistance();
+
+        // Abstract search
+        private final int goalNode;
+        private final float[] costs;
+        private final int[] parents;
+        private final int[] openStamps;
+        private final int[] closedStamps;
+        private final float[] goalCosts;
+        private final int[] goalStamps;
+        private final MapClusterSearch.NodeHeap open = new MapClusterSearch.NodeHeap();
+        private final IntArray startEdges = new IntArray();
+        private final FloatArray startCosts = new FloatArray();
+        private final IntArray waypoints = new IntArray();
+        private final IntArray buffer = new IntArray();
+        private int searchId = 0;
+        private long expandedNodes = 0;
+
+        public SearchContext() {
+            search = new MapClusterSearch(worldState, costGrid, clusterSize);
+            fallbackGraph = new MapIndexedGraph(worldState, costGrid);
+            fallbackPathFinder = new MapPathFinder(fallbackGraph, true);
+
+            // The goal gets its own node so that it doesn't mix with the portals
+            goalNode = mapData.getWidth() * mapData.getHeight();
+            costs = new float[goalNode + 1];
+            parents = new int[goalNode + 1];
+            openStamps = new int[goalNode + 1];
+            closedStamps = new int[goalNode + 1];
+            goalCosts = new float[goalNode + 1];
+            goalStamps = new int[goalNode + 1];
+        }
+
+        private GraphPath<TileData> searchNodePath(TileData start, TileData end, PathFindable pathFindable) {
+            fallbackGraph.setPathFindable(pathFindable);
+            GraphPath<TileData> outPath = new DefaultGraphPath<>();
+            boolean found = fallbackPathFinder.searchNodePath(start, end, heuristic, outPath);
+            expandedNodes += fallbackPathFinder.metrics.visitedNodes;
+            if (found) {
+                return outPath;
+            }
+            return null;
+        }
+
+        private long getExpandedNodes() {
+            return expandedNodes + search.getExpandedNodes();
+        }
+
+        private boolean searchAbstractPath(MapClusterGraph graph, int startIndex, int endIndex) {
+            MovementProfile movementProfile = graph.getMovementProfile();
+            initSearch();
+
+            // Connect the start to the portals of its cluster
+            startEdges.clear();
+            startCosts.clear();
+            search.calculateCosts(startIndex, graph.getCluster(startIndex), movementProfile, false);
+            for (MapClusterGraph.Portal portal : graph.getPortals(startIndex)) {
+                float cost = search.getCost(portal.index);
+                if (cost >= 0 && portal.index != startIndex) {
+                    startEdges.add(portal.index);
+                    startCosts.add(cost);
+                }
+            }
+
+            // And the goal, from the portals of its cluster
+            boolean goalReachable = false;
+            search.calculateCosts(endIndex, graph.getCluster(endIndex), movementProfile, true);
+            List<MapClusterGraph.Portal> goalPortals = graph.getPortals(endIndex);
+            for (MapClusterGraph.Portal portal : goalPortals) {
+                float cost = search.getCost(portal.index);
+                if (cost >= 0) {
+                    goalCosts[portal.index] = cost;
+                    goalStamps[portal.index] = searchId;
+                    goalReachable = true;
+                }
+            }
+            if (!goalReachable) {
+                return false;
+            }
+
+            // A* over the abstract graph
+            int endX = endIndex % mapData.getWidth();
+            int endY = endIndex / mapData.getWidth();
+            boolean diagonal = movementProfile.canMoveDiagonally();
+            costs[startIndex] = 0;
+            parents[startIndex] = -1;
+            openStamps[startIndex] = searchId;
+            open.add(startIndex, 0);
+            while (!open.isEmpty()) {
+                int node = open.pop();
+                if (closedStamps[node] == searchId) {
+                    continue;
+                }
+                if (node == goalNode) {
+
+                    // Collect the waypoints
+                    waypoints.clear();
+                    waypoints.add(endIndex);
+                    for (int i = parents[goalNode]; i != -1; i = parents[i]) {
+                        if (i != endIndex) {
+                            waypoints.add(i);
+                        }
+                    }
+                    waypoints.reverse();
+                    return true;
+                }
+                closedStamps[node] = searchId;
+                expandedNodes++;
+
+                if (node == startIndex) {
+                    for (int i = 0; i < startEdges.size; i++) {
+                        relax(node, startEdges.get(i), startCosts.get(i), endX, endY, diagonal);
+                    }
+                }
+                MapClusterGraph.Portal portal = graph.getPortal(node);
+                if (portal != null) {
+                    for (int i = 0; i < portal.edges.size; i++) {
+                        relax(node, portal.edges.get(i), portal.costs.get(i), endX, endY, diagonal);
+                    }
+                }
+                if (goalStamps[node] == searchId) {
+                    relax(node, goalNode, goalCosts[node], endX, endY, diagonal);
+                }
+            }
+
+            return false;
+        }
+
+        private void initSearch() {
+            open.clear();
+            searchId++;
+            if (searchId == Integer.MAX_VALUE) {
+                searchId = 1;
+                Arrays.fill(openStamps, 0);
+                Arrays.fill(closedStamps, 0);
+                Arrays.fill(goalStamps, 0);
+            }
+        }
+
+        private void relax(int parent, int node, float cost, int endX, int endY, boolean diagonal) {
+            float newCost = costs[parent] + cost;
+            if (closedStamps[node] == searchId || (openStamps[node] == searchId && costs[node] <= newCost)) {
+                return;
+            }
+            costs[node] = newCost;
+            parents[node] = parent;
+            openStamps[node] = searchId;
+            float estimate = 0;
+            if (node != goalNode) {
+                estimate = MapClusterSearch.estimate(node % mapData.getWidth(), node / mapData.getWidth(), endX, endY, diagonal);
+            }
+            open.add(node, newCost + estimate);
+        }
+    }
+
+}
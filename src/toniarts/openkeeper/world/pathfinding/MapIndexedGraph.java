@@ -20,23 +20,49 @@ import com.badlogic.gdx.ai.pfa.Connection;
 import com.badlogic.gdx.ai.pfa.DefaultConnection;
 import com.badlogic.gdx.ai.pfa.indexed.IndexedGraph;
 import com.badlogic.gdx.utils.Array;
+import toniarts.openkeeper.world.MapData;
 import toniarts.openkeeper.world.TileData;
 import toniarts.openkeeper.world.WorldState;
 
 /**
- * Map representation for the path finding
+ * Map representation for the path finding. The connections are pooled per
+ * tile and direction, so the graph expansion doesn't generate garbage. Not
+ * thread safe, use one graph per thread.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class MapIndexedGraph implements IndexedGraph<TileData> {
 
+    /**
+     * Directions, first the orthogonal ones (N, E, S, W) and then the
+     * diagonals (NE, NW, SE, SW)
+     */
+    private static final int[] DIRECTION_X = {0, 1, 0, -1, 1, -1, 1, -1};
+    private static final int[] DIRECTION_Y = {-1, 0, 1, 0, -1, -1, 1, 1};
+    private static final int NORTH = 0;
+    private static final int EAST = 1;
+    private static final int SOUTH = 2;
+    private static final int WEST = 3;
+    private static final int NORTH_EAST = 4;
+    private static final int NORTH_WEST = 5;
+    private static final int SOUTH_EAST = 6;
+    private static final int SOUTH_WEST = 7;
+
     private final WorldState worldState;
+    private final MapData mapData;
+    private final MapCostGrid costGrid;
     private final int nodeCount;
+    private final MapConnection[] connectionPool;
+    private final Array<Connection<TileData>> connections = new Array<>(DIRECTION_X.length);
     private PathFindable pathFindable;
+    private MovementProfile movementProfile;
 
-    public MapIndexedGraph(WorldState worldState) {
+    public MapIndexedGraph(WorldState worldState, MapCostGrid costGrid) {
         this.worldState = worldState;
-        nodeCount = worldState.getMapData().getHeight() * worldState.getMapData().getWidth();
+        this.mapData = worldState.getMapData();
+        this.costGrid = costGrid;
+        nodeCount = mapData.getHeight() * mapData.getWidth();
+        connectionPool = new MapConnection[nodeCount * DIRECTION_X.length];
     }
 
     @Override
@@ -57,57 +83,99 @@ public class MapIndexedGraph implements IndexedGraph<TileData> {
      */
     public void setPathFindable(PathFindable pathFindable) {
         this.pathFindable = pathFindable;
+        this.movementProfile = (pathFindable.hasDefaultCost() ? MovementProfile.valueOf(pathFindable) : null);
     }
 
+    /**
+     * Get the connections from a tile. The returned array and the connections
+     * are reused, the array is only valid until the next call and the cost of
+     * a connection until the tile is expanded again
+     *
+     * @param tile the tile
+     * @return the connections
+     */
     @Override
     public Array<Connection<TileData>> getConnections(TileData tile) {
 
         // The connections depend on the creature type
-        Array<Connection<TileData>> connections = new Array<>(8);
-        boolean valids[] = new boolean[4];
+        connections.clear();
 
-        valids[0] = addIfValidCoordinate(tile, tile.getX(), tile.getY() - 1, connections); // North
-        valids[1] = addIfValidCoordinate(tile, tile.getX() + 1, tile.getY(), connections); // East
-        valids[2] = addIfValidCoordinate(tile, tile.getX(), tile.getY() + 1, connections); // South
-        valids[3] = addIfValidCoordinate(tile, tile.getX() - 1, tile.getY(), connections); // West
+        boolean north = addIfValidCoordinate(tile, NORTH);
+        boolean east = addIfValidCoordinate(tile, EAST);
+        boolean south = addIfValidCoordinate(tile, SOUTH);
+        boolean west = addIfValidCoordinate(tile, WEST);
 
         if (pathFindable.canMoveDiagonally()) {
-            if (valids[0] && valids[1]) { // North-East
-                addIfValidCoordinate(tile, tile.getX() + 1, tile.getY() - 1, connections);
+            if (north && east) {
+                addIfValidCoordinate(tile, NORTH_EAST);
             }
-            if (valids[0] && valids[3]) { // North-West
-                addIfValidCoordinate(tile, tile.getX() - 1, tile.getY() - 1, connections);
+            if (north && west) {
+                addIfValidCoordinate(tile, NORTH_WEST);
             }
-            if (valids[2] && valids[1]) { // South-East
-                addIfValidCoordinate(tile, tile.getX() + 1, tile.getY() + 1, connections);
+            if (south && east) {
+                addIfValidCoordinate(tile, SOUTH_EAST);
             }
-            if (valids[2] && valids[3]) { // South-West
-                addIfValidCoordinate(tile, tile.getX() - 1, tile.getY() + 1, connections);
+            if (south && west) {
+                addIfValidCoordinate(tile, SOUTH_WEST);
             }
         }
 
         return connections;
     }
 
-    private boolean addIfValidCoordinate(final TileData startTile, final int x, final int y, final Array<Connection<TileData>> connections) {
+    private boolean addIfValidCoordinate(final TileData startTile, final int direction) {
 
         // Valid coordinate
-        TileData tile = worldState.getMapData().getTile(x, y);
+        TileData tile = mapData.getTile(startTile.getX() + DIRECTION_X[direction], startTile.getY() + DIRECTION_Y[direction]);
         if (tile != null) {
-            Float cost = pathFindable.getCost(startTile, tile, worldState);
-            if (cost != null) {
-                connections.add(new DefaultConnection<TileData>(startTile, tile) {
-
-                    @Override
-                    public float getCost() {
-                        return cost;
-                    }
-
-                });
+            float cost = getCost(startTile, tile);
+            if (cost >= 0) {
+                MapConnection connection = getConnection(startTile, tile, direction);
+                connection.cost = cost;
+                connections.add(connection);
                 return true;
             }
         }
         return false;
     }
 
+    private MapConnection getConnection(final TileData startTile, final TileData tile, final int direction) {
+        int index = startTile.getIndex() * DIRECTION_X.length + direction;
+        MapConnection connection = connectionPool[index];
+        if (connection == null) {
+            connection = new MapConnection(startTile, tile);
+            connectionPool[index] = connection;
+        }
+        return connection;
+    }
+
+    private float getCost(final TileData from, final TileData to) {
+
+        // Entities with the default costs can use the precalculated costs
+        if (movementProfile != null) {
+            return costGrid.getCost(from.getIndex(), to.getIndex(), movementProfile);
+        }
+        Float cost = pathFindable.getCost(from, to, worldState);
+        return (cost != null ? cost : MapCostGrid.IMPASSABLE);
+    }
+
+    /**
+     * Connection between two adjacent tiles. The cost is set on every
+     * expansion, the tiles never change
+     */
+    private static final class MapConnection extends DefaultConnection<TileData> {
+
+        private float cost;
+
+        public MapConnection(TileData fromNode, TileData toNode) {
+            super(fromNode, toNode);
+        }
+
+        @Override
+        public float getCost() {
+            return cost;
+        }
+
+    }
+
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.utils.Array;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.TileData;
+
+/**
+ * LRU cache for the found paths. The map is divided into square regions, each
+ * having a version number that is bumped when a tile in the region changes.
+ * The cached paths remember the versions of the regions they traverse, and
+ * are discarded on lookup if any of them has changed.<br>
+ * The hierarchical paths are cached as their abstract waypoints, and every
+ * lookup gets a fresh copy that is refined lazily when read. The regions are
+ * the same size as the path finding clusters, so the waypoints tell all the
+ * regions the path traverses.<br>
+ * Only the paths are cached, not the failures to find one.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapPathCache {
+
+    /**
+     * Default maximum number of cached paths
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int width;
+    private final int regionSize;
+    private final int regionsX;
+    private final AtomicIntegerArray regionVersions;
+    private final Map<PathKey, CachedPath> paths;
+
+    public MapPathCache(MapData mapData, int regionSize, int capacity) {
+        this.width = mapData.getWidth();
+        this.regionSize = regionSize;
+        this.regionsX = (mapData.getWidth() + regionSize - 1) / regionSize;
+        int regionsY = (mapData.getHeight() + regionSize - 1) / regionSize;
+        this.regionVersions = new AtomicIntegerArray(regionsX * regionsY);
+        this.paths = new LinkedHashMap<PathKey, CachedPath>(capacity, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PathKey, CachedPath> eldest) {
+                return size() > capacity;
+            }
+
+        };
+    }
+
+    /**
+     * Marks the region of the tile changed, invalidating the paths going
+     * through it
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    public void invalidate(int x, int y) {
+        regionVersions.incrementAndGet(getRegion(x, y));
+    }
+
+    /**
+     * Get a cached path
+     *
+     * @param start the start tile index
+     * @param end the end tile index
+     * @param movementProfile the movement profile
+     * @return a copy of the path, or {@code null} if no valid path is cached
+     */
+    public GraphPath<TileData> get(int start, int end, MovementProfile movementProfile) {
+        PathKey key = new PathKey(start, end, movementProfile);
+        CachedPath cachedPath;
+        synchronized (paths) {
+            cachedPath = paths.get(key);
+            if (cachedPath == null) {
+                return null;
+            }
+            if (!cachedPath.isValid()) {
+                paths.remove(key);
+                return null;
+            }
+        }
+        return cachedPath.getPath();
+    }
+
+    /**
+     * Store a path to the cache. Call this while still holding the map lock
+     * the path was searched under, so that the region versions stored match
+     * the map the path was found on. The hierarchical paths are not refined
+     * here
+     *
+     * @param start the start tile index
+     * @param end the end tile index
+     * @param movementProfile the movement profile
+     * @param path the path
+     */
+    public void put(int start, int end, MovementProfile movementProfile, GraphPath<TileData> path) {
+        CachedPath cachedPath;
+        if (path instanceof HierarchicalPath) {
+            HierarchicalPath hierarchicalPath = ((HierarchicalPath) path).copy();
+            cachedPath = new CachedPath(null, hierarchicalPath, hierarchicalPath.getWaypoints());
+        } else {
+            TileData[] tiles = new TileData[path.getCount()];
+            int[] indices = new int[tiles.length];
+            for (int i = 0; i < tiles.length; i++) {
+                tiles[i] = path.get(i);
+                indices[i] = tiles[i].getIndex();
+            }
+            cachedPath = new CachedPath(tiles, null, indices);
+        }
+
+        synchronized (paths) {
+            paths.put(new PathKey(start, end, movementProfile), cachedPath);
+        }
+    }
+
+    /**
+     * Clears the cache
+     */
+    public void clear() {
+        synchronized (paths) {
+            paths.clear();
+        }
+    }
+
+    private int getRegion(int x, int y) {
+        return (y / regionSize) * regionsX + x / regionSize;
+    }
+
+    private final class CachedPath {
+
+        private final TileData[] tiles;
+        private final HierarchicalPath hierarchicalPath;
+        private final int[] regions;
+        private final int[] versions;
+
+        /**
+         * Create a cached path, either from the tiles or from the hierarchical
+         * path
+         *
+         * @param tiles the tiles of the path
+         * @param hierarchicalPath unrefined hierarchical path
+         * @param indices the tile indices that tell the traversed regions
+         */
+        public CachedPath(TileData[] tiles, HierarchicalPath hierarchicalPath, int[] indices) {
+            this.tiles = tiles;
+            this.hierarchicalPath = hierarchicalPath;
+
+            // Consecutive tiles mostly share the region
+            int[] pathRegions = new int[indices.length];
+            int regionCount = 0;
+            for (int index : indices) {
+                int region = getRegion(index % width, index / width);
+                if (regionCount == 0 || pathRegions[regionCount - 1] != region) {
+                    pathRegions[regionCount++] = region;
+                }
+            }
+            regions = Arrays.copyOf(pathRegions, regionCount);
+            versions = new int[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                versions[i] = regionVersions.get(regions[i]);
+            }
+        }
+
+        private GraphPath<TileData> getPath() {
+            if (hierarchicalPath != null) {
+                return hierarchicalPath.copy();
+            }
+            return new DefaultGraphPath<>(new Array<>(tiles));
+        }
+
+        private boolean isValid() {
+            for (int i = 0; i < regions.length; i++) {
+                if (regionVersions.get(regions[i]) != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class PathKey {
+
+        private final int start;
+        private final int end;
+        private final MovementProfile movementProfile;
+
+        public PathKey(int start, int end, MovementProfile movementProfile) {
+            this.start = start;
+            this.end = end;
+            this.movementProfile = movementProfile;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 37 * hash + this.start;
+            hash = 37 * hash + this.end;
+            hash = 37 * hash + Objects.hashCode(this.movementProfile);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final PathKey other = (PathKey) obj;
+            if (this.start != other.start) {
+                return false;
+            }
+            if (this.end != other.end) {
+                return false;
+            }
+            return Objects.equals(this.movementProfile, other.movementProfile);
+        }
+
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.ai.pfa.PathSmoother;
+import com.badlogic.gdx.ai.pfa.SmoothableGraphPath;
+import com.badlogic.gdx.ai.utils.Collision;
+import com.badlogic.gdx.ai.utils.Ray;
+import com.badlogic.gdx.ai.utils.RaycastCollisionDetector;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import toniarts.openkeeper.utils.WorldUtils;
+import toniarts.openkeeper.world.MapData;
+import toniarts.openkeeper.world.MapLoader;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+
+/**
+ * Post processes the found paths for steering. The path is pulled tight
+ * where there is a line of sight on the map, and the consecutive collinear
+ * steps are merged, so that the path has only the turning points left.<br>
+ * The hierarchical paths are pulled tight over their abstract waypoints
+ * first, and only the segments without a line of sight are refined to
+ * tiles.<br>
+ * Not thread safe, use one per thread.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class MapPathSmoother {
+
+    private final MapData mapData;
+    private final MapCostGrid costGrid;
+    private final MapRaycastCollisionDetector collisionDetector = new MapRaycastCollisionDetector();
+    private final PathSmoother<TileData, Vector2> pathSmoother = new PathSmoother<>(collisionDetector);
+    private final MapSmoothableGraphPath smoothablePath = new MapSmoothableGraphPath();
+    private final Ray<Vector2> ray = new Ray<>(new Vector2(), new Vector2());
+
+    public MapPathSmoother(WorldState worldState, MapCostGrid costGrid) {
+        this.mapData = worldState.getMapData();
+        this.costGrid = costGrid;
+    }
+
+    /**
+     * Smooths the path and converts it to waypoints
+     *
+     * @param path the path
+     * @param pathFindable the entity travelling the path
+     * @return the waypoints, the first and the last tile are always included
+     */
+    public Array<Vector2> smoothPath(GraphPath<TileData> path, PathFindable pathFindable) {
+        smoothablePath.clear();
+
+        // Only pull the path tight if the entity can move freely, the custom costs we can't follow
+        boolean pullTight = (pathFindable.canMoveDiagonally() && pathFindable.hasDefaultCost());
+        if (pullTight) {
+            collisionDetector.movementProfile = MovementProfile.valueOf(pathFindable);
+        }
+        if (!pullTight || !(path instanceof HierarchicalPath) || !addWaypoints((HierarchicalPath) path)) {
+            smoothablePath.clear();
+            for (TileData tile : path) {
+                smoothablePath.add(tile);
+            }
+        }
+        if (pullTight) {
+            pathSmoother.smoothPath(smoothablePath);
+        }
+
+        // Merge the collinear segments
+        Array<TileData> nodes = smoothablePath.nodes;
+        Array<Vector2> waypoints = new Array<>(nodes.size);
+        for (int i = 0; i < nodes.size; i++) {
+            if (i > 0 && i < nodes.size - 1 && isCollinear(nodes.get(i - 1), nodes.get(i), nodes.get(i + 1))) {
+                continue;
+            }
+            TileData tile = nodes.get(i);
+            waypoints.add(WorldUtils.pointToVector2(tile.getX(), tile.getY()));
+        }
+        smoothablePath.clear();
+
+        return waypoints;
+    }
+
+    /**
+     * Adds the abstract waypoints of the path, refining only the segments
+     * that don't have a line of sight between their ends
+     *
+     * @param path the path
+     * @return {@code false} if a segment can't be travelled anymore, the path
+     * needs to be read tile by tile then
+     */
+    private boolean addWaypoints(HierarchicalPath path) {
+        int[] waypoints = path.getWaypoints();
+        TileData from = mapData.getTile(waypoints[0]);
+        smoothablePath.add(from);
+        for (int i = 1; i < waypoints.length; i++) {
+            TileData to = mapData.getTile(waypoints[i]);
+            ray.start.set(from.getX() * MapLoader.TILE_WIDTH, from.getY() * MapLoader.TILE_WIDTH);
+            ray.end.set(to.getX() * MapLoader.TILE_WIDTH, to.getY() * MapLoader.TILE_WIDTH);
+            if (!collisionDetector.collides(ray)) {
+                smoothablePath.add(to);
+            } else if (!path.refineSegment(i, smoothablePath.nodes)) {
+                return false;
+            }
+            from = to;
+        }
+        return true;
+    }
+
+    private static boolean isCollinear(TileData previous, TileData tile, TileData next) {
+        return (tile.getX() - previous.getX()) * (next.getY() - tile.getY())
+                == (tile.getY() - previous.getY()) * (next.getX() - tile.getX());
+    }
+
+    /**
+     * Path that the gdx-ai path smoother can work on
+     */
+    private static final class MapSmoothableGraphPath extends DefaultGraphPath<TileData> implements SmoothableGraphPath<TileData, Vector2> {
+
+        private final Vector2 position = new Vector2();
+
+        @Override
+        public Vector2 getNodePosition(int index) {
+            TileData tile = nodes.get(index);
+            return position.set(tile.getX() * MapLoader.TILE_WIDTH, tile.getY() * MapLoader.TILE_WIDTH);
+        }
+
+        @Override
+        public void swapNodes(int index1, int index2) {
+            nodes.set(index1, nodes.get(index2));
+        }
+
+        @Override
+        public void truncatePath(int newLength) {
+            nodes.truncate(newLength);
+        }
+    }
+
+    /**
+     * Checks the line of sight on the map tiles. All the tiles the line
+     * touches must be freely passable and not more expensive than the tiles at
+     * the ends, so the smoothed path never cuts corners or goes through
+     * anything the original path avoided.
+     */
+    private final class MapRaycastCollisionDetector implements RaycastCollisionDetector<Vector2> {
+
+        private MovementProfile movementProfile;
+        private int collisionX;
+        private int collisionY;
+
+        @Override
+        public boolean collides(Ray<Vector2> ray) {
+            int x0 = toTile(ray.start.x);
+            int y0 = toTile(ray.start.y);
+            int x1 = toTile(ray.end.x);
+            int y1 = toTile(ray.end.y);
+            float maxCost = Math.max(getCost(x0, y0), getCost(x1, y1));
+            if (maxCost < 0) {
+                collisionX = x0;
+                collisionY = y0;
+                return true;
+            }
+
+            // Walk all the tiles the line touches
+            int dx = Math.abs(x1 - x0);
+            int dy = Math.abs(y1 - y0);
+            int stepX = Integer.signum(x1 - x0);
+            int stepY = Integer.signum(y1 - y0);
+            int x = x0;
+            int y = y0;
+            int ix = 0;
+            int iy = 0;
+            while (ix < dx || iy < dy) {
+                int decision = (1 + 2 * ix) * dy - (1 + 2 * iy) * dx;
+                if (decision == 0) {
+
+                    // Exactly through the corner, both of the side tiles need to be free
+                    if (isBlocked(x + stepX, y, maxCost) || isBlocked(x, y + stepY, maxCost)) {
+                        return true;
+                    }
+                    x += stepX;
+                    y += stepY;
+                    ix++;
+                    iy++;
+                } else if (decision < 0) {
+                    x += stepX;
+                    ix++;
+                } else {
+                    y += stepY;
+                    iy++;
+                }
+                if (isBlocked(x, y, maxCost)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean findCollision(Collision<Vector2> outputCollision, Ray<Vector2> inputRay) {
+            if (!collides(inputRay)) {
+                return false;
+            }
+            outputCollision.point.set(collisionX * MapLoader.TILE_WIDTH, collisionY * MapLoader.TILE_WIDTH);
+            outputCollision.normal.set(inputRay.start).sub(inputRay.end).nor();
+            return true;
+        }
+
+        private boolean isBlocked(int x, int y, float maxCost) {
+            float cost = getCost(x, y);
+            if (cost < 0 || cost > maxCost) {
+                collisionX = x;
+                collisionY = y;
+                return true;
+            }
+            return false;
+        }
+
+        private float getCost(int x, int y) {
+            TileData tile = mapData.getTile(x, y);
+            if (tile == null) {
+                return MapCostGrid.IMPASSABLE;
+            }
+            return costGrid.getFreeCost(tile.getIndex(), movementProfile);
+        }
+
+        private int toTile(float coordinate) {
+            return Math.round(coordinate / MapLoader.TILE_WIDTH);
+        }
+    }
+
+}
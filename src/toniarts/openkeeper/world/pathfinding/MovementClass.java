@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+/**
+ * Movement classes, entities within the same class share the same terrain
+ * costs. Precalculated path finding data is stored per movement class.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public enum MovementClass {
+
+    WALKER,
+    FLYER,
+    LAVA_WALKER,
+    WATER_WALKER;
+
+    /**
+     * Get the movement class of the given path findable
+     *
+     * @param pathFindable the entity
+     * @return the movement class
+     */
+    public static MovementClass valueOf(PathFindable pathFindable) {
+        if (pathFindable.canFly()) {
+            return FLYER;
+        }
+
+        // Walking on water is checked after the lava in the cost function, and it is the only one with a different cost
+        if (pathFindable.canWalkOnWater()) {
+            return WATER_WALKER;
+        }
+        if (pathFindable.canWalkOnLava()) {
+            return LAVA_WALKER;
+        }
+        return WALKER;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import java.util.Objects;
+
+/**
+ * Immutable description of how an entity moves. All the entities sharing the
+ * same profile get the same paths, so this serves as a key for the
+ * precalculated path finding data.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class MovementProfile implements PathFindable {
+
+    private final MovementClass movementClass;
+    private final short ownerId;
+    private final boolean diagonal;
+
+    public MovementProfile(MovementClass movementClass, short ownerId, boolean diagonal) {
+        this.movementClass = movementClass;
+        this.ownerId = ownerId;
+        this.diagonal = diagonal;
+    }
+
+    /**
+     * Get the movement profile of the given path findable
+     *
+     * @param pathFindable the entity
+     * @return the movement profile
+     */
+    public static MovementProfile valueOf(PathFindable pathFindable) {
+        if (pathFindable instanceof MovementProfile) {
+            return (MovementProfile) pathFindable;
+        }
+        return new MovementProfile(MovementClass.valueOf(pathFindable), pathFindable.getOwnerId(), pathFindable.canMoveDiagonally());
+    }
+
+    public MovementClass getMovementClass() {
+        return movementClass;
+    }
+
+    @Override
+    public short getOwnerId() {
+        return ownerId;
+    }
+
+    @Override
+    public boolean canFly() {
+        return movementClass == MovementClass.FLYER;
+    }
+
+    @Override
+    public boolean canWalkOnWater() {
+        return movementClass == MovementClass.WATER_WALKER;
+    }
+
+    @Override
+    public boolean canWalkOnLava() {
+        return movementClass == MovementClass.LAVA_WALKER;
+    }
+
+    @Override
+    public boolean canMoveDiagonally() {
+        return diagonal;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 37 * hash + Objects.hashCode(this.movementClass);
+        hash = 37 * hash + this.ownerId;
+        hash = 37 * hash + (this.diagonal ? 1 : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final MovementProfile other = (MovementProfile) obj;
+        if (this.ownerId != other.ownerId) {
+            return false;
+        }
+        if (this.diagonal != other.diagonal) {
+            return false;
+        }
+        if (this.movementClass != other.movementClass) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "MovementProfile{" + "movementClass=" + movementClass + ", ownerId=" + ownerId + ", diagonal=" + diagonal + '}';
+    }
+
+}
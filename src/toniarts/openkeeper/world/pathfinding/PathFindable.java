@@ -16,12 +16,8 @@
  */
 package toniarts.openkeeper.world.pathfinding;
 
-import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.world.TileData;
 import toniarts.openkeeper.world.WorldState;
-import toniarts.openkeeper.world.door.DoorControl;
-import toniarts.openkeeper.world.room.GenericRoom;
-import toniarts.openkeeper.world.room.RoomInstance;
 
 /**
  * A simple interface for an entity that can use path finding
@@ -51,32 +47,21 @@ public interface PathFindable {
      * @return {@code null} if the to tile is not accessible
      */
     default public Float getCost(final TileData from, final TileData to, final WorldState worldState) {
-        Terrain terrain = to.getTerrain();
-        if (!terrain.getFlags().contains(Terrain.TerrainFlag.SOLID)) {
-
-            // Check for doors etc.
-            DoorControl doorControl = worldState.getThingLoader().getDoor(to.getLocation());
-            if (doorControl != null && !doorControl.isPassable(getOwnerId())) {
-                return null;
-            }
-
-            // Check terrain
-            if (terrain.getFlags().contains(Terrain.TerrainFlag.ROOM)) {
+        float cost = worldState.getPathFindingService().getCostGrid().getCost(from, to, this);
+        return (cost >= 0 ? cost : null);
+    }
 
-                // Get room obstacles
-                RoomInstance roomInstance = worldState.getMapLoader().getRoomCoordinates().get(to.getLocation());
-                GenericRoom room = worldState.getMapLoader().getRoomActuals().get(roomInstance);
-                return room.isTileAccessible(from != null ? from.getLocation() : null, to.getLocation()) ? DEFAULT_COST : null;
-            } else if (canFly()) {
-                return DEFAULT_COST;
-            } else if (terrain.getFlags().contains(Terrain.TerrainFlag.LAVA) && canWalkOnLava()) {
-                return DEFAULT_COST;
-            } else if (terrain.getFlags().contains(Terrain.TerrainFlag.WATER) && canWalkOnWater()) {
-                return WATER_COST;
-            }
-            return DEFAULT_COST;
-        }
-        return null;
+    /**
+     * Does the entity use the default cost function. Entities sharing the
+     * default costs can share precalculated path finding data
+     *
+     * @see #getCost(toniarts.openkeeper.world.TileData,
+     * toniarts.openkeeper.world.TileData,
+     * toniarts.openkeeper.world.WorldState)
+     * @return {@code true} if the costs are not altered
+     */
+    default public boolean hasDefaultCost() {
+        return true;
     }
 
     /**
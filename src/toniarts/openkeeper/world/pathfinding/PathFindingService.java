@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.jme3.app.Application;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.logic.IGameLogicUpdateable;
+import toniarts.openkeeper.utils.jfr.JfrEvents;
+import toniarts.openkeeper.utils.jfr.PathSearchEvent;
+import toniarts.openkeeper.world.TileData;
+import toniarts.openkeeper.world.WorldState;
+import toniarts.openkeeper.world.listener.TileChangeListener;
+import toniarts.openkeeper.world.room.RoomInstance;
+
+/**
+ * Path finding service. The paths can be queried from any thread, every
+ * thread gets its own search buffers. The queries share a read lock on the
+ * map data, the tile changes update it under the write lock.<br>
+ * The paths can also be requested asynchronously. The requests are queued and
+ * searched in parallel by the worker threads once per game tick, in the task
+ * phase. The futures are completed in the game logic thread.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PathFindingService implements IGameLogicUpdateable, TileChangeListener {
+
+    /**
+     * Maximum number of queued asynchronous path requests
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 512;
+
+    private final WorldState worldState;
+    private final MapCostGrid costGrid;
+    private final MapConnectivity connectivity;
+    private final MapHierarchicalPathFinder pathFinder;
+    private final MapPathCache pathCache;
+    private final MapFlowFields flowFields;
+    private final ThreadLocal<MapPathSmoother> pathSmoother;
+    private final ReadWriteLock mapLock = new ReentrantReadWriteLock();
+    private final BlockingQueue<PathRequest> requests;
+    private final List<PathRequest> batch;
+    private final ExecutorService workers;
+    private final int workerCount;
+    private static final Logger logger = Logger.getLogger(PathFindingService.class.getName());
+
+    public PathFindingService(WorldState worldState, int clusterSize) {
+        this(worldState, clusterSize, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public PathFindingService(WorldState worldState, int clusterSize, int workerCount, int queueCapacity) {
+        this.worldState = worldState;
+        this.costGrid = new MapCostGrid(worldState);
+        this.connectivity = new MapConnectivity(worldState.getMapData(), costGrid);
+        this.pathFinder = new MapHierarchicalPathFinder(worldState, costGrid, clusterSize, mapLock.readLock());
+        this.pathCache = new MapPathCache(worldState.getMapData(), clusterSize, MapPathCache.DEFAULT_CAPACITY);
+        this.flowFields = new MapFlowFields(worldState, costGrid, MapFlowFields.DEFAULT_CAPACITY, MapFlowFields.DEFAULT_POPULARITY_THRESHOLD);
+        this.pathSmoother = ThreadLocal.withInitial(() -> new MapPathSmoother(worldState, costGrid));
+        this.workerCount = workerCount;
+        this.requests = new ArrayBlockingQueue<>(queueCapacity);
+        this.batch = new ArrayList<>(queueCapacity);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, (Runnable r) -> {
+            Thread thread = new Thread(r, "PathFindingThread-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void onTileChange(int x, int y) {
+
+        // The room obstacles depend on the whole room
+        RoomInstance roomInstance = worldState.getMapLoader().getRoomCoordinates().get(new Point(x, y));
+        mapLock.writeLock().lock();
+        try {
+            if (roomInstance != null) {
+                for (Point p : roomInstance.getCoordinates()) {
+                    updateTile(p.x, p.y);
+                }
+            } else {
+                updateTile(x, y);
+            }
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    private void updateTile(int x, int y) {
+        costGrid.updateTile(x, y);
+        connectivity.onTileChange(x, y);
+        pathFinder.onTileChange(x, y);
+        pathCache.invalidate(x, y);
+        flowFields.onTileChange(x, y);
+    }
+
+    /**
+     * Get the precalculated movement costs of the map
+     *
+     * @return the cost grid
+     */
+    public MapCostGrid getCostGrid() {
+        return costGrid;
+    }
+
+    /**
+     * Find a path between two tiles, in the calling thread. The paths of the
+     * entities with the default costs are cached, and the popular destinations
+     * get a shared flow field
+     *
+     * @param start the start tile
+     * @param end the end tile
+     * @param pathFindable the entity to find the path for
+     * @return the path, or {@code null} if there is no path
+     */
+    public GraphPath<TileData> findPath(TileData start, TileData end, PathFindable pathFindable) {
+        if (!JfrEvents.AVAILABLE) {
+            return searchPath(start, end, pathFindable);
+        }
+        PathSearchEvent event = new PathSearchEvent();
+        if (!event.isEnabled()) {
+            return searchPath(start, end, pathFindable);
+        }
+
+        // Record the search
+        long expandedNodes = pathFinder.getExpandedNodes();
+        event.begin();
+        GraphPath<TileData> path = searchPath(start, end, pathFindable);
+        event.end();
+        if (event.shouldCommit()) {
+            event.startX = start.getX();
+            event.startY = start.getY();
+            event.goalX = end.getX();
+            event.goalY = end.getY();
+            event.movementProfile = (pathFindable.hasDefaultCost() ? MovementProfile.valueOf(pathFindable).toString() : "");
+            event.expandedNodes = (int) (pathFinder.getExpandedNodes() - expandedNodes);
+            event.found = (path != null);
+            event.commit();
+        }
+        return path;
+    }
+
+    private GraphPath<TileData> searchPath(TileData start, TileData end, PathFindable pathFindable) {
+        mapLock.readLock().lock();
+        try {
+            if (!pathFindable.hasDefaultCost()) {
+                return pathFinder.findPath(start, end, pathFindable);
+            }
+
+            MovementProfile movementProfile = MovementProfile.valueOf(pathFindable);
+            GraphPath<TileData> path = pathCache.get(start.getIndex(), end.getIndex(), movementProfile);
+            if (path != null) {
+                return path;
+            }
+
+            // Reject the unreachable targets before searching
+            if (!connectivity.isReachable(start.getIndex(), end.getIndex(), movementProfile)) {
+                return null;
+            }
+
+            MapFlowField flowField = flowFields.getPopularFlowField(end.getIndex(), movementProfile);
+            if (flowField != null) {
+                return flowField.getPath(start);
+            }
+
+            path = pathFinder.findPath(start, end, movementProfile);
+            if (path != null) {
+                pathCache.put(start.getIndex(), end.getIndex(), movementProfile, path);
+            }
+            return path;
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Smooths the path for steering, leaving only the turning points
+     *
+     * @param path the path
+     * @param pathFindable the entity travelling the path
+     * @return the waypoints
+     * @see MapPathSmoother
+     */
+    public Array<Vector2> smoothPath(GraphPath<TileData> path, PathFindable pathFindable) {
+        mapLock.readLock().lock();
+        try {
+            return pathSmoother.get().smoothPath(path, pathFindable);
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Can the end tile possibly be reached from the start tile. This is a
+     * quick check, a path is not guaranteed
+     *
+     * @param start the start tile
+     * @param end the end tile
+     * @param pathFindable the entity
+     * @return {@code false} if the end tile is certainly unreachable
+     */
+    public boolean isReachable(TileData start, TileData end, PathFindable pathFindable) {
+        if (!pathFindable.hasDefaultCost()) {
+            return true;
+        }
+        mapLock.readLock().lock();
+        try {
+            return connectivity.isReachable(start.getIndex(), end.getIndex(), MovementProfile.valueOf(pathFindable));
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get a flow field towards the nearest of the given goals. The fields are
+     * shared and kept up to date, so they are cheap to query repeatedly
+     *
+     * @param goals the goal tiles
+     * @param pathFindable the entity to get the field for
+     * @return the flow field, or {@code null} if the entity doesn't use the
+     * default costs
+     */
+    public MapFlowField getFlowField(Collection<Point> goals, PathFindable pathFindable) {
+        if (!pathFindable.hasDefaultCost()) {
+            return null;
+        }
+        int[] indices = new int[goals.size()];
+        int i = 0;
+        for (Point p : goals) {
+            indices[i++] = worldState.getMapData().getTile(p).getIndex();
+        }
+        mapLock.readLock().lock();
+        try {
+            return flowFields.getFlowField(indices, MovementProfile.valueOf(pathFindable));
+        } finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queue a path request. The request is searched on the next game tick,
+     * in parallel with the other queued requests. The future is completed in
+     * the game logic thread, in the order of the requests, so the callbacks
+     * are run there too
+     *
+     * @param start the start tile
+     * @param end the end tile
+     * @param pathFindable the entity to find the path for
+     * @return future for the path, the path is {@code null} if there is no
+     * path. The future fails with {@link RejectedExecutionException} if the
+     * request queue is full
+     */
+    public CompletableFuture<GraphPath<TileData>> findPathAsync(TileData start, TileData end, PathFindable pathFindable) {
+        PathRequest request = new PathRequest(start, end, pathFindable);
+        if (!requests.offer(request)) {
+            request.future.completeExceptionally(new RejectedExecutionException("Path request queue is full!"));
+        }
+        return request.future;
+    }
+
+    /**
+     * Searches the queued path requests in parallel and completes them
+     *
+     * @param tpf the time since the last tick
+     * @param app the application
+     */
+    @Override
+    public void processTick(float tpf, Application app) {
+        requests.drainTo(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Split the requests evenly to the workers and wait for them
+        int batchSize = (batch.size() + workerCount - 1) / workerCount;
+        List<Callable<Void>> work = new ArrayList<>(workerCount);
+        for (int i = 0; i < batch.size(); i += batchSize) {
+            List<PathRequest> part = batch.subList(i, Math.min(batch.size(), i + batchSize));
+            work.add(() -> {
+                for (PathRequest request : part) {
+                    request.search();
+                }
+                return null;
+            });
+        }
+        boolean searched = false;
+        try {
+            workers.invokeAll(work);
+            searched = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.FINE, "Path finding service already shut down!", e);
+        }
+
+        // Complete in the request order
+        for (PathRequest request : batch) {
+            if (searched) {
+                request.complete();
+            } else {
+                request.future.cancel(false);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Stops the worker threads, the pending requests are cancelled
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        PathRequest request;
+        while ((request = requests.poll()) != null) {
+            request.future.cancel(false);
+        }
+    }
+
+    private class PathRequest {
+
+        private final TileData start;
+        private final TileData end;
+        private final PathFindable pathFindable;
+        private final CompletableFuture<GraphPath<TileData>> future = new CompletableFuture<>();
+        private GraphPath<TileData> path;
+        private Exception error;
+
+        public PathRequest(TileData start, TileData end, PathFindable pathFindable) {
+            this.start = start;
+            this.end = end;
+            this.pathFindable = pathFindable;
+        }
+
+        private void search() {
+            try {
+                path = findPath(start, end, pathFindable);
+
+                // Refine the path here in the worker thread
+                if (path != null) {
+                    path.getCount();
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(path);
+            }
+        }
+
+    }
+
+}
@@ -165,6 +165,11 @@ public abstract class GenericRoom {
             objectsNode.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
             getRootNode().attachChild(objectsNode);
         }
+
+        // The layout may have changed, let the controls know
+        for (RoomObjectControl<?, ?> control : objectControls.values()) {
+            control.invalidateCoordinates();
+        }
         return getRootNode();
     }
 
@@ -411,6 +416,17 @@ public abstract class GenericRoom {
         return true;
     }
 
+    /**
+     * Does the tile accessibility depend on the tile we are coming from. If
+     * not, the accessibility can be precalculated per tile
+     *
+     * @see #isTileAccessible(java.lang.Integer, java.lang.Integer, int, int)
+     * @return {@code true} if the direction matters
+     */
+    public boolean hasDirectionalAccess() {
+        return false;
+    }
+
     public final boolean isTileAccessible(Point from, Point to) {
         return isTileAccessible(from != null ? from.x : null, (from != null ? from.y : null), to.x, to.y);
     }
@@ -140,6 +140,11 @@ public class Prison extends DoubleQuad {
         return super.isTileAccessible(fromX, fromY, toX, toY);
     }
 
+    @Override
+    public boolean hasDirectionalAccess() {
+        return door != null;
+    }
+
     private Collection<Point> getInsideCoordinates() {
         boolean[][] matrix = roomInstance.getCoordinatesAsMatrix();
         List<Point> coordinates = new ArrayList<>();
@@ -191,7 +191,7 @@ public abstract class RoomGoldControl extends RoomObjectControl<GoldObjectContro
 
     @Override
     public Collection<Point> getAvailableCoordinates() {
-        return getCoordinates(); // Everything goes
+        return getCachedCoordinates(); // Everything goes
     }
 
 }
@@ -19,18 +19,22 @@ package toniarts.openkeeper.world.room.control;
 import java.awt.Point;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import toniarts.openkeeper.world.ThingLoader;
 import toniarts.openkeeper.world.creature.CreatureControl;
 import toniarts.openkeeper.world.object.ObjectControl;
 import toniarts.openkeeper.world.room.GenericRoom;
 
 /**
- * Room object controller. FIXME: Cache the coorninates and listen to changes in
- * rooms
+ * Room object controller. The coordinates that can hold objects are cached
+ * until the room is reconstructed, and the free ones can be reserved so that
+ * only one task at a time is heading to a given slot
  *
  * @param <T> the held object type
  * @param <V> the value type to add
@@ -40,6 +44,8 @@ public abstract class RoomObjectControl<T extends ObjectControl, V> {
 
     protected final GenericRoom parent;
     protected final Map<Point, Collection<T>> objectsByCoordinate = new HashMap<>();
+    private final Set<Point> reservedCoordinates = new HashSet<>();
+    private Collection<Point> coordinates;
 
     public RoomObjectControl(GenericRoom parent) {
         this.parent = parent;
@@ -134,7 +140,8 @@ public abstract class RoomObjectControl<T extends ObjectControl, V> {
     }
 
     /**
-     * Gets all coordinates, coordinates that can handle the objects
+     * Gets all coordinates, coordinates that can handle the objects. This is
+     * the uncached version, use {@link #getCachedCoordinates()}
      *
      * @return list of all coordinates
      */
@@ -150,22 +157,77 @@ public abstract class RoomObjectControl<T extends ObjectControl, V> {
         return coordinates;
     }
 
+    /**
+     * Gets all coordinates that can handle the objects. The coordinates are
+     * cached until {@link #invalidateCoordinates()} is called
+     *
+     * @return all coordinates
+     */
+    protected final Collection<Point> getCachedCoordinates() {
+        if (coordinates == null) {
+            coordinates = Collections.unmodifiableCollection(getCoordinates());
+        }
+        return coordinates;
+    }
+
+    /**
+     * Clears the cached coordinates, the room layout has changed. Called when
+     * the room is (re)constructed
+     */
+    public void invalidateCoordinates() {
+        coordinates = null;
+    }
+
     /**
      * Gets available coordinates
      *
      * @return list of available coordinates
      */
     public Collection<Point> getAvailableCoordinates() {
-        List<Point> coordinates = new ArrayList<>(getCoordinates());
-        Iterator<Point> iter = coordinates.iterator();
-        while (iter.hasNext()) {
-            Point p = iter.next();
+        List<Point> availableCoordinates = new ArrayList<>(getCachedCoordinates().size());
+        for (Point p : getCachedCoordinates()) {
             Collection<T> items = getItems(p);
-            if (items != null && items.size() == getObjectsPerTile()) {
-                iter.remove();
+            if (items == null || items.size() < getObjectsPerTile()) {
+                availableCoordinates.add(p);
             }
         }
-        return coordinates;
+        return availableCoordinates;
+    }
+
+    /**
+     * Gets the free coordinates, available coordinates that are accessible and
+     * not reserved by anyone
+     *
+     * @return list of free coordinates
+     */
+    public List<Point> getFreeCoordinates() {
+        Collection<Point> availableCoordinates = getAvailableCoordinates();
+        List<Point> freeCoordinates = new ArrayList<>(availableCoordinates.size());
+        for (Point p : availableCoordinates) {
+            if (!reservedCoordinates.contains(p) && parent.isTileAccessible(null, p)) {
+                freeCoordinates.add(p);
+            }
+        }
+        return freeCoordinates;
+    }
+
+    /**
+     * Reserve a coordinate, a task is heading to it
+     *
+     * @param p the coordinate
+     * @return {@code false} if the coordinate was already reserved
+     */
+    public boolean reserveCoordinate(Point p) {
+        return reservedCoordinates.add(p);
+    }
+
+    /**
+     * Release a reserved coordinate
+     *
+     * @param p the coordinate
+     */
+    public void releaseCoordinate(Point p) {
+        reservedCoordinates.remove(p);
     }
 
 }
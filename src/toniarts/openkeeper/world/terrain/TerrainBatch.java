@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2014-2017 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.world.terrain;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.material.Material;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Batches the terrain tiles of a map page, replaces the jME BatchNode for the
+ * terrain. Every tile owns fixed ranges of the batched vertex and index
+ * buffers, so a changed tile is patched in place instead of re-batching the
+ * whole page. The ranges released by the tiles are recycled with a first fit
+ * free list, the models of the tiles vary in size. The changed buffers are
+ * uploaded once per tile update, jME always uploads a buffer whole.<br>
+ * The first children of the batch are the tile nodes, indexed by the tile
+ * index inside the page. The batched geometries come after them. Spatials
+ * with controls (torches etc.) are not batched, they are left as they are.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class TerrainBatch extends Node {
+
+    private static final VertexBuffer.Type[] BATCHED_TYPES = {VertexBuffer.Type.Position,
+        VertexBuffer.Type.Normal, VertexBuffer.Type.Tangent, VertexBuffer.Type.Binormal,
+        VertexBuffer.Type.TexCoord, VertexBuffer.Type.TexCoord2, VertexBuffer.Type.Color};
+    private static final int INITIAL_VERTEX_CAPACITY = 1024;
+    private final List<List<Slot>> tileSlots;
+    private final List<Group> groups = new ArrayList<>();
+
+    public TerrainBatch(String name, int tileCount) {
+        super(name);
+        tileSlots = new ArrayList<>(tileCount);
+        for (int i = 0; i < tileCount; i++) {
+            tileSlots.add(new ArrayList<>(2));
+        }
+    }
+
+    /**
+     * Batches all the tiles
+     */
+    public void batch() {
+        for (int i = 0; i < tileSlots.size(); i++) {
+            patchTile(i);
+        }
+        updateMeshes();
+    }
+
+    /**
+     * Patches the geometry of a single tile to the batch. Call after the tile
+     * node has been changed
+     *
+     * @param index the tile index inside the page
+     */
+    public void updateTile(int index) {
+        patchTile(index);
+        updateMeshes();
+    }
+
+    private void patchTile(int index) {
+        releaseTile(index);
+
+        List<Geometry> geometries = new ArrayList<>();
+        gatherGeometries(getChild(index), geometries);
+        List<Slot> slots = tileSlots.get(index);
+        for (Geometry geometry : geometries) {
+            VertexBuffer.Type[] types = getBatchedTypes(geometry.getMesh());
+            if (types == null) {
+                continue; // Leave it be
+            }
+            Group group = getGroup(geometry, types);
+            slots.add(group.add(geometry.getMesh(), getTransform(geometry)));
+            geometry.setCullHint(CullHint.Always);
+        }
+    }
+
+    /**
+     * Get the number of batched geometries, mainly for debugging
+     *
+     * @return the batched geometry count
+     */
+    public int getBatchCount() {
+        return groups.size();
+    }
+
+    private void updateMeshes() {
+        for (Group group : groups) {
+            group.updateMesh();
+        }
+    }
+
+    private void releaseTile(int index) {
+        List<Slot> slots = tileSlots.get(index);
+        for (Slot slot : slots) {
+            Group group = slot.group;
+            group.remove(slot);
+            if (group.isEmpty()) {
+                group.geometry.removeFromParent();
+                groups.remove(group);
+            }
+        }
+        slots.clear();
+    }
+
+    private Group getGroup(Geometry geometry, VertexBuffer.Type[] types) {
+        for (Group group : groups) {
+            if (group.accepts(geometry, types)) {
+                return group;
+            }
+        }
+        Group group = new Group(geometry, types);
+        groups.add(group);
+        attachChild(group.geometry);
+        return group;
+    }
+
+    private void gatherGeometries(Spatial spatial, List<Geometry> geometries) {
+        if (spatial.getBatchHint() == BatchHint.Never || spatial.getNumControls() > 0) {
+            return;
+        }
+        if (spatial instanceof Geometry) {
+            geometries.add((Geometry) spatial);
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                gatherGeometries(child, geometries);
+            }
+        }
+    }
+
+    /**
+     * Get the transform of the spatial relative to this batch
+     *
+     * @param spatial the spatial
+     * @return the transform
+     */
+    private Transform getTransform(Spatial spatial) {
+        Transform transform = spatial.getLocalTransform().clone();
+        Node parent = spatial.getParent();
+        while (parent != null && parent != this) {
+            transform.combineWithParent(parent.getLocalTransform());
+            parent = parent.getParent();
+        }
+        return transform;
+    }
+
+    /**
+     * Get the buffer types to batch from the mesh
+     *
+     * @param mesh the mesh
+     * @return the buffer types, {@code null} if the mesh can't be batched
+     */
+    private static VertexBuffer.Type[] getBatchedTypes(Mesh mesh) {
+        if (mesh.getMode() != Mesh.Mode.Triangles || mesh.getBuffer(VertexBuffer.Type.Position) == null) {
+            return null;
+        }
+        List<VertexBuffer.Type> types = new ArrayList<>(BATCHED_TYPES.length);
+        for (VertexBuffer vb : mesh.getBufferList()) {
+            if (vb.getBufferType() == VertexBuffer.Type.Index) {
+                continue;
+            }
+            if (!Arrays.asList(BATCHED_TYPES).contains(vb.getBufferType()) || vb.getFormat() != VertexBuffer.Format.Float) {
+                return null;
+            }
+        }
+        for (VertexBuffer.Type type : BATCHED_TYPES) {
+            if (mesh.getBuffer(type) != null) {
+                types.add(type);
+            }
+        }
+        return types.toArray(new VertexBuffer.Type[types.size()]);
+    }
+
+    /**
+     * Range of a group buffers owned by a tile
+     */
+    private static final class Slot {
+
+        private final Group group;
+        private final int vertexStart;
+        private final int vertexCount;
+        private final int indexStart;
+        private final int indexCount;
+
+        public Slot(Group group, int vertexStart, int vertexCount, int indexStart, int indexCount) {
+            this.group = group;
+            this.vertexStart = vertexStart;
+            this.vertexCount = vertexCount;
+            this.indexStart = indexStart;
+            this.indexCount = indexCount;
+        }
+
+    }
+
+    /**
+     * A single batched geometry, all the tile geometries with same material
+     * and vertex format
+     */
+    private static final class Group {
+
+        private final Material material;
+        private final RenderQueue.Bucket bucket;
+        private final VertexBuffer.Type[] types;
+        private final int[] components;
+        private final Geometry geometry;
+        private final Mesh mesh = new Mesh();
+        private final RangeAllocator vertices = new RangeAllocator();
+        private final RangeAllocator indices = new RangeAllocator();
+        private final FloatBuffer[] vertexData;
+        private IntBuffer indexData;
+        private int vertexCapacity = 0;
+        private int indexCapacity = 0;
+        private int drawnVertices = 0;
+        private int drawnIndices = 0;
+        private int slots = 0;
+        private boolean changed = false;
+        private final Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        private final Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+
+        public Group(Geometry source, VertexBuffer.Type[] types) {
+            this.material = source.getMaterial().clone();
+            this.bucket = source.getQueueBucket();
+            this.types = types;
+            components = new int[types.length];
+            for (int i = 0; i < types.length; i++) {
+                components[i] = source.getMesh().getBuffer(types[i]).getNumComponents();
+            }
+            vertexData = new FloatBuffer[types.length];
+
+            geometry = new Geometry("batch[" + source.getName() + "]", mesh);
+            geometry.setMaterial(material);
+            geometry.setQueueBucket(bucket);
+            geometry.setBatchHint(BatchHint.Never);
+        }
+
+        public boolean accepts(Geometry source, VertexBuffer.Type[] sourceTypes) {
+            if (bucket != source.getQueueBucket() || !Arrays.equals(types, sourceTypes)) {
+                return false;
+            }
+            for (int i = 0; i < types.length; i++) {
+                if (components[i] != source.getMesh().getBuffer(types[i]).getNumComponents()) {
+                    return false;
+                }
+            }
+            return material.contentEquals(source.getMaterial());
+        }
+
+        public boolean isEmpty() {
+            return slots == 0;
+        }
+
+        public Slot add(Mesh source, Transform transform) {
+            IndexBuffer sourceIndices = source.getIndexBuffer();
+            int vertexCount = source.getVertexCount();
+            int indexCount = (sourceIndices != null ? sourceIndices.size() : vertexCount);
+            int vertexStart = vertices.allocate(vertexCount);
+            int indexStart = indices.allocate(indexCount);
+            ensureCapacity(vertices.getEnd(), indices.getEnd());
+            updateLimits();
+
+            // Vertices
+            Vector3f v = new Vector3f();
+            Quaternion rotation = transform.getRotation();
+            for (int i = 0; i < types.length; i++) {
+                FloatBuffer from = (FloatBuffer) source.getBuffer(types[i]).getData();
+                FloatBuffer to = vertexData[i];
+                int comps = components[i];
+                for (int vertex = 0; vertex < vertexCount; vertex++) {
+                    int fromIndex = vertex * comps;
+                    int toIndex = (vertexStart + vertex) * comps;
+                    switch (types[i]) {
+                        case Position:
+                            v.set(from.get(fromIndex), from.get(fromIndex + 1), from.get(fromIndex + 2));
+                            transform.transformVector(v, v);
+                            min.minLocal(v);
+                            max.maxLocal(v);
+                            putVector(to, toIndex, v);
+                            break;
+                        case Normal:
+                        case Tangent:
+                        case Binormal:
+                            v.set(from.get(fromIndex), from.get(fromIndex + 1), from.get(fromIndex + 2));
+                            rotation.multLocal(v).normalizeLocal();
+                            putVector(to, toIndex, v);
+                            for (int c = 3; c < comps; c++) {
+                                to.put(toIndex + c, from.get(fromIndex + c)); // Tangent handedness
+                            }
+                            break;
+                        default:
+                            for (int c = 0; c < comps; c++) {
+                                to.put(toIndex + c, from.get(fromIndex + c));
+                            }
+                    }
+                }
+            }
+
+            // Indices
+            for (int i = 0; i < indexCount; i++) {
+                indexData.put(indexStart + i, vertexStart + (sourceIndices != null ? sourceIndices.get(i) : i));
+            }
+
+            slots++;
+            changed = true;
+            return new Slot(this, vertexStart, vertexCount, indexStart, indexCount);
+        }
+
+        public void remove(Slot slot) {
+
+            // Degenerate the triangles, the vertices are just left unreferenced
+            for (int i = 0; i < slot.indexCount; i++) {
+                indexData.put(slot.indexStart + i, 0);
+            }
+            vertices.release(slot.vertexStart, slot.vertexCount);
+            indices.release(slot.indexStart, slot.indexCount);
+            slots--;
+            changed = true;
+        }
+
+        private void ensureCapacity(int vertexCount, int indexCount) {
+            if (vertexCount > vertexCapacity) {
+                vertexCapacity = Math.max(vertexCount, Math.max(INITIAL_VERTEX_CAPACITY, vertexCapacity * 2));
+                for (int i = 0; i < types.length; i++) {
+                    FloatBuffer buffer = BufferUtils.createFloatBuffer(vertexCapacity * components[i]);
+                    if (vertexData[i] != null) {
+                        vertexData[i].clear();
+                        buffer.put(vertexData[i]);
+                        buffer.clear();
+                    }
+                    vertexData[i] = buffer;
+                }
+            }
+            if (indexCount > indexCapacity) {
+                indexCapacity = Math.max(indexCount, Math.max(INITIAL_VERTEX_CAPACITY, indexCapacity * 2));
+                IntBuffer buffer = BufferUtils.createIntBuffer(indexCapacity);
+                if (indexData != null) {
+                    indexData.clear();
+                    buffer.put(indexData);
+                    buffer.clear();
+                }
+                indexData = buffer;
+            }
+        }
+
+        private void updateLimits() {
+
+            // The buffers are drawn up to the high water mark, they are never shrunk
+            drawnVertices = Math.max(drawnVertices, vertices.getEnd());
+            drawnIndices = Math.max(drawnIndices, indices.getEnd());
+            for (int i = 0; i < types.length; i++) {
+                vertexData[i].limit(drawnVertices * components[i]);
+            }
+            indexData.limit(drawnIndices);
+        }
+
+        /**
+         * Updates the mesh buffers if the group has been changed
+         */
+        public void updateMesh() {
+            if (!changed) {
+                return;
+            }
+            changed = false;
+            for (int i = 0; i < types.length; i++) {
+                setBuffer(types[i], components[i], VertexBuffer.Format.Float, vertexData[i]);
+            }
+            setBuffer(VertexBuffer.Type.Index, 3, VertexBuffer.Format.UnsignedInt, indexData);
+            mesh.updateCounts();
+
+            // The bounds only grow, good enough for culling
+            if (min.x <= max.x) {
+                geometry.setModelBound(new BoundingBox(min, max));
+            }
+        }
+
+        private void setBuffer(VertexBuffer.Type type, int comps, VertexBuffer.Format format, java.nio.Buffer buffer) {
+            VertexBuffer vb = mesh.getBuffer(type);
+            if (vb == null || vb.getData() != buffer) {
+                if (vb != null) {
+                    mesh.clearBuffer(type);
+                }
+                vb = new VertexBuffer(type);
+                vb.setupData(VertexBuffer.Usage.Dynamic, comps, format, buffer);
+                mesh.setBuffer(vb);
+            } else {
+                vb.updateData(buffer);
+            }
+        }
+
+        private static void putVector(FloatBuffer buffer, int index, Vector3f v) {
+            buffer.put(index, v.x);
+            buffer.put(index + 1, v.y);
+            buffer.put(index + 2, v.z);
+        }
+
+    }
+
+    /**
+     * First fit allocator of buffer ranges
+     */
+    private static final class RangeAllocator {
+
+        private final TreeMap<Integer, Integer> freeRanges = new TreeMap<>(); // Start -> length
+        private int end = 0;
+
+        public int allocate(int length) {
+            Map.Entry<Integer, Integer> fit = null;
+            for (Map.Entry<Integer, Integer> entry : freeRanges.entrySet()) {
+                if (entry.getValue() >= length) {
+                    fit = entry;
+                    break;
+                }
+            }
+            if (fit == null) {
+                int start = end;
+                end += length;
+                return start;
+            }
+            int start = fit.getKey();
+            int remaining = fit.getValue() - length;
+            freeRanges.remove(start);
+            if (remaining > 0) {
+                freeRanges.put(start + length, remaining);
+            }
+            return start;
+        }
+
+        public void release(int start, int length) {
+            if (length == 0) {
+                return;
+            }
+
+            // Merge with the neighbours
+            Map.Entry<Integer, Integer> previous = freeRanges.lowerEntry(start);
+            if (previous != null && previous.getKey() + previous.getValue() == start) {
+                freeRanges.remove(previous.getKey());
+                start = previous.getKey();
+                length += previous.getValue();
+            }
+            Integer next = freeRanges.remove(start + length);
+            if (next != null) {
+                length += next;
+            }
+            if (start + length == end) {
+                end = start;
+            } else {
+                freeRanges.put(start, length);
+            }
+        }
+
+        /**
+         * Get the end of the allocated ranges, the high water mark
+         *
+         * @return the end
+         */
+        public int getEnd() {
+            return end;
+        }
+
+    }
+
+}